@@ -0,0 +1,33 @@
+package uk.ac.soton.ecs.dsj.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar. Accepts the standard JMH command line options, but unless told
+ * otherwise attaches the GC profiler (for allocation rates) and writes results as JSON so that runs
+ * can be compared between versions. Use "-rf csv" for CSV output.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+    final CommandLineOptions cmd = new CommandLineOptions(args);
+    final ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmd);
+    if (cmd.getProfilers().isEmpty()) {
+      builder.addProfiler(GCProfiler.class);
+    }
+    final ResultFormatType format = cmd.getResultFormat().orElse(ResultFormatType.JSON);
+    builder.resultFormat(format);
+    if (!cmd.getResult().hasValue()) {
+      builder.result("jmh-result." + format.toString().toLowerCase());
+    }
+    new Runner(builder.build()).run();
+  }
+
+}
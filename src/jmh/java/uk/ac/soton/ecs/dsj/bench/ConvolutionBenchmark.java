@@ -0,0 +1,132 @@
+package uk.ac.soton.ecs.dsj.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openimaj.image.FImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * JMH benchmark of every {@link ConvolutionStrategy} across the kernel sizes used by SpeedTest and a
+ * mix of square, non-square and non-power-of-two image sizes. Each invocation processes a copy of
+ * the source image and returns it, so the source is never reprocessed and the result cannot be
+ * eliminated as dead code.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class ConvolutionBenchmark {
+
+  @Param
+  public ConvolutionStrategy strategy;
+
+  @Param({"1", "3", "5", "7", "9", "11", "13", "15", "21", "25", "31", "39"})
+  public int kdim;
+
+  @Param({"256x256", "1024x1024", "1000x1000", "1920x1080", "509x127"})
+  public String imageSize;
+
+  /** Size of pool for spatial and block strategies, 0 to run on the benchmark thread. */
+  @Param({"0"})
+  public int threads;
+
+  private FImage image;
+  private MyConvolution conv;
+  private ForkJoinPool pool;
+
+  @Setup
+  public void setup() {
+    final String[] dims = imageSize.split("x");
+    image = createImage(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]));
+    pool = (threads > 0) ? new ForkJoinPool(threads) : null;
+    // BOX can only be forced for a kernel with every value equal
+    final float[][] kernel =
+        (strategy == ConvolutionStrategy.BOX) ? createBoxKernel(kdim) : createKernel(kdim);
+    conv = new MyConvolution(kernel, strategy, pool);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  @Benchmark
+  public FImage convolve() {
+    return image.process(conv);
+  }
+
+  /**
+   * Create an image filled with repeatable random values.
+   *
+   * @param width Width of image
+   * @param height Height of image
+   * @return Random image
+   */
+  static FImage createImage(int width, int height) {
+    final Random random = new Random(0);
+    final FImage image = new FImage(width, height);
+    for (float[] row : image.pixels) {
+      for (int x = 0; x < row.length; x++) {
+        row[x] = random.nextFloat();
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Create a square separable kernel so that every strategy can be applied.
+   *
+   * @param kdim Width and height of kernel
+   * @return Kernel
+   */
+  static float[][] createKernel(int kdim) {
+    final Random random = new Random(1);
+    final float[] factor = new float[kdim];
+    for (int i = 0; i < kdim; i++) {
+      factor[i] = random.nextFloat() + 0.5f;
+    }
+    final float[][] kernel = new float[kdim][kdim];
+    for (int y = 0; y < kdim; y++) {
+      for (int x = 0; x < kdim; x++) {
+        kernel[y][x] = factor[y] * factor[x] / (kdim * kdim);
+      }
+    }
+    return kernel;
+  }
+
+  /**
+   * Create a square kernel with every value equal, as required by the BOX strategy.
+   *
+   * @param kdim Width and height of kernel
+   * @return Kernel
+   */
+  static float[][] createBoxKernel(int kdim) {
+    final float[][] kernel = new float[kdim][kdim];
+    for (float[] row : kernel) {
+      Arrays.fill(row, 1f / (kdim * kdim));
+    }
+    return kernel;
+  }
+
+}
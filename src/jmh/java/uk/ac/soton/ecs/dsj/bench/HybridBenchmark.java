@@ -0,0 +1,91 @@
+package uk.ac.soton.ecs.dsj.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openimaj.image.ImageUtilities;
+import org.openimaj.image.MBFImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.soton.ecs.dsj.lib.HybridConvolution;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * JMH benchmark of {@link HybridConvolution} against the step-by-step flow of HybridGeneration (two
+ * full low-passes, subtract, add and crop) on the bundled example pairs.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class HybridBenchmark {
+
+  /** Low and high frequency example images separated by a colon. */
+  @Param({"dog.bmp:cat.bmp", "motorcycle.bmp:bicycle.bmp", "bird.bmp:plane.bmp",
+      "einstein.bmp:marilyn.bmp", "fish.bmp:submarine.bmp"})
+  public String pair;
+
+  @Param({"6"})
+  public float lowSigma;
+
+  @Param({"1"})
+  public float highSigma;
+
+  private MBFImage low;
+  private MBFImage high;
+  private MyConvolution lowConv;
+  private MyConvolution highConv;
+  private HybridConvolution hybrid;
+
+  @Setup
+  public void setup() throws IOException {
+    final String[] names = pair.split(":");
+    low = readExample(names[0]);
+    high = readExample(names[1]);
+    lowConv = new MyConvolution(HybridConvolution.createLowPassKernel(lowSigma));
+    highConv = new MyConvolution(HybridConvolution.createLowPassKernel(highSigma));
+    hybrid = new HybridConvolution(lowSigma, highSigma);
+  }
+
+  @Benchmark
+  public MBFImage stepwise() {
+    final MBFImage imgLowFrequency = low.process(lowConv);
+    final MBFImage imgHighFrequency = high.subtract(high.process(highConv));
+    final MBFImage imgHybrid = imgLowFrequency.add(imgHighFrequency);
+    final int by = hybrid.getBorderRows();
+    final int bx = hybrid.getBorderCols();
+    return imgHybrid.extractROI(bx, by, imgHybrid.getWidth() - bx * 2,
+        imgHybrid.getHeight() - by * 2);
+  }
+
+  @Benchmark
+  public MBFImage fused() {
+    return hybrid.createHybrid(low, high);
+  }
+
+  private static MBFImage readExample(String name) throws IOException {
+    final InputStream in = MyConvolution.class.getResourceAsStream("/examples/" + name);
+    if (in == null) {
+      throw new IOException("Example image not found: " + name);
+    }
+    try {
+      return ImageUtilities.readMBF(in);
+    } finally {
+      in.close();
+    }
+  }
+
+}
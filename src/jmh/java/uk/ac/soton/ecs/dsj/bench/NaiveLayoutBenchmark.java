@@ -0,0 +1,95 @@
+package uk.ac.soton.ecs.dsj.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openimaj.image.FImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * JMH benchmark of the flat array naive convolution against the previous per-pixel loop over
+ * {@code float[][]}, at the kernel sizes used by SpeedTest. Both write into a preallocated output so
+ * only the convolution loops are compared.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class NaiveLayoutBenchmark {
+
+  @Param({"1", "3", "5", "7", "9", "11", "13", "15", "21", "25", "31", "39"})
+  public int kdim;
+
+  @Param({"1024x1024"})
+  public String imageSize;
+
+  private FImage image;
+  private FImage output;
+  private float[][] kernel;
+  private MyConvolution conv;
+
+  @Setup
+  public void setup() {
+    final String[] dims = imageSize.split("x");
+    image = ConvolutionBenchmark.createImage(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]));
+    output = new FImage(image.width, image.height);
+    kernel = ConvolutionBenchmark.createKernel(kdim);
+    conv = new MyConvolution(kernel, ConvolutionStrategy.NAIVE);
+  }
+
+  @Benchmark
+  public FImage flat() {
+    conv.processImage(image, output);
+    return output;
+  }
+
+  @Benchmark
+  public FImage legacy() {
+    legacyConvolution(image, kernel, output);
+    return output;
+  }
+
+  /**
+   * Per-pixel spatial convolution indexing {@code float[][]} in the inner loop, as used before the
+   * flat representation.
+   *
+   * @param image Image to process
+   * @param kernel Kernel to apply
+   * @param processed Image to write results into
+   */
+  static void legacyConvolution(FImage image, float[][] kernel, FImage processed) {
+    final int kh = kernel.length;
+    final int kw = kernel[0].length;
+    final int khh = kh / 2;
+    final int khw = kw / 2;
+
+    for (int y = khh; y < image.height - khh; y++) {
+      for (int x = khw; x < image.width - khw; x++) {
+        float val = 0;
+        for (int ky = 0; ky < kh; ky++) {
+          for (int kx = 0; kx < kw; kx++) {
+            final int iy = y - ky + khh;
+            final int ix = x - kx + khw;
+            val += (image.pixels[iy][ix] * kernel[ky][kx]);
+          }
+        }
+        processed.pixels[y][x] = val;
+      }
+    }
+  }
+
+}
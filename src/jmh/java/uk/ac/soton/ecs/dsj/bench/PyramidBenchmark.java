@@ -0,0 +1,73 @@
+package uk.ac.soton.ecs.dsj.bench;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.openimaj.image.FImage;
+import org.openimaj.image.processing.resize.ResizeProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.soton.ecs.dsj.lib.GaussianKernelFactory;
+import uk.ac.soton.ecs.dsj.lib.GaussianPyramid;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * JMH benchmark of building a {@link GaussianPyramid} by decimated convolution against blurring each
+ * level at full size with {@link MyConvolution} then halving it with {@link ResizeProcessor}.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class PyramidBenchmark {
+
+  @Param({"512", "1024", "2048"})
+  public int size;
+
+  @Param({"1"})
+  public float sigma;
+
+  private FImage image;
+  private MyConvolution conv;
+  private GaussianPyramid pyramid;
+
+  @Setup
+  public void setup() {
+    image = ConvolutionBenchmark.createImage(size, size);
+    conv = GaussianKernelFactory.getDefault().getLowPass(sigma);
+    pyramid = new GaussianPyramid(sigma, GaussianPyramid.DEFAULT_MIN_SIZE);
+  }
+
+  @Benchmark
+  public FImage blurThenResize() {
+    FImage level = image;
+    while (GaussianPyramid.getLevelSize(level.width) >= GaussianPyramid.DEFAULT_MIN_SIZE
+        && GaussianPyramid.getLevelSize(level.height) >= GaussianPyramid.DEFAULT_MIN_SIZE) {
+      level = ResizeProcessor.halfSize(level.process(conv));
+    }
+    return level;
+  }
+
+  @Benchmark
+  public FImage decimated() {
+    final Iterator<FImage> levels = pyramid.levels(image);
+    FImage level = null;
+    while (levels.hasNext()) {
+      level = levels.next();
+    }
+    return level;
+  }
+
+}
@@ -0,0 +1,70 @@
+package uk.ac.soton.ecs.dsj.batch;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Command line entry point for batch hybrid generation.
+ *
+ * <pre>
+ * BatchRunner manifest.csv [--out dir] [--decoders n] [--filters n] [--encoders n]
+ *     [--queue n] [--report seconds]
+ * </pre>
+ *
+ * Running the same manifest again resumes it, skipping hybrids that were already written.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class BatchRunner {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: BatchRunner manifest.csv [--out dir] [--decoders n] [--filters n]"
+          + " [--encoders n] [--queue n] [--report seconds]");
+      System.exit(1);
+    }
+    final int processors = Runtime.getRuntime().availableProcessors();
+    File out = new File(".");
+    int decoders = 1;
+    int filters = processors;
+    int encoders = 1;
+    int queue = 2 * processors;
+    int report = 5;
+    for (int i = 1; i < args.length; i += 2) {
+      if (i + 1 >= args.length) {
+        throw new IllegalArgumentException("Missing value for " + args[i]);
+      }
+      final String value = args[i + 1];
+      switch (args[i]) {
+        case "--out":
+          out = new File(value);
+          break;
+        case "--decoders":
+          decoders = Integer.parseInt(value);
+          break;
+        case "--filters":
+          filters = Integer.parseInt(value);
+          break;
+        case "--encoders":
+          encoders = Integer.parseInt(value);
+          break;
+        case "--queue":
+          queue = Integer.parseInt(value);
+          break;
+        case "--report":
+          report = Integer.parseInt(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+
+    final List<HybridTask> tasks = Manifest.read(new File(args[0]), out);
+    final HybridPipeline pipeline = new HybridPipeline(decoders, filters, encoders, queue);
+    final HybridPipeline.Summary summary = pipeline.run(tasks, System.out, report * 1000L);
+    if (summary.getFailed() > 0) {
+      System.exit(2);
+    }
+  }
+
+}
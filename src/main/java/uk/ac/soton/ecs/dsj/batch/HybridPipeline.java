@@ -0,0 +1,219 @@
+package uk.ac.soton.ecs.dsj.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.openimaj.image.ImageUtilities;
+import uk.ac.soton.ecs.dsj.lib.HybridConvolution;
+import uk.ac.soton.ecs.dsj.pipeline.PipelineSummary;
+import uk.ac.soton.ecs.dsj.pipeline.Stage;
+
+/**
+ * Staged pipeline generating hybrid images for a batch of tasks. Tasks pass through decode, filter
+ * and encode {@link Stage stages}, each with its own worker threads, connected by bounded queues so
+ * that a slow stage holds back the stages before it rather than letting decoded images pile up. The
+ * filter stage creates each hybrid in a single pass with {@link HybridConvolution}. Tasks whose
+ * output already exists are skipped, and outputs are written to a temporary file then moved into
+ * place, so an interrupted batch can be resumed by running it again.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class HybridPipeline {
+  /** Marker passed down a queue to stop one worker. */
+  private static final HybridTask END = new HybridTask(-1, null, null, 0, 0, null);
+
+  private final int decoders;
+  private final int filters;
+  private final int encoders;
+  private final int queueCapacity;
+
+  /**
+   * Create a pipeline.
+   *
+   * @param decoders Number of decode workers
+   * @param filters Number of filter workers
+   * @param encoders Number of encode workers
+   * @param queueCapacity Capacity of the queue in front of each stage
+   */
+  public HybridPipeline(int decoders, int filters, int encoders, int queueCapacity) {
+    if (decoders < 1 || filters < 1 || encoders < 1) {
+      throw new IllegalArgumentException("Every stage must have at least one worker");
+    }
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("Queue capacity must be at least 1");
+    }
+    this.decoders = decoders;
+    this.filters = filters;
+    this.encoders = encoders;
+    this.queueCapacity = queueCapacity;
+  }
+
+  /**
+   * Run a batch of tasks, blocking until every task has completed or failed.
+   *
+   * @param tasks Tasks to run
+   * @param report Stream to write progress reports to, null for none
+   * @param reportMillis Interval between progress reports
+   * @return Metrics of each stage
+   * @throws InterruptedException If interrupted while waiting for the batch
+   */
+  public Summary run(List<HybridTask> tasks, final PrintStream report, final long reportMillis)
+      throws InterruptedException {
+    final List<HybridTask> pending = new ArrayList<HybridTask>();
+    for (HybridTask task : tasks) {
+      if (!task.getOutput().isFile()) {
+        pending.add(task);
+      }
+    }
+
+    final List<Stage<HybridTask>> stages = createStages();
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (Stage<HybridTask> stage : stages) {
+      stage.start("hybrid-", threads);
+    }
+    final Summary summary = new Summary(stages, tasks.size() - pending.size());
+
+    Thread reporter = null;
+    if (report != null) {
+      reporter = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              Thread.sleep(reportMillis);
+              report.println(summary);
+            }
+          } catch (InterruptedException e) {
+            // Batch finished
+          }
+        }
+      }, "hybrid-reporter");
+      reporter.setDaemon(true);
+      reporter.start();
+    }
+
+    try {
+      // Feed the first stage, blocking while it is full
+      for (HybridTask task : pending) {
+        stages.get(0).put(task);
+      }
+      stages.get(0).stop();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    } finally {
+      // Workers have already exited unless the caller was interrupted, in which case tear down
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+      if (reporter != null) {
+        reporter.interrupt();
+      }
+    }
+    summary.finish();
+    if (report != null) {
+      report.println(summary);
+    }
+    return summary;
+  }
+
+  private List<Stage<HybridTask>> createStages() {
+    final List<Stage<HybridTask>> stages = new ArrayList<Stage<HybridTask>>();
+    stages.add(new TaskStage("decode", decoders) {
+      @Override
+      protected void process(HybridTask task) throws IOException {
+        task.lowImage = ImageUtilities.readMBF(task.getLow());
+        task.highImage = ImageUtilities.readMBF(task.getHigh());
+      }
+    });
+    stages.add(new TaskStage("filter", filters) {
+      @Override
+      protected void process(HybridTask task) {
+        task.hybrid = new HybridConvolution(task.getLowSigma(), task.getHighSigma())
+            .createHybrid(task.lowImage, task.highImage);
+        task.lowImage = null;
+        task.highImage = null;
+      }
+    });
+    stages.add(new TaskStage("encode", encoders) {
+      @Override
+      protected void process(HybridTask task) throws IOException {
+        final File output = task.getOutput();
+        final File parent = output.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+          throw new IOException("Unable to create directory: " + parent);
+        }
+        final String name = output.getName();
+        final String format = name.substring(name.lastIndexOf('.') + 1);
+        // Write to a temporary file so a partial output is never mistaken for a complete one
+        final File temp = new File(parent, "." + name + ".part");
+        ImageUtilities.write(task.hybrid, format, temp);
+        Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        task.clear();
+      }
+    });
+    for (int i = 0; i < stages.size() - 1; i++) {
+      stages.get(i).setNext(stages.get(i + 1));
+    }
+    return stages;
+  }
+
+  /**
+   * A stage of the batch, dropping the images of tasks that fail.
+   */
+  private abstract class TaskStage extends Stage<HybridTask> {
+    TaskStage(String name, int workers) {
+      super(name, workers, queueCapacity, END);
+    }
+
+    @Override
+    protected boolean fail(HybridTask task, Throwable e) {
+      task.clear();
+      return super.fail(task, e);
+    }
+  }
+
+  /**
+   * Progress and metrics of a batch.
+   */
+  public static class Summary extends PipelineSummary {
+    private final Stage<HybridTask> last;
+    private final int skipped;
+
+    Summary(List<Stage<HybridTask>> stages, int skipped) {
+      super(stages.toArray(new Stage<?>[stages.size()]));
+      this.last = stages.get(stages.size() - 1);
+      this.skipped = skipped;
+    }
+
+    /**
+     * @return Number of tasks skipped as their output already existed
+     */
+    public int getSkipped() {
+      return skipped;
+    }
+
+    /**
+     * @return Number of tasks written by the final stage
+     */
+    public long getCompleted() {
+      return last.getProcessed();
+    }
+
+    @Override
+    public String toString() {
+      final double seconds = getSeconds();
+      final StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%.1fs completed=%d failed=%d skipped=%d", seconds, getCompleted(),
+          getFailed(), skipped));
+      appendStages(sb, seconds);
+      return sb.toString();
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+package uk.ac.soton.ecs.dsj.batch;
+
+import java.io.File;
+import org.openimaj.image.MBFImage;
+
+/**
+ * A single hybrid image to generate, as read from a manifest, along with the intermediate images
+ * passed between pipeline stages.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class HybridTask {
+  private final int index;
+  private final File low;
+  private final File high;
+  private final float lowSigma;
+  private final float highSigma;
+  private final File output;
+
+  MBFImage lowImage;
+  MBFImage highImage;
+  MBFImage hybrid;
+
+  /**
+   * Create a task.
+   *
+   * @param index Position of the task in its manifest
+   * @param low Image to take low frequencies from
+   * @param high Image to take high frequencies from
+   * @param lowSigma Sigma of the low-pass applied to the low frequency image
+   * @param highSigma Sigma of the low-pass removed from the high frequency image
+   * @param output File to write the hybrid image to, format taken from the extension
+   */
+  public HybridTask(int index, File low, File high, float lowSigma, float highSigma, File output) {
+    this.index = index;
+    this.low = low;
+    this.high = high;
+    this.lowSigma = lowSigma;
+    this.highSigma = highSigma;
+    this.output = output;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public File getLow() {
+    return low;
+  }
+
+  public File getHigh() {
+    return high;
+  }
+
+  public float getLowSigma() {
+    return lowSigma;
+  }
+
+  public float getHighSigma() {
+    return highSigma;
+  }
+
+  public File getOutput() {
+    return output;
+  }
+
+  /**
+   * Release intermediate images once the task has left the pipeline.
+   */
+  void clear() {
+    lowImage = null;
+    highImage = null;
+    hybrid = null;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("#%d %s + %s -> %s", index, low.getName(), high.getName(),
+        output.getName());
+  }
+
+}
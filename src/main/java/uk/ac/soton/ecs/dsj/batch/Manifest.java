@@ -0,0 +1,57 @@
+package uk.ac.soton.ecs.dsj.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Reader for batch manifests. A manifest is a CSV file with the header
+ * {@code low,high,lowSigma,highSigma,output}, one row per hybrid image. Input paths are resolved
+ * against the directory of the manifest and output paths against the output directory.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class Manifest {
+
+  /**
+   * Read the tasks of a manifest.
+   *
+   * @param manifest Manifest file to read
+   * @param outputDir Directory to resolve output paths against
+   * @return Tasks in manifest order
+   * @throws IOException If the manifest could not be read or is malformed
+   */
+  public static List<HybridTask> read(File manifest, File outputDir) throws IOException {
+    final File inputDir = manifest.getAbsoluteFile().getParentFile();
+    final List<HybridTask> tasks = new ArrayList<HybridTask>();
+    try (Reader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+      final CSVFormat format =
+          CSVFormat.DEFAULT.withHeader("low", "high", "lowSigma", "highSigma", "output")
+              .withSkipHeaderRecord().withIgnoreSurroundingSpaces().withCommentMarker('#');
+      for (CSVRecord record : format.parse(reader)) {
+        try {
+          tasks.add(new HybridTask(tasks.size(), resolve(inputDir, record.get("low")),
+              resolve(inputDir, record.get("high")), Float.parseFloat(record.get("lowSigma")),
+              Float.parseFloat(record.get("highSigma")),
+              resolve(outputDir, record.get("output"))));
+        } catch (IllegalArgumentException e) {
+          throw new IOException(
+              "Malformed manifest line " + record.getRecordNumber() + ": " + e.getMessage(), e);
+        }
+      }
+    }
+    return tasks;
+  }
+
+  private static File resolve(File dir, String path) {
+    final File file = new File(path);
+    return file.isAbsolute() ? file : new File(dir, path);
+  }
+
+}
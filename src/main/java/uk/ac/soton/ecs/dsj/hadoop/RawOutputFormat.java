@@ -0,0 +1,38 @@
+package uk.ac.soton.ecs.dsj.hadoop;
+
+import java.io.IOException;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Output writing the bytes of each value one after another with no framing, so the output of each
+ * reduce task of a {@link TiledConvolutionJob} is a band of a raw float image.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class RawOutputFormat extends FileOutputFormat<NullWritable, BytesWritable> {
+
+  @Override
+  public RecordWriter<NullWritable, BytesWritable> getRecordWriter(TaskAttemptContext context)
+      throws IOException {
+    final Path file = getDefaultWorkFile(context, ".raw");
+    final FSDataOutputStream out = file.getFileSystem(context.getConfiguration()).create(file);
+    return new RecordWriter<NullWritable, BytesWritable>() {
+      @Override
+      public void write(NullWritable key, BytesWritable value) throws IOException {
+        out.write(value.getBytes(), 0, value.getLength());
+      }
+
+      @Override
+      public void close(TaskAttemptContext context) throws IOException {
+        out.close();
+      }
+    };
+  }
+
+}
@@ -0,0 +1,126 @@
+package uk.ac.soton.ecs.dsj.hadoop;
+
+/**
+ * Division of an image into square tiles for distributed convolution. Tiles are numbered in
+ * row-major order, so sorting tiles by index gives whole rows of tiles from the top of the image
+ * down. Each tile is convolved from a window of the image that includes a halo of the kernel
+ * half-size, clipped to the image and grown where needed so that it is never smaller than the
+ * kernel, as for strips in {@link uk.ac.soton.ecs.dsj.lib.StreamingConvolution}.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class TileGrid {
+  private final int width;
+  private final int height;
+  private final int tileSize;
+  private final int kh;
+  private final int kw;
+  private final int tilesX;
+  private final int tilesY;
+
+  /**
+   * Create a tile grid.
+   *
+   * @param width Width of image
+   * @param height Height of image
+   * @param tileSize Width and height of each tile, tiles on the right and bottom may be smaller
+   * @param kh Height of kernel, no larger than the image
+   * @param kw Width of kernel, no larger than the image
+   */
+  public TileGrid(int width, int height, int tileSize, int kh, int kw) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Tile size must be at least 1");
+    }
+    if (height < kh || width < kw) {
+      throw new IllegalArgumentException("Image must be bigger than convoluter kernel");
+    }
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.kh = kh;
+    this.kw = kw;
+    this.tilesX = (width + tileSize - 1) / tileSize;
+    this.tilesY = (height + tileSize - 1) / tileSize;
+  }
+
+  /**
+   * @return Width of image
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return Height of image
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return Width and height of each full tile
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * @return Number of tiles across the image
+   */
+  public int getTilesX() {
+    return tilesX;
+  }
+
+  /**
+   * @return Number of tiles down the image
+   */
+  public int getTilesY() {
+    return tilesY;
+  }
+
+  /**
+   * @return Total number of tiles
+   */
+  public int getTiles() {
+    return tilesX * tilesY;
+  }
+
+  /**
+   * Get the output pixels of a tile.
+   *
+   * @param index Index of tile, in row-major order
+   * @return Bounds {x0, y0, x1, y1} of the tile, exclusive of x1 and y1
+   */
+  public int[] getTile(int index) {
+    final int x0 = (index % tilesX) * tileSize;
+    final int y0 = (index / tilesX) * tileSize;
+    return new int[] {x0, y0, Math.min(width, x0 + tileSize), Math.min(height, y0 + tileSize)};
+  }
+
+  /**
+   * Get the window of the image that a tile is convolved from. Convolving the window with
+   * {@link uk.ac.soton.ecs.dsj.lib.BorderMode#ZERO} gives the output of the whole image at every
+   * pixel of the tile.
+   *
+   * @param index Index of tile, in row-major order
+   * @return Bounds {x0, y0, x1, y1} of the window, exclusive of x1 and y1
+   */
+  public int[] getWindow(int index) {
+    final int[] tile = getTile(index);
+    final int[] x = getWindow(tile[0], tile[2], width, kw);
+    final int[] y = getWindow(tile[1], tile[3], height, kh);
+    return new int[] {x[0], y[0], x[1], y[1]};
+  }
+
+  /**
+   * Grow [t0, t1) along one axis by the kernel half-size, clipped to the axis and at least the
+   * kernel size.
+   */
+  private static int[] getWindow(int t0, int t1, int n, int k) {
+    int s1 = Math.min(n, t1 + k / 2);
+    final int s0 = Math.max(0, Math.min(t0 - k / 2, s1 - k));
+    s1 = Math.max(s1, s0 + k);
+    return new int[] {s0, s1};
+  }
+
+}
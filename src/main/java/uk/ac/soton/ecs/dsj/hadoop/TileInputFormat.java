@@ -0,0 +1,160 @@
+package uk.ac.soton.ecs.dsj.hadoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Input of a {@link TiledConvolutionJob}, giving each map task a contiguous range of tile indices.
+ * There is one split per map task, so the number of mappers is set by the job rather than by the
+ * size of the image. Contiguous ranges of tiles cover a band of the image, so each mapper reads
+ * neighbouring parts of the file.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class TileInputFormat extends InputFormat<LongWritable, NullWritable> {
+
+  @Override
+  public List<InputSplit> getSplits(JobContext context) {
+    final Configuration conf = context.getConfiguration();
+    final TileGrid grid = TiledConvolutionJob.getGrid(conf);
+    final int tiles = grid.getTiles();
+    final int maps = Math.min(tiles, Math.max(1, conf.getInt(TiledConvolutionJob.MAPS, 1)));
+    final long tileBytes = 4L * grid.getTileSize() * grid.getTileSize();
+    final List<InputSplit> splits = new ArrayList<InputSplit>(maps);
+    for (int i = 0; i < maps; i++) {
+      final int first = (int) ((long) i * tiles / maps);
+      final int end = (int) ((long) (i + 1) * tiles / maps);
+      splits.add(new TileSplit(first, end, (end - first) * tileBytes));
+    }
+    return splits;
+  }
+
+  @Override
+  public RecordReader<LongWritable, NullWritable> createRecordReader(InputSplit split,
+      TaskAttemptContext context) {
+    return new TileReader();
+  }
+
+  /**
+   * Range of tiles [first, end) processed by one map task.
+   */
+  public static class TileSplit extends InputSplit implements Writable {
+    private int first;
+    private int end;
+    private long length;
+
+    /**
+     * Create an empty split to read fields into.
+     */
+    public TileSplit() {}
+
+    /**
+     * Create a split.
+     *
+     * @param first Index of first tile
+     * @param end Index after the last tile
+     * @param length Approximate number of bytes read for the tiles
+     */
+    public TileSplit(int first, int end, long length) {
+      this.first = first;
+      this.end = end;
+      this.length = length;
+    }
+
+    /**
+     * @return Index of first tile
+     */
+    public int getFirst() {
+      return first;
+    }
+
+    /**
+     * @return Index after the last tile
+     */
+    public int getEnd() {
+      return end;
+    }
+
+    @Override
+    public long getLength() {
+      return length;
+    }
+
+    @Override
+    public String[] getLocations() {
+      return new String[0];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(first);
+      out.writeInt(end);
+      out.writeLong(length);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      first = in.readInt();
+      end = in.readInt();
+      length = in.readLong();
+    }
+  }
+
+  /**
+   * Reader giving the index of each tile of a split in turn.
+   */
+  private static class TileReader extends RecordReader<LongWritable, NullWritable> {
+    private final LongWritable key = new LongWritable();
+    private int first;
+    private int end;
+    private int next;
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) {
+      final TileSplit tiles = (TileSplit) split;
+      this.first = tiles.getFirst();
+      this.end = tiles.getEnd();
+      this.next = first;
+    }
+
+    @Override
+    public boolean nextKeyValue() {
+      if (next >= end) {
+        return false;
+      }
+      key.set(next++);
+      return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+      return key;
+    }
+
+    @Override
+    public NullWritable getCurrentValue() {
+      return NullWritable.get();
+    }
+
+    @Override
+    public float getProgress() {
+      return (end == first) ? 1 : (float) (next - first) / (end - first);
+    }
+
+    @Override
+    public void close() {}
+  }
+
+}
@@ -0,0 +1,96 @@
+package uk.ac.soton.ecs.dsj.hadoop;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.openimaj.image.FImage;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Map task of a {@link TiledConvolutionJob}. For each tile index the haloed window of the tile is
+ * read from the image, convolved with {@link MyConvolution} and the tile's pixels emitted as raw
+ * little-endian floats in row-major order, keyed by the tile index. Window and output images are
+ * reused between tiles of the same window size, which is every tile away from the right and bottom
+ * of the image.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class TileMapper extends Mapper<LongWritable, NullWritable, LongWritable, BytesWritable> {
+  private TileGrid grid;
+  private MyConvolution conv;
+  private FSDataInputStream in;
+  private FImage window;
+  private FImage processed;
+  private byte[] row = new byte[0];
+  private final BytesWritable tile = new BytesWritable();
+
+  @Override
+  protected void setup(Context context) throws IOException {
+    final Configuration conf = context.getConfiguration();
+    grid = TiledConvolutionJob.getGrid(conf);
+    final float[][] kernel = TiledConvolutionJob.getKernel(conf);
+    final String strategy = conf.get(TiledConvolutionJob.STRATEGY);
+    conv = (strategy == null) ? new MyConvolution(kernel)
+        : new MyConvolution(kernel, ConvolutionStrategy.valueOf(strategy));
+    final Path image = new Path(conf.get(TiledConvolutionJob.IMAGE));
+    final FileSystem fs = image.getFileSystem(conf);
+    final long length = 4L * grid.getWidth() * grid.getHeight();
+    if (fs.getFileStatus(image).getLen() != length) {
+      throw new IOException(String.format("Expected %d bytes for %dx%d image, found %d", length,
+          grid.getWidth(), grid.getHeight(), fs.getFileStatus(image).getLen()));
+    }
+    in = fs.open(image);
+  }
+
+  @Override
+  protected void map(LongWritable key, NullWritable value, Context context)
+      throws IOException, InterruptedException {
+    final int index = (int) key.get();
+    final int[] bounds = grid.getWindow(index);
+    final int width = bounds[2] - bounds[0];
+    final int height = bounds[3] - bounds[1];
+    if (window == null || window.width != width || window.height != height) {
+      window = new FImage(width, height);
+      processed = new FImage(width, height);
+    }
+    if (row.length < 4 * width) {
+      row = new byte[4 * width];
+    }
+    // One positioned read per window row, rows of the image are contiguous in the file
+    final FloatBuffer floats = ByteBuffer.wrap(row).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    for (int y = 0; y < height; y++) {
+      in.readFully(4L * ((long) (bounds[1] + y) * grid.getWidth() + bounds[0]), row, 0, 4 * width);
+      floats.rewind();
+      floats.get(window.pixels[y], 0, width);
+    }
+    conv.processImage(window, processed);
+
+    final int[] t = grid.getTile(index);
+    final int tw = t[2] - t[0];
+    final int th = t[3] - t[1];
+    tile.setSize(4 * tw * th);
+    final FloatBuffer out =
+        ByteBuffer.wrap(tile.getBytes(), 0, 4 * tw * th).order(ByteOrder.LITTLE_ENDIAN)
+            .asFloatBuffer();
+    for (int y = t[1]; y < t[3]; y++) {
+      out.put(processed.pixels[y - bounds[1]], t[0] - bounds[0], tw);
+    }
+    context.write(key, tile);
+  }
+
+  @Override
+  protected void cleanup(Context context) throws IOException {
+    in.close();
+  }
+
+}
@@ -0,0 +1,38 @@
+package uk.ac.soton.ecs.dsj.hadoop;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Partitioner of a {@link TiledConvolutionJob}, giving each reducer a contiguous band of tile rows.
+ * Every tile of a row goes to the same reducer, and reducers are given bands from the top of the
+ * image down, so their outputs concatenated in partition order form the image.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class TilePartitioner extends Partitioner<LongWritable, BytesWritable>
+    implements Configurable {
+  private Configuration conf;
+  private TileGrid grid;
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    this.grid = TiledConvolutionJob.getGrid(conf);
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public int getPartition(LongWritable key, BytesWritable value, int partitions) {
+    final long tileRow = key.get() / grid.getTilesX();
+    return (int) (tileRow * partitions / grid.getTilesY());
+  }
+
+}
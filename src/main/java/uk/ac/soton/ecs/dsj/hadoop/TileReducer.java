@@ -0,0 +1,76 @@
+package uk.ac.soton.ecs.dsj.hadoop;
+
+import java.io.IOException;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reduce task of a {@link TiledConvolutionJob}. Tiles arrive sorted by index, so each row of tiles
+ * arrives whole and in order. The tiles of a row are copied into a band of full-width image rows,
+ * which is written out once the last tile of the row has arrived. Only one band is held at a time,
+ * of the tile size by the image width.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class TileReducer extends Reducer<LongWritable, BytesWritable, NullWritable, BytesWritable> {
+  private TileGrid grid;
+  private byte[] band;
+  private BytesWritable rows;
+  private int tileRow = -1;
+  private int tiles = 0;
+
+  @Override
+  protected void setup(Context context) {
+    grid = TiledConvolutionJob.getGrid(context.getConfiguration());
+    // Band size is computed as a long and rejected if it does not fit in an array
+    band = new byte[TiledConvolutionJob.getBandBytes(grid)];
+    rows = new BytesWritable(band);
+  }
+
+  @Override
+  protected void reduce(LongWritable key, Iterable<BytesWritable> values, Context context)
+      throws IOException, InterruptedException {
+    final int index = (int) key.get();
+    if (index / grid.getTilesX() != tileRow) {
+      flush(context);
+      tileRow = index / grid.getTilesX();
+    }
+    final int[] t = grid.getTile(index);
+    final int tw = 4 * (t[2] - t[0]);
+    for (BytesWritable value : values) {
+      if (value.getLength() != tw * (t[3] - t[1])) {
+        throw new IOException("Tile " + index + " is the wrong size");
+      }
+      for (int y = 0; y < t[3] - t[1]; y++) {
+        System.arraycopy(value.getBytes(), y * tw, band, 4 * (y * grid.getWidth() + t[0]), tw);
+      }
+      tiles++;
+    }
+  }
+
+  @Override
+  protected void cleanup(Context context) throws IOException, InterruptedException {
+    flush(context);
+  }
+
+  /**
+   * Write the band of the current tile row, if it has one.
+   */
+  private void flush(Context context) throws IOException, InterruptedException {
+    if (tileRow < 0) {
+      return;
+    }
+    if (tiles != grid.getTilesX()) {
+      throw new IOException(String.format("Expected %d tiles in row %d, received %d",
+          grid.getTilesX(), tileRow, tiles));
+    }
+    final int[] t = grid.getTile(tileRow * grid.getTilesX());
+    // Shrinking the size keeps the band as the backing array rather than copying it
+    rows.setSize(4 * grid.getWidth() * (t[3] - t[1]));
+    context.write(NullWritable.get(), rows);
+    tiles = 0;
+  }
+
+}
@@ -0,0 +1,314 @@
+package uk.ac.soton.ecs.dsj.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.LocalJobRunner;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.GaussianKernelFactory;
+
+/**
+ * MapReduce job convolving a raw float image too large to process on one node in time, as stored
+ * by {@link uk.ac.soton.ecs.dsj.lib.MappedFloatImage}. The image is divided into a {@link TileGrid}
+ * and each mapper convolves a contiguous range of tiles, reading each tile's haloed window directly
+ * from the image with positioned reads. Reducers are each given a contiguous band of tile rows,
+ * which they reassemble into full-width rows, so concatenating their outputs in order gives the
+ * convolved image.
+ *
+ * <p>
+ * The output is bit-identical to {@link uk.ac.soton.ecs.dsj.lib.MyConvolution} convolving the whole
+ * image for NAIVE, VECTOR and SEPARABLE, as every output pixel depends only on its neighbourhood.
+ * Other strategies give the same result to within rounding. The border is set to 0 as for
+ * {@link uk.ac.soton.ecs.dsj.lib.BorderMode#ZERO}.
+ * </p>
+ *
+ * <pre>
+ * TiledConvolutionJob image.raw width height sigma output.raw [--tile n] [--maps n]
+ *     [--reducers n] [--strategy s]
+ * </pre>
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class TiledConvolutionJob {
+  static final String IMAGE = "dsj.tiled.image";
+  static final String WIDTH = "dsj.tiled.width";
+  static final String HEIGHT = "dsj.tiled.height";
+  static final String TILE_SIZE = "dsj.tiled.tile";
+  static final String MAPS = "dsj.tiled.maps";
+  static final String KERNEL = "dsj.tiled.kernel";
+  static final String STRATEGY = "dsj.tiled.strategy";
+  /** Largest tile or band held in one array, BytesWritable grows its array by half again. */
+  static final long MAX_BYTES = Integer.MAX_VALUE / 3 * 2;
+
+  private final Configuration conf;
+  private final float[][] kernel;
+  private final ConvolutionStrategy strategy;
+  private final int tileSize;
+  private final int maps;
+  private final int reducers;
+
+  /**
+   * Create a tiled convolution job.
+   *
+   * @param conf Hadoop configuration to base each job on
+   * @param kernel Kernel to convolve with
+   * @param strategy Strategy each mapper always uses, null to select one per tile
+   * @param tileSize Width and height of each tile
+   * @param maps Number of map tasks, fewer are used if there are fewer tiles
+   * @param reducers Number of reduce tasks
+   */
+  public TiledConvolutionJob(Configuration conf, float[][] kernel, ConvolutionStrategy strategy,
+      int tileSize, int maps, int reducers) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Tile size must be at least 1");
+    }
+    if (maps < 1 || reducers < 1) {
+      throw new IllegalArgumentException("There must be at least one map and reduce task");
+    }
+    this.conf = conf;
+    this.kernel = kernel;
+    this.strategy = strategy;
+    this.tileSize = tileSize;
+    this.maps = maps;
+    this.reducers = reducers;
+  }
+
+  /**
+   * Convolve an image, blocking until the output has been written.
+   *
+   * @param image Raw float image to convolve
+   * @param width Width of image
+   * @param height Height of image
+   * @param work Directory for the outputs of the reducers, must not exist and is deleted afterwards
+   * @param output Raw float image to write, replacing any existing file
+   * @return Seconds taken by the job and merging its outputs
+   * @throws IOException If the image could not be read or the job failed
+   * @throws InterruptedException If interrupted while waiting for the job
+   * @throws ClassNotFoundException If the job classes could not be loaded
+   */
+  public double convolve(Path image, int width, int height, Path work, Path output)
+      throws IOException, InterruptedException, ClassNotFoundException {
+    final long start = System.nanoTime();
+    final Job job = createJob(image, width, height, work);
+    // Hadoop 1 waits a fixed 5s between checks, which dominates jobs on smaller images
+    final int poll = job.getConfiguration().getInt("jobclient.completion.poll.interval", 5000);
+    job.submit();
+    while (!job.isComplete()) {
+      Thread.sleep(poll);
+    }
+    if (!job.isSuccessful()) {
+      throw new IOException("Tiled convolution job failed: " + job.getJobID());
+    }
+    merge(job.getConfiguration(), work, output, 4L * width * height);
+    work.getFileSystem(job.getConfiguration()).delete(work, true);
+    return (System.nanoTime() - start) / 1e9;
+  }
+
+  /**
+   * Create the job convolving an image without submitting it.
+   *
+   * @param image Raw float image to convolve
+   * @param width Width of image
+   * @param height Height of image
+   * @param work Directory for the outputs of the reducers, must not exist
+   * @return Configured job
+   * @throws IOException If the job could not be created
+   */
+  public Job createJob(Path image, int width, int height, Path work) throws IOException {
+    // Validates the kernel and band size against the image before anything is submitted
+    getBandBytes(new TileGrid(width, height, tileSize, kernel.length, kernel[0].length));
+    final Job job = new Job(conf, String.format("Tiled convolution of %s", image.getName()));
+    job.setJarByClass(TiledConvolutionJob.class);
+    final Configuration jobConf = job.getConfiguration();
+    jobConf.set(IMAGE, image.makeQualified(image.getFileSystem(jobConf)).toString());
+    jobConf.setInt(WIDTH, width);
+    jobConf.setInt(HEIGHT, height);
+    jobConf.setInt(TILE_SIZE, tileSize);
+    jobConf.setInt(MAPS, maps);
+    setKernel(jobConf, kernel);
+    if (strategy != null) {
+      jobConf.set(STRATEGY, strategy.name());
+    }
+    // Local runs execute maps in parallel rather than one after another
+    LocalJobRunner.setLocalMaxRunningMaps(job, maps);
+
+    job.setInputFormatClass(TileInputFormat.class);
+    job.setMapperClass(TileMapper.class);
+    job.setMapOutputKeyClass(LongWritable.class);
+    job.setMapOutputValueClass(BytesWritable.class);
+    job.setPartitionerClass(TilePartitioner.class);
+    job.setReducerClass(TileReducer.class);
+    job.setNumReduceTasks(reducers);
+    job.setOutputKeyClass(NullWritable.class);
+    job.setOutputValueClass(BytesWritable.class);
+    job.setOutputFormatClass(RawOutputFormat.class);
+    FileOutputFormat.setOutputPath(job, work);
+    return job;
+  }
+
+  /**
+   * Concatenate the outputs of the reducers in order into a single raw float image.
+   *
+   * @param conf Hadoop configuration
+   * @param work Output directory of the job
+   * @param output Raw float image to write, replacing any existing file
+   * @param length Expected length of the image in bytes
+   * @throws IOException If the outputs could not be read or are not the expected length
+   */
+  public static void merge(Configuration conf, Path work, Path output, long length)
+      throws IOException {
+    final FileSystem fs = work.getFileSystem(conf);
+    final List<Path> parts = new ArrayList<Path>();
+    for (FileStatus status : fs.listStatus(work)) {
+      if (status.getPath().getName().startsWith("part-")) {
+        parts.add(status.getPath());
+      }
+    }
+    // Part names are zero-padded, so name order is partition order
+    Collections.sort(parts, new Comparator<Path>() {
+      @Override
+      public int compare(Path a, Path b) {
+        return a.getName().compareTo(b.getName());
+      }
+    });
+    long written = 0;
+    try (OutputStream out = output.getFileSystem(conf).create(output, true)) {
+      for (Path part : parts) {
+        try (InputStream in = fs.open(part)) {
+          IOUtils.copyBytes(in, out, conf, false);
+        }
+        written += fs.getFileStatus(part).getLen();
+      }
+    }
+    if (written != length) {
+      throw new IOException(
+          String.format("Expected %d bytes of output, reducers wrote %d", length, written));
+    }
+  }
+
+  /**
+   * Get the tile grid of a job.
+   */
+  static TileGrid getGrid(Configuration conf) {
+    final float[][] kernel = getKernel(conf);
+    return new TileGrid(conf.getInt(WIDTH, 0), conf.getInt(HEIGHT, 0), conf.getInt(TILE_SIZE, 0),
+        kernel.length, kernel[0].length);
+  }
+
+  /**
+   * Get the number of bytes in a band of full-width rows, one tile high, as held by each reducer.
+   * Tiles are no larger than a band.
+   *
+   * @throws IllegalArgumentException If a band is too large for one array
+   */
+  static int getBandBytes(TileGrid grid) {
+    final int bandRows = Math.min(grid.getTileSize(), grid.getHeight());
+    final long bytes = 4L * grid.getWidth() * bandRows;
+    if (bytes > MAX_BYTES) {
+      throw new IllegalArgumentException(String.format(
+          "Band of %d rows by %d columns is too large for one array, use a smaller tile size",
+          bandRows, grid.getWidth()));
+    }
+    return (int) bytes;
+  }
+
+  /**
+   * Store a kernel in a configuration as its height, width and values in row-major order. Float
+   * strings parse back to exactly the same value.
+   */
+  static void setKernel(Configuration conf, float[][] kernel) {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(kernel.length).append(',').append(kernel[0].length);
+    for (float[] row : kernel) {
+      for (float value : row) {
+        sb.append(',').append(value);
+      }
+    }
+    conf.set(KERNEL, sb.toString());
+  }
+
+  /**
+   * Read a kernel stored by {@link #setKernel(Configuration, float[][])}.
+   */
+  static float[][] getKernel(Configuration conf) {
+    final String value = conf.get(KERNEL);
+    if (value == null) {
+      throw new IllegalArgumentException("No kernel set for tiled convolution");
+    }
+    final String[] parts = value.split(",");
+    final int kh = Integer.parseInt(parts[0]);
+    final int kw = Integer.parseInt(parts[1]);
+    if (parts.length != 2 + kh * kw) {
+      throw new IllegalArgumentException("Kernel has the wrong number of values");
+    }
+    final float[][] kernel = new float[kh][kw];
+    for (int y = 0; y < kh; y++) {
+      for (int x = 0; x < kw; x++) {
+        kernel[y][x] = Float.parseFloat(parts[2 + y * kw + x]);
+      }
+    }
+    return kernel;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Configuration conf = new Configuration();
+    if (args.length < 5) {
+      System.err.println("Usage: TiledConvolutionJob image.raw width height sigma output.raw"
+          + " [--tile n] [--maps n] [--reducers n] [--strategy s]");
+      System.exit(1);
+    }
+    int tileSize = 1024;
+    int maps = 1;
+    int reducers = 1;
+    ConvolutionStrategy strategy = null;
+    for (int i = 5; i < args.length; i += 2) {
+      if (i + 1 >= args.length) {
+        throw new IllegalArgumentException("Missing value for " + args[i]);
+      }
+      final String value = args[i + 1];
+      switch (args[i]) {
+        case "--tile":
+          tileSize = Integer.parseInt(value);
+          break;
+        case "--maps":
+          maps = Integer.parseInt(value);
+          break;
+        case "--reducers":
+          reducers = Integer.parseInt(value);
+          break;
+        case "--strategy":
+          strategy = ConvolutionStrategy.valueOf(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+
+    final Path image = new Path(args[0]);
+    final int width = Integer.parseInt(args[1]);
+    final int height = Integer.parseInt(args[2]);
+    final float[][] kernel =
+        GaussianKernelFactory.getDefault().getKernel(Float.parseFloat(args[3])).getKernel();
+    final Path output = new Path(args[4]);
+    final Path work = new Path(output.getParent(), output.getName() + ".parts");
+    final double seconds = new TiledConvolutionJob(conf, kernel, strategy, tileSize, maps, reducers)
+        .convolve(image, width, height, work, output);
+    System.out.println(String.format("Convolved %dx%d in %.2fs, %.1f Mpixel/s", width, height,
+        seconds, (double) width * height / seconds / 1e6));
+  }
+
+}
@@ -0,0 +1,179 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import edu.emory.mathcs.jtransforms.fft.FloatFFT_2D;
+import java.util.concurrent.ForkJoinPool;
+import org.openimaj.image.FImage;
+
+/**
+ * Frequency domain convolution applied to fixed-size blocks of an image using overlap-save. Each block
+ * is transformed and multiplied with the spectrum of the kernel padded to the block size only, so
+ * peak memory scales with the block size rather than the image size. Neighbouring blocks overlap by
+ * the kernel size less one, and only the part of each block unaffected by cyclic wrapping is kept.
+ * Pixels where the full kernel cannot be applied are set to 0, as with
+ * {@link MyConvolution#naiveConvolution}.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class BlockFourierConvolution {
+  public static final int DEFAULT_BLOCK_SIZE = 256;
+
+  /**
+   * Get the block size to use for a kernel. This is {@link #DEFAULT_BLOCK_SIZE} unless the kernel is
+   * large enough that less than three quarters of each block would be kept, in which case the smallest
+   * power of two that achieves this is used.
+   *
+   * @param kh Height of the kernel
+   * @param kw Width of the kernel
+   * @return Block size
+   */
+  public static int getBlockSize(int kh, int kw) {
+    int blockSize = DEFAULT_BLOCK_SIZE;
+    while (blockSize < 4 * (Math.max(kh, kw) - 1)) {
+      blockSize *= 2;
+    }
+    return blockSize;
+  }
+
+  /**
+   * Process an image using the provided kernel with square blocks of the given size.
+   *
+   * @param image Image to process
+   * @param kernel Kernel to apply
+   * @param blockSize Width and height of each transformed block, must be larger than the kernel
+   * @param cache Cache of kernel spectra, null to transform the kernel on every call
+   * @param pool Pool to process block rows on, null for the calling thread only
+   * @return Processed image
+   */
+  public static FImage blockFourierConvolution(FImage image, float[][] kernel, int blockSize,
+      KernelSpectrumCache cache, ForkJoinPool pool) {
+    if (blockSize < kernel.length || blockSize < kernel[0].length) {
+      throw new IllegalArgumentException("Block size must be at least the size of the kernel");
+    }
+    // Transform kernel to frequency domain (padded to the block size only)
+    final float[] fftKernel = (cache == null)
+        ? KernelSpectrumCache.computeComplexSpectrum(kernel, blockSize, blockSize)
+        : cache.getComplexSpectrum(kernel, blockSize, blockSize);
+    final FImage processed = new FImage(image.width, image.height);
+    blockFourierConvolution(image, kernel.length, kernel[0].length, fftKernel, blockSize,
+        processed, pool);
+    return processed;
+  }
+
+  /**
+   * Process an image with a kernel spectrum from {@link KernelSpectrumCache#getComplexSpectrum},
+   * writing the valid region into the given output. Scratch memory is taken from the workspace of
+   * each thread that processes blocks, so no allocation occurs on the calling thread once its
+   * workspace has grown to the block size. Pixels outside the valid region are not written.
+   *
+   * @param image Image to process
+   * @param kh Height of kernel
+   * @param kw Width of kernel
+   * @param fftKernel Kernel spectrum padded to the block size
+   * @param blockSize Width and height of each transformed block
+   * @param processed Image to write results into
+   * @param pool Pool to process block rows on, null for the calling thread only
+   */
+  public static void blockFourierConvolution(final FImage image, int kh, int kw,
+      final float[] fftKernel, final int blockSize, final FImage processed, ForkJoinPool pool) {
+    final int khh = kh / 2;
+    final int khw = kw / 2;
+    // Number of valid output pixels produced by each block
+    final int stepy = blockSize - (kh - 1);
+    final int stepx = blockSize - (kw - 1);
+    final int blocksy = (image.height - 2 * khh + stepy - 1) / stepy;
+
+    if (pool == null) {
+      processBlocks(image, fftKernel, blockSize, 0, blocksy, khh, khw, stepy, stepx, processed);
+    } else {
+      pool.invoke(new ParallelConvolution.BandTask(0, blocksy, 1, new ParallelConvolution.Band() {
+        @Override
+        public void compute(int b0, int b1) {
+          processBlocks(image, fftKernel, blockSize, b0, b1, khh, khw, stepy, stepx, processed);
+        }
+      }));
+    }
+  }
+
+  /**
+   * Convolve every block in the block rows [b0, b1).
+   *
+   * @param image Image to process
+   * @param fftKernel Kernel spectrum padded to the block size
+   * @param size Width and height of each transformed block
+   * @param b0 First block row to process (inclusive)
+   * @param b1 Last block row to process (exclusive)
+   * @param khh Half height of kernel
+   * @param khw Half width of kernel
+   * @param stepy Maximum number of output rows of block
+   * @param stepx Maximum number of output columns of block
+   * @param processed Image to write results into
+   */
+  private static void processBlocks(FImage image, float[] fftKernel, int size, int b0, int b1,
+      int khh, int khw, int stepy, int stepx, FImage processed) {
+    final ConvolutionWorkspace workspace = ConvolutionWorkspace.get();
+    final float[] block = workspace.getComplexBuffer(2 * size * size);
+    final FloatFFT_2D fft = workspace.getFFT(size, size);
+    for (int b = b0; b < b1; b++) {
+      final int oy = khh + b * stepy;
+      for (int ox = khw; ox < image.width - khw; ox += stepx) {
+        processBlock(image, fftKernel, fft, block, size, oy, ox, khh, khw, stepy, stepx,
+            processed);
+      }
+    }
+  }
+
+  /**
+   * Convolve a single block whose first valid output pixel is (ox, oy).
+   *
+   * @param image Image to process
+   * @param fftKernel Kernel spectrum padded to the block size
+   * @param fft FFT plan for the block size
+   * @param block Buffer to hold the interleaved complex block
+   * @param size Width and height of block
+   * @param oy First output row of block
+   * @param ox First output column of block
+   * @param khh Half height of kernel
+   * @param khw Half width of kernel
+   * @param stepy Maximum number of output rows of block
+   * @param stepx Maximum number of output columns of block
+   * @param processed Image to write results into
+   */
+  private static void processBlock(FImage image, float[] fftKernel, FloatFFT_2D fft,
+      float[] block, int size, int oy, int ox, int khh, int khw, int stepy, int stepx,
+      FImage processed) {
+    // Copy input covering the block, leaving zeros beyond the image edge
+    final int iy = oy - khh;
+    final int ix = ox - khw;
+    final int rows = Math.min(size, image.height - iy);
+    final int cols = Math.min(size, image.width - ix);
+    for (int y = 0; y < size; y++) {
+      final int offset = 2 * y * size;
+      final int copied = (y < rows) ? cols : 0;
+      for (int x = 0; x < copied; x++) {
+        block[offset + 2 * x] = image.pixels[iy + y][ix + x];
+        block[offset + 2 * x + 1] = 0f;
+      }
+      for (int x = copied; x < size; x++) {
+        block[offset + 2 * x] = 0f;
+        block[offset + 2 * x + 1] = 0f;
+      }
+    }
+
+    // Do complex multiply across kernel and block FFTs
+    fft.complexForward(block);
+    MyConvolution.multiplySpectra(block, fftKernel, 2 * size * size);
+    fft.complexInverse(block, true);
+
+    // Keep only the part of the block unaffected by cyclic wrapping
+    final int outRows = Math.min(stepy, image.height - khh - oy);
+    final int outCols = Math.min(stepx, image.width - khw - ox);
+    for (int y = 0; y < outRows; y++) {
+      final int offset = 2 * ((khh + y) * size + khw);
+      final float[] out = processed.pixels[oy + y];
+      for (int x = 0; x < outCols; x++) {
+        out[ox + x] = block[offset + 2 * x];
+      }
+    }
+  }
+
+}
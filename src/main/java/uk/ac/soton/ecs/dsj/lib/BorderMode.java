@@ -0,0 +1,125 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.util.Arrays;
+import org.openimaj.image.FImage;
+
+/**
+ * How a convolution treats pixels where the full kernel cannot be applied. With {@link #ZERO} only
+ * the valid region is computed and the border is set to 0. Every other mode extends the image by the
+ * kernel half-size on each side, so the border is computed by the same engine and loops as the
+ * interior. Extension is done by separate loops per mode, a row at a time, so no engine has a branch
+ * in its inner loop.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public enum BorderMode {
+  /** Pixels where the full kernel cannot be applied are set to 0, as in the coursework. */
+  ZERO,
+  /** The image is extended by repeating its outermost pixels. */
+  CLAMP,
+  /** The image is mirrored about its outermost pixels, which are not repeated (2, 1, 0, 1, 2). */
+  REFLECT,
+  /** The image repeats periodically, giving a cyclic convolution. */
+  WRAP;
+
+  /**
+   * @return Whether the image is extended rather than the border set to 0
+   */
+  public boolean isExtending() {
+    return this != ZERO;
+  }
+
+  /**
+   * Map a coordinate outside an image axis to the coordinate it takes its value from.
+   *
+   * @param i Coordinate, no further than n - 1 outside the axis
+   * @param n Length of the axis
+   * @return Coordinate in [0, n), or -1 for {@link #ZERO} when outside the axis
+   */
+  public int index(int i, int n) {
+    if (i >= 0 && i < n) {
+      return i;
+    }
+    switch (this) {
+      case CLAMP:
+        return (i < 0) ? 0 : n - 1;
+      case REFLECT:
+        return (n == 1) ? 0 : ((i < 0) ? -i : 2 * n - 2 - i);
+      case WRAP:
+        return (i < 0) ? i + n : i - n;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Copy an image into the centre of a larger image, filling a halo around it according to this
+   * mode. {@link #ZERO} fills the halo with 0.
+   *
+   * @param image Image to copy
+   * @param khh Number of halo rows above and below, less than the image height
+   * @param khw Number of halo columns left and right, less than the image width
+   * @param extended Image of width cols + 2 * khw and height rows + 2 * khh to write into
+   * @return The extended image
+   */
+  public FImage extend(FImage image, int khh, int khw, FImage extended) {
+    final int rows = image.getRows();
+    final int cols = image.getCols();
+    if (extended.getRows() != rows + 2 * khh || extended.getCols() != cols + 2 * khw) {
+      throw new IllegalArgumentException("Extended image must be larger by the halo each side");
+    }
+    for (int y = 0; y < rows; y++) {
+      extendRow(image.pixels[y], cols, khw, extended.pixels[y + khh]);
+    }
+    // Halo rows are whole extended rows, including their corners
+    for (int i = 1; i <= khh; i++) {
+      final float[] top = extended.pixels[khh - i];
+      final float[] bottom = extended.pixels[khh + rows - 1 + i];
+      if (this == ZERO) {
+        Arrays.fill(top, 0f);
+        Arrays.fill(bottom, 0f);
+      } else {
+        System.arraycopy(extended.pixels[khh + index(-i, rows)], 0, top, 0, top.length);
+        System.arraycopy(extended.pixels[khh + index(rows - 1 + i, rows)], 0, bottom, 0,
+            bottom.length);
+      }
+    }
+    return extended;
+  }
+
+  /**
+   * Copy a row into the centre of a longer row, filling a halo either side according to this mode.
+   *
+   * @param in Row to copy
+   * @param width Number of values in the row
+   * @param halo Number of values to fill either side, less than the width
+   * @param out Row of at least width + 2 * halo values to write into
+   */
+  public void extendRow(float[] in, int width, int halo, float[] out) {
+    System.arraycopy(in, 0, out, halo, width);
+    final int end = halo + width - 1;
+    switch (this) {
+      case ZERO:
+        Arrays.fill(out, 0, halo, 0f);
+        Arrays.fill(out, end + 1, end + 1 + halo, 0f);
+        break;
+      case CLAMP:
+        Arrays.fill(out, 0, halo, in[0]);
+        Arrays.fill(out, end + 1, end + 1 + halo, in[width - 1]);
+        break;
+      case REFLECT:
+        for (int i = 1; i <= halo; i++) {
+          out[halo - i] = in[i];
+          out[end + i] = in[width - 1 - i];
+        }
+        break;
+      case WRAP:
+        System.arraycopy(in, width - halo, out, 0, halo);
+        System.arraycopy(in, 0, out, end + 1, halo);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown border mode: " + this);
+    }
+  }
+
+}
@@ -0,0 +1,322 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.util.concurrent.ForkJoinPool;
+import org.openimaj.image.FImage;
+import uk.ac.soton.ecs.dsj.lib.ParallelConvolution.Band;
+import uk.ac.soton.ecs.dsj.lib.ParallelConvolution.BandTask;
+
+/**
+ * Convolution with kernels where every value is the same (box filters) using running sums. A row
+ * pass keeps a sum of the kw pixels under the kernel, adding the pixel entering on the right and
+ * subtracting the pixel leaving on the left, and a column pass does the same down the columns of the
+ * row sums. Each pixel therefore costs the same whatever the size of the kernel. Sums are kept in
+ * double precision so that rounding does not accumulate along long rows. The column sums are summed
+ * afresh every {@link #getSumRows} rows from the first row that can overlay the kernel, and row bands
+ * processed on a pool start on those rows, so the output does not depend on the pool. It does depend
+ * on where the image starts, so strips or tiles of an image do not match the whole image exactly.
+ *
+ * <p>
+ * Repeated box filters also approximate a Gaussian at a cost independent of sigma, see
+ * {@link #approximateGaussian}.
+ * </p>
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class BoxConvolution {
+  /** Default number of box passes used to approximate a Gaussian. */
+  public static final int DEFAULT_GAUSSIAN_PASSES = 3;
+  /** Minimum number of rows between fresh column sums. */
+  private static final int MIN_SUM_ROWS = 64;
+
+  /**
+   * Get the value of every entry of a box kernel.
+   *
+   * @param kernel Kernel to check
+   * @return Value of every entry, or NaN if the entries are not all equal
+   */
+  public static float getBoxValue(float[][] kernel) {
+    final float value = kernel[0][0];
+    for (float[] row : kernel) {
+      for (float v : row) {
+        if (v != value) {
+          return Float.NaN;
+        }
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Convolve an image with a box kernel, returning a new image. Pixels where the full kernel cannot be
+   * applied are set to 0.
+   *
+   * @param image Image to process
+   * @param kh Height of kernel, odd
+   * @param kw Width of kernel, odd
+   * @param value Value of every entry of the kernel
+   * @return Processed image
+   */
+  public static FImage boxConvolution(FImage image, int kh, int kw, float value) {
+    final FImage processed = new FImage(image.getCols(), image.getRows());
+    boxConvolution(image, kh, kw, value, processed, null);
+    return MyConvolution.zeroBorder(processed, kh, kw);
+  }
+
+  /**
+   * Convolve an image with a box kernel, writing every pixel that can overlay the full kernel into the
+   * given output. Scratch memory is taken from the {@link ConvolutionWorkspace} of each thread used.
+   *
+   * @param image Image to process
+   * @param kh Height of kernel, odd
+   * @param kw Width of kernel, odd
+   * @param value Value of every entry of the kernel
+   * @param processed Image to write results into, must not be the input image
+   * @param pool Pool to process row bands on, null for the calling thread only
+   */
+  public static void boxConvolution(final FImage image, final int kh, final int kw, final float value,
+      final FImage processed, ForkJoinPool pool) {
+    final int rows = image.getRows();
+    final FImage rowSums = ConvolutionWorkspace.get().getRowPassBuffer(image.getCols(), rows);
+    final int khh = kh / 2;
+    if (pool == null) {
+      rowSums(image, kw, rowSums, 0, rows);
+      columnSums(rowSums, kh, kw, value, processed, khh, rows - khh);
+      return;
+    }
+    final int parallelism = pool.getParallelism();
+    pool.invoke(new BandTask(0, rows, ParallelConvolution.getBandHeight(image.width, 1, rows,
+        parallelism), new Band() {
+          @Override
+          public void compute(int y0, int y1) {
+            rowSums(image, kw, rowSums, y0, y1);
+          }
+        }));
+    // Column bands are split into whole runs of sums so they start where the serial pass sums afresh
+    final int sumRows = getSumRows(kh);
+    final int runs = (rows - 2 * khh + sumRows - 1) / sumRows;
+    final int bandRuns = Math.max(1, ParallelConvolution.getBandHeight(image.width, kh,
+        rows - 2 * khh, parallelism) / sumRows);
+    pool.invoke(new BandTask(0, runs, bandRuns, new Band() {
+      @Override
+      public void compute(int r0, int r1) {
+        columnSums(rowSums, kh, kw, value, processed, khh + r0 * sumRows,
+            Math.min(rows - khh, khh + r1 * sumRows));
+      }
+    }));
+  }
+
+  /**
+   * Sum each run of kw pixels along the rows [y0, y1), storing the sum at the centre of the run.
+   *
+   * @param image Image to process
+   * @param kw Width of kernel
+   * @param rowSums Image to write sums into
+   * @param y0 First row to process (inclusive)
+   * @param y1 Last row to process (exclusive)
+   */
+  static void rowSums(FImage image, int kw, FImage rowSums, int y0, int y1) {
+    final int khw = kw / 2;
+    final int width = image.width;
+    for (int y = y0; y < y1; y++) {
+      final float[] in = image.pixels[y];
+      final float[] out = rowSums.pixels[y];
+      double sum = 0;
+      for (int x = 0; x < kw; x++) {
+        sum += in[x];
+      }
+      out[khw] = (float) sum;
+      for (int x = khw + 1; x < width - khw; x++) {
+        sum += in[x + khw] - in[x - khw - 1];
+        out[x] = (float) sum;
+      }
+    }
+  }
+
+  /**
+   * Get the number of rows between fresh column sums. Each fresh sum costs kh row additions, so the
+   * interval grows with the kernel to keep this small next to the running sums.
+   *
+   * @param kh Height of kernel
+   * @return Number of output rows in each run of column sums
+   */
+  static int getSumRows(int kh) {
+    return Math.max(MIN_SUM_ROWS, 4 * kh);
+  }
+
+  /**
+   * Sum each run of kh row sums down the columns, writing the scaled sums for the output rows
+   * [y0, y1). Rows outside the range that can overlay the full kernel must not be requested. Sums
+   * are started afresh at y0 and every {@link #getSumRows} rows after kh / 2, so a range starting at
+   * kh / 2 or at one of those rows writes the same values as a single pass over every row.
+   *
+   * @param rowSums Result of {@link #rowSums}
+   * @param kh Height of kernel
+   * @param kw Width of kernel
+   * @param value Value of every entry of the kernel
+   * @param processed Image to write results into
+   * @param y0 First row to process (inclusive)
+   * @param y1 Last row to process (exclusive)
+   */
+  static void columnSums(FImage rowSums, int kh, int kw, float value, FImage processed, int y0,
+      int y1) {
+    if (y0 >= y1) {
+      return;
+    }
+    final int khh = kh / 2;
+    final int khw = kw / 2;
+    final int x1 = rowSums.width - khw;
+    final int sumRows = getSumRows(kh);
+    final double[] sums = ConvolutionWorkspace.get().getSumBuffer(rowSums.width);
+    for (int y = y0; y < y1; y++) {
+      if (y == y0 || (y - khh) % sumRows == 0) {
+        for (int x = khw; x < x1; x++) {
+          sums[x] = 0;
+        }
+        for (int yy = y - khh; yy <= y + khh; yy++) {
+          final float[] in = rowSums.pixels[yy];
+          for (int x = khw; x < x1; x++) {
+            sums[x] += in[x];
+          }
+        }
+      } else {
+        final float[] enter = rowSums.pixels[y + khh];
+        final float[] leave = rowSums.pixels[y - khh - 1];
+        for (int x = khw; x < x1; x++) {
+          sums[x] += enter[x] - leave[x];
+        }
+      }
+      final float[] out = processed.pixels[y];
+      for (int x = khw; x < x1; x++) {
+        out[x] = (float) (sums[x] * value);
+      }
+    }
+  }
+
+  /**
+   * Approximate convolution with the Gaussian low-pass of the default {@link GaussianKernelFactory}
+   * by repeated box filters, at a cost per pixel independent of sigma. Box widths are chosen so that
+   * the variance of the repeated filter is as close as possible to sigma squared (W. Wells, "Efficient
+   * synthesis of Gaussian filters by cascaded uniform filters", 1986). The difference from the
+   * Gaussian is bounded by {@link #getGaussianErrorBound}. Pixels where the Gaussian kernel (or the
+   * repeated filter, if larger) cannot be applied are set to 0, as for {@link MyConvolution}.
+   *
+   * @param image Image to process
+   * @param sigma Gaussian sigma
+   * @param passes Number of box filters to apply, more passes are closer to a Gaussian
+   * @param output Image of the same size to write results into, must not be the input image
+   */
+  public static void approximateGaussian(FImage image, float sigma, int passes, FImage output) {
+    final int[] widths = getGaussianBoxWidths(sigma, passes);
+    final int rows = image.getRows();
+    final int cols = image.getCols();
+    final int border = Math.max(GaussianKernelFactory.getKernelSize(sigma), getSize(widths));
+    if (rows < border || cols < border) {
+      throw new IllegalArgumentException("Image must be bigger than convoluter kernel");
+    }
+    if (output == image || output.pixels == image.pixels) {
+      throw new IllegalArgumentException("Output cannot be the input image");
+    }
+    if (output.getRows() != rows || output.getCols() != cols) {
+      throw new IllegalArgumentException("Output must be the same size as the input image");
+    }
+    // Alternate between the output and a scratch image, finishing in the output
+    final FImage scratch = ConvolutionWorkspace.get().getRowPassBuffer(1, cols, rows);
+    FImage in = image;
+    FImage out = (passes % 2 == 1) ? output : scratch;
+    for (int i = 0; i < passes; i++) {
+      boxConvolution(in, widths[i], widths[i], 1f / ((float) widths[i] * widths[i]), out, null);
+      // Invalid pixels of each pass must not be read as image by the next
+      MyConvolution.zeroBorder(out, widths[i], widths[i]);
+      in = out;
+      out = (out == output) ? scratch : output;
+    }
+    MyConvolution.zeroBorder(output, border, border);
+  }
+
+  /**
+   * Get the widths of the box filters that approximate a Gaussian. The first passes use the largest
+   * odd width with variance no more than ideal and the rest the next odd width up.
+   *
+   * @param sigma Gaussian sigma
+   * @param passes Number of box filters
+   * @return Odd width of each box filter
+   */
+  public static int[] getGaussianBoxWidths(float sigma, int passes) {
+    if (passes < 1) {
+      throw new IllegalArgumentException("At least one pass is required");
+    }
+    if (!(sigma > 0) || Float.isInfinite(sigma)) {
+      throw new IllegalArgumentException("Sigma must be positive and finite");
+    }
+    // Variance of a box of width w is (w^2 - 1) / 12, and variances add
+    final double variance = (double) sigma * sigma;
+    int lower = (int) Math.floor(Math.sqrt(12 * variance / passes + 1));
+    if (lower % 2 == 0) {
+      lower--;
+    }
+    final int upper = lower + 2;
+    final int lowerPasses = (int) Math.round(
+        (12 * variance - passes * (double) lower * lower - 4.0 * passes * lower - 3.0 * passes)
+            / (-4.0 * lower - 4));
+    final int[] widths = new int[passes];
+    for (int i = 0; i < passes; i++) {
+      widths[i] = (i < Math.max(0, Math.min(passes, lowerPasses))) ? lower : upper;
+    }
+    return widths;
+  }
+
+  /**
+   * Get a bound on the difference between {@link #approximateGaussian} and convolution with the
+   * Gaussian low-pass of the default {@link GaussianKernelFactory}, ignoring floating point
+   * rounding. The 1-D impulse response of the box filters a and the normalised 1-D Gaussian g are
+   * compared directly; as both are non-negative with unit sum, the 2-D kernels differ in L1 norm by at
+   * most 2 * |a - g|_1. No output pixel can therefore differ by more than the returned bound times
+   * the largest absolute input value. For sigma from 3 to 50 the bound is around 0.1 for three
+   * passes, 0.08 for four and 0.06 for five. The bound is a worst case for inputs alternating in
+   * sign; smooth images differ by far less. Below sigma 2 the boxes are too narrow and the bound
+   * exceeds 0.13 whatever the number of passes.
+   *
+   * @param sigma Gaussian sigma
+   * @param passes Number of box filters
+   * @return Bound on the L1 norm of the difference between the 2-D kernels
+   */
+  public static double getGaussianErrorBound(float sigma, int passes) {
+    final int[] widths = getGaussianBoxWidths(sigma, passes);
+    // Impulse response of the box filters
+    double[] response = {1};
+    for (int width : widths) {
+      final double[] next = new double[response.length + width - 1];
+      for (int i = 0; i < response.length; i++) {
+        for (int j = 0; j < width; j++) {
+          next[i + j] += response[i] / width;
+        }
+      }
+      response = next;
+    }
+    // Normalised Gaussian, the kernel is the outer product of this with itself
+    final float[] row = GaussianKernelFactory.getDefault().getKernel(sigma).getRowFactor();
+    double total = 0;
+    for (float v : row) {
+      total += v;
+    }
+    final int radius = Math.max(response.length, row.length) / 2;
+    double error = 0;
+    for (int i = -radius; i <= radius; i++) {
+      final int ai = i + response.length / 2;
+      final int gi = i + row.length / 2;
+      final double a = (ai >= 0 && ai < response.length) ? response[ai] : 0;
+      final double g = (gi >= 0 && gi < row.length) ? row[gi] / total : 0;
+      error += Math.abs(a - g);
+    }
+    return 2 * error;
+  }
+
+  private static int getSize(int[] widths) {
+    int size = 1;
+    for (int width : widths) {
+      size += width - 1;
+    }
+    return size;
+  }
+
+}
@@ -0,0 +1,35 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+/**
+ * Receiver of timings from convolutions, installed with {@link ConvolutionMetrics#setListener}.
+ * Methods are called on the thread doing the work, which may be a pool worker, so implementations
+ * must be thread-safe and should return quickly.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public interface ConvolutionListener {
+
+  /**
+   * Called when a phase of a convolution has completed.
+   *
+   * @param strategy Strategy being applied
+   * @param phase Phase that completed
+   * @param nanos Time taken by the phase
+   */
+  void phaseCompleted(ConvolutionStrategy strategy, ConvolutionPhase phase, long nanos);
+
+  /**
+   * Called when an image has been convolved.
+   *
+   * @param strategy Strategy that was applied
+   * @param rows Number of rows in image
+   * @param cols Number of columns in image
+   * @param bands Number of bands convolved together
+   * @param nanos Total time taken
+   * @param allocatedBytes Bytes allocated by the calling thread, or -1 if this is not supported by
+   *        the runtime. Allocation by pool workers is not included.
+   */
+  void convolutionCompleted(ConvolutionStrategy strategy, int rows, int cols, int bands,
+      long nanos, long allocatedBytes);
+
+}
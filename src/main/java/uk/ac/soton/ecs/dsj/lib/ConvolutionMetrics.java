@@ -0,0 +1,118 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Opt-in instrumentation of convolution. While no {@link ConvolutionListener} is installed the only
+ * cost on the hot path is reading a volatile field per convolution; clocks and allocation counters
+ * are only read while a listener is installed.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public final class ConvolutionMetrics {
+  private static final com.sun.management.ThreadMXBean ALLOCATION = getAllocationBean();
+
+  private static volatile ConvolutionListener listener = null;
+
+  private ConvolutionMetrics() {}
+
+  /**
+   * Install the listener that all convolutions report to, replacing any existing listener.
+   *
+   * @param listener Listener to install, null to disable instrumentation
+   */
+  public static void setListener(ConvolutionListener listener) {
+    ConvolutionMetrics.listener = listener;
+  }
+
+  /**
+   * @return Installed listener, null if instrumentation is disabled
+   */
+  public static ConvolutionListener getListener() {
+    return listener;
+  }
+
+  /**
+   * Start timing if a listener is installed.
+   *
+   * @param listener Listener to report to, may be null
+   * @return Current time, or 0 if there is no listener
+   */
+  static long start(ConvolutionListener listener) {
+    return (listener == null) ? 0 : System.nanoTime();
+  }
+
+  /**
+   * Report a phase that started at the given time, if a listener is installed.
+   *
+   * @param listener Listener to report to, may be null
+   * @param strategy Strategy being applied
+   * @param phase Phase that completed
+   * @param start Time the phase started, from {@link #start} or a previous call
+   * @return Current time to start the next phase from, or 0 if there is no listener
+   */
+  static long phase(ConvolutionListener listener, ConvolutionStrategy strategy,
+      ConvolutionPhase phase, long start) {
+    if (listener == null) {
+      return 0;
+    }
+    final long now = System.nanoTime();
+    listener.phaseCompleted(strategy, phase, now - start);
+    return now;
+  }
+
+  /**
+   * Get the number of bytes allocated by the calling thread so far, if a listener is installed.
+   *
+   * @param listener Listener to report to, may be null
+   * @return Bytes allocated, or -1 if there is no listener or the runtime cannot count allocation
+   */
+  static long allocatedBytes(ConvolutionListener listener) {
+    if (listener == null || ALLOCATION == null) {
+      return -1;
+    }
+    return ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Report a completed convolution, if a listener is installed.
+   *
+   * @param listener Listener to report to, may be null
+   * @param strategy Strategy that was applied
+   * @param rows Number of rows in image
+   * @param cols Number of columns in image
+   * @param bands Number of bands convolved together
+   * @param start Time the convolution started, from {@link #start}
+   * @param allocatedStart Bytes allocated when the convolution started, from
+   *        {@link #allocatedBytes}
+   */
+  static void completed(ConvolutionListener listener, ConvolutionStrategy strategy, int rows,
+      int cols, int bands, long start, long allocatedStart) {
+    if (listener == null) {
+      return;
+    }
+    final long nanos = System.nanoTime() - start;
+    final long allocated =
+        (allocatedStart < 0) ? -1 : allocatedBytes(listener) - allocatedStart;
+    listener.convolutionCompleted(strategy, rows, cols, bands, nanos, allocated);
+  }
+
+  private static com.sun.management.ThreadMXBean getAllocationBean() {
+    try {
+      final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      if (threads instanceof com.sun.management.ThreadMXBean) {
+        final com.sun.management.ThreadMXBean allocation =
+            (com.sun.management.ThreadMXBean) threads;
+        if (allocation.isThreadAllocatedMemorySupported()
+            && allocation.isThreadAllocatedMemoryEnabled()) {
+          return allocation;
+        }
+      }
+    } catch (LinkageError e) {
+      // Not a HotSpot based runtime
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,29 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+/**
+ * Phases of a convolution reported to a {@link ConvolutionListener}. A strategy only reports the
+ * phases it has; strategies that interleave phases per block or row band report their main loop as
+ * {@link #CONVOLVE}.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public enum ConvolutionPhase {
+  /** Looking up or padding and transforming the kernel. */
+  KERNEL,
+  /** Copying the image into a flat or zero padded transform buffer. */
+  PAD,
+  /** Forward transform of the image. */
+  FORWARD,
+  /** Multiplying the image spectrum by the kernel spectrum. */
+  MULTIPLY,
+  /** Inverse transform of the product. */
+  INVERSE,
+  /** Copying results out of the transform buffer. */
+  EXTRACT,
+  /** Spatial domain or blockwise convolution. */
+  CONVOLVE,
+  /** Setting pixels where the full kernel cannot be applied to 0. */
+  BORDER,
+  /** Swapping the result into the input image. */
+  ASSIGN;
+}
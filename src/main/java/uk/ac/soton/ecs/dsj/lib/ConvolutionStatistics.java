@@ -0,0 +1,264 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Listener that keeps counters and latency histograms for each convolution strategy and phase. The
+ * statistics of each strategy can be published as a JMX MXBean named
+ * {@value #DOMAIN}:type=Convolution,strategy=NAME, so they can be watched with any JMX console.
+ * 
+ * <pre>
+ * ConvolutionStatistics statistics = new ConvolutionStatistics();
+ * statistics.register();
+ * ConvolutionMetrics.setListener(statistics);
+ * </pre>
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class ConvolutionStatistics implements ConvolutionListener {
+  public static final String DOMAIN = "uk.ac.soton.ecs.dsj";
+
+  private final Map<ConvolutionStrategy, StrategyStatistics> strategies =
+      new EnumMap<ConvolutionStrategy, StrategyStatistics>(ConvolutionStrategy.class);
+
+  /**
+   * Create empty statistics.
+   */
+  public ConvolutionStatistics() {
+    for (ConvolutionStrategy strategy : ConvolutionStrategy.values()) {
+      strategies.put(strategy, new StrategyStatistics());
+    }
+  }
+
+  @Override
+  public void phaseCompleted(ConvolutionStrategy strategy, ConvolutionPhase phase, long nanos) {
+    strategies.get(strategy).phases.get(phase).record(nanos);
+  }
+
+  @Override
+  public void convolutionCompleted(ConvolutionStrategy strategy, int rows, int cols, int bands,
+      long nanos, long allocatedBytes) {
+    final StrategyStatistics statistics = strategies.get(strategy);
+    statistics.latency.record(nanos);
+    statistics.pixels.addAndGet((long) rows * cols * bands);
+    if (allocatedBytes >= 0) {
+      statistics.allocated.addAndGet(allocatedBytes);
+    }
+  }
+
+  /**
+   * @param strategy Strategy to get statistics of
+   * @return Statistics of the strategy
+   */
+  public StrategyStatistics getStatistics(ConvolutionStrategy strategy) {
+    return strategies.get(strategy);
+  }
+
+  /**
+   * Clear the statistics of every strategy.
+   */
+  public void reset() {
+    for (StrategyStatistics statistics : strategies.values()) {
+      statistics.reset();
+    }
+  }
+
+  /**
+   * Register the statistics of every strategy with the platform MBean server.
+   *
+   * @throws JMException If an MXBean could not be registered, for example if another instance is
+   *         already registered
+   */
+  public void register() throws JMException {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (Map.Entry<ConvolutionStrategy, StrategyStatistics> entry : strategies.entrySet()) {
+      server.registerMBean(entry.getValue(), getObjectName(entry.getKey()));
+    }
+  }
+
+  /**
+   * Remove the statistics of every strategy from the platform MBean server.
+   *
+   * @throws JMException If an MXBean could not be unregistered
+   */
+  public void unregister() throws JMException {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (ConvolutionStrategy strategy : strategies.keySet()) {
+      final ObjectName name = getObjectName(strategy);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    }
+  }
+
+  /**
+   * @param strategy Strategy to name
+   * @return Name the statistics of a strategy are registered under
+   * @throws JMException If the name is malformed
+   */
+  public static ObjectName getObjectName(ConvolutionStrategy strategy) throws JMException {
+    return new ObjectName(DOMAIN + ":type=Convolution,strategy=" + strategy.name());
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    for (Map.Entry<ConvolutionStrategy, StrategyStatistics> entry : strategies.entrySet()) {
+      if (entry.getValue().getCount() > 0) {
+        builder.append(entry.getKey()).append(": ").append(entry.getValue())
+            .append(System.lineSeparator());
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Management interface of the statistics of one strategy. Times are in milliseconds.
+   */
+  public interface StrategyStatisticsMXBean {
+    long getCount();
+
+    long getPixels();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    long getAllocatedBytes();
+
+    Map<String, Double> getPhaseMeanMillis();
+
+    Map<String, Long> getPhaseCounts();
+
+    void reset();
+  }
+
+  /**
+   * Counters and histograms of one strategy.
+   */
+  public static class StrategyStatistics implements StrategyStatisticsMXBean {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Map<ConvolutionPhase, LatencyHistogram> phases =
+        new EnumMap<ConvolutionPhase, LatencyHistogram>(ConvolutionPhase.class);
+    private final AtomicLong pixels = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+
+    StrategyStatistics() {
+      for (ConvolutionPhase phase : ConvolutionPhase.values()) {
+        phases.put(phase, new LatencyHistogram());
+      }
+    }
+
+    /**
+     * @return Histogram of the total time of each convolution in nanoseconds
+     */
+    public LatencyHistogram getLatency() {
+      return latency;
+    }
+
+    /**
+     * @param phase Phase to get histogram of
+     * @return Histogram of the time of each occurrence of the phase in nanoseconds
+     */
+    public LatencyHistogram getPhase(ConvolutionPhase phase) {
+      return phases.get(phase);
+    }
+
+    @Override
+    public long getCount() {
+      return latency.getCount();
+    }
+
+    @Override
+    public long getPixels() {
+      return pixels.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+      return latency.getMean() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+      return latency.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getP90Millis() {
+      return latency.getPercentile(90) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+      return latency.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+      return latency.getMax() / 1e6;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+      return allocated.get();
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMeanMillis() {
+      final Map<String, Double> means = new LinkedHashMap<String, Double>();
+      for (Map.Entry<ConvolutionPhase, LatencyHistogram> entry : phases.entrySet()) {
+        if (entry.getValue().getCount() > 0) {
+          means.put(entry.getKey().name(), entry.getValue().getMean() / 1e6);
+        }
+      }
+      return means;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+      final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+      for (Map.Entry<ConvolutionPhase, LatencyHistogram> entry : phases.entrySet()) {
+        if (entry.getValue().getCount() > 0) {
+          counts.put(entry.getKey().name(), entry.getValue().getCount());
+        }
+      }
+      return counts;
+    }
+
+    @Override
+    public void reset() {
+      latency.reset();
+      for (LatencyHistogram histogram : phases.values()) {
+        histogram.reset();
+      }
+      pixels.set(0);
+      allocated.set(0);
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder builder = new StringBuilder();
+      builder.append(String.format("count=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, allocated=%d",
+          getCount(), getMeanMillis(), getP50Millis(), getP99Millis(), getAllocatedBytes()));
+      for (Map.Entry<String, Double> entry : getPhaseMeanMillis().entrySet()) {
+        builder.append(String.format(", %s=%.3fms", entry.getKey(), entry.getValue()));
+      }
+      return builder.toString();
+    }
+  }
+
+}
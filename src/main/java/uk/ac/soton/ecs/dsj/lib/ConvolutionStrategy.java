@@ -0,0 +1,39 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+/**
+ * Algorithms available to {@link MyConvolution} for applying a kernel.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public enum ConvolutionStrategy {
+  /** Full 2-D spatial loop over a flat copy of the image, see {@link FlatConvolution}. */
+  NAIVE(false),
+  /** NAIVE with several pixels per SIMD instruction, see {@link VectorConvolution}. */
+  VECTOR(false),
+  /** Row pass then column pass for rank 1 kernels, see {@link MyConvolution#separableConvolution}. */
+  SEPARABLE(false),
+  /** Running sums for kernels with every value equal, see {@link BoxConvolution}. */
+  BOX(false),
+  /** Full-size complex FFT, see {@link MyConvolution#fourierConvolution}. */
+  FOURIER(true),
+  /** Full-size FFT in magnitude and phase, see {@link MyConvolution#alternateFourierConvolution}. */
+  ALTERNATE_FOURIER(true),
+  /** Full-size real-input FFT over half the spectrum, see {@link RealFourierConvolution}. */
+  REAL_FOURIER(true),
+  /** Overlap-save FFT over fixed-size blocks, see {@link BlockFourierConvolution}. */
+  BLOCK_FOURIER(true);
+
+  private final boolean fourier;
+
+  private ConvolutionStrategy(boolean fourier) {
+    this.fourier = fourier;
+  }
+
+  /**
+   * @return Whether the strategy works in the frequency domain
+   */
+  public boolean isFourier() {
+    return fourier;
+  }
+
+}
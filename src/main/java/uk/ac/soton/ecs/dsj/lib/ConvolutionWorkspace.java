@@ -0,0 +1,333 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import edu.emory.mathcs.jtransforms.fft.FloatFFT_2D;
+import java.io.Closeable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openimaj.image.FImage;
+
+/**
+ * Reusable scratch memory for convolution. Each thread has its own workspace (see {@link #get()}), so
+ * once buffers have grown to fit a stream of same-sized images no further allocation is required.
+ * Buffers larger than {@link #MAX_RETAINED_FLOATS} are allocated per call rather than retained, so
+ * that one very large image does not pin memory to a thread indefinitely.
+ *
+ * <p>
+ * Virtual threads are typically created per task, so a workspace per thread would be rebuilt on
+ * every call. Entry points instead take a {@link #lease()} for the duration of a call, which on a
+ * virtual thread borrows a warm workspace from a shared lock-free pool and on a platform thread does
+ * nothing. While a lease is held {@link #get()} returns the borrowed workspace.
+ * </p>
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class ConvolutionWorkspace {
+  /** Largest buffer, in floats, that a workspace will keep between calls (64 MiB). */
+  public static final int MAX_RETAINED_FLOATS = 16 * 1024 * 1024;
+  /** Number of FFT plans of different sizes a workspace will keep between calls. */
+  public static final int MAX_RETAINED_PLANS = 4;
+  /** Number of row pass images a workspace can hand out at once. */
+  public static final int ROW_PASS_SLOTS = 2;
+  /** Number of images extended by a {@link BorderMode} a workspace can hand out at once. */
+  public static final int BORDER_SLOTS = 2;
+  /** Number of idle workspaces kept for virtual threads. */
+  public static final int MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+
+  private static final ThreadLocal<ConvolutionWorkspace> WORKSPACES =
+      new ThreadLocal<ConvolutionWorkspace>() {
+        @Override
+        protected ConvolutionWorkspace initialValue() {
+          return new ConvolutionWorkspace();
+        }
+      };
+  private static final ThreadLocal<ConvolutionWorkspace> LEASED =
+      new ThreadLocal<ConvolutionWorkspace>();
+  private static final ConcurrentLinkedDeque<ConvolutionWorkspace> POOL =
+      new ConcurrentLinkedDeque<ConvolutionWorkspace>();
+  private static final AtomicInteger POOLED = new AtomicInteger();
+  private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+  /** Lease that does nothing, for platform threads and nested leases. */
+  private static final Lease NO_LEASE = new Lease(null);
+
+  private final FImage[] rowPasses = new FImage[ROW_PASS_SLOTS];
+  private final FImage[] borders = new FImage[BORDER_SLOTS];
+  private float[] complex = null;
+  private float[] flat = null;
+  private float[] spectrum = null;
+  private double[] sums = null;
+  private final int[] planRows = new int[MAX_RETAINED_PLANS];
+  private final int[] planCols = new int[MAX_RETAINED_PLANS];
+  private final FloatFFT_2D[] plans = new FloatFFT_2D[MAX_RETAINED_PLANS];
+  private int nextPlan = 0;
+
+  /**
+   * @return Workspace leased by the calling thread, otherwise the calling thread's own workspace
+   */
+  public static ConvolutionWorkspace get() {
+    final ConvolutionWorkspace leased = LEASED.get();
+    return (leased != null) ? leased : WORKSPACES.get();
+  }
+
+  /**
+   * Borrow a workspace from the shared pool for the calling thread if it is a virtual thread, until
+   * the returned lease is closed. Leases nest, only the outermost has any effect. Platform threads
+   * keep using their own workspace. The lease is not referenced inside the try block, so enclosing
+   * methods suppress the "try" lint warning.
+   *
+   * <pre>
+   * try (ConvolutionWorkspace.Lease lease = ConvolutionWorkspace.lease()) {
+   *   ...
+   * }
+   * </pre>
+   *
+   * @return Lease to close when the calling thread no longer needs scratch memory
+   */
+  public static Lease lease() {
+    if (!isVirtual(Thread.currentThread()) || LEASED.get() != null) {
+      return NO_LEASE;
+    }
+    ConvolutionWorkspace workspace = POOL.pollFirst();
+    if (workspace == null) {
+      workspace = new ConvolutionWorkspace();
+    } else {
+      POOLED.decrementAndGet();
+    }
+    LEASED.set(workspace);
+    return new Lease(workspace);
+  }
+
+  /**
+   * Get an image to hold the row pass of a separable convolution. Contents are undefined.
+   *
+   * @param width Width of image
+   * @param height Height of image
+   * @return Image of the requested size
+   */
+  public FImage getRowPassBuffer(int width, int height) {
+    return getRowPassBuffer(0, width, height);
+  }
+
+  /**
+   * Get one of several images to hold row passes, for when more than one is needed at once. Contents
+   * are undefined.
+   *
+   * @param slot Index of the image, less than {@link #ROW_PASS_SLOTS}
+   * @param width Width of image
+   * @param height Height of image
+   * @return Image of the requested size
+   */
+  public FImage getRowPassBuffer(int slot, int width, int height) {
+    return getImage(rowPasses, slot, width, height);
+  }
+
+  /**
+   * Get one of several images to hold an image extended by a {@link BorderMode}, or the result of
+   * convolving one. Contents are undefined.
+   *
+   * @param slot Index of the image, less than {@link #BORDER_SLOTS}
+   * @param width Width of image
+   * @param height Height of image
+   * @return Image of the requested size
+   */
+  public FImage getBorderBuffer(int slot, int width, int height) {
+    return getImage(borders, slot, width, height);
+  }
+
+  private static FImage getImage(FImage[] images, int slot, int width, int height) {
+    final FImage image = images[slot];
+    if (image != null && image.width == width && image.height == height) {
+      return image;
+    }
+    final FImage buffer = new FImage(width, height);
+    if ((long) width * height <= MAX_RETAINED_FLOATS) {
+      images[slot] = buffer;
+    }
+    return buffer;
+  }
+
+  /**
+   * Get an array to hold interleaved complex values. Contents are undefined and the array may be
+   * longer than requested.
+   *
+   * @param length Minimum number of floats required
+   * @return Array of at least the requested length
+   */
+  public float[] getComplexBuffer(int length) {
+    if (complex != null && complex.length >= length) {
+      return complex;
+    }
+    final float[] buffer = new float[length];
+    if (length <= MAX_RETAINED_FLOATS) {
+      complex = buffer;
+    }
+    return buffer;
+  }
+
+  /**
+   * Get an array to hold a flat copy of an input image, see {@link FlatConvolution}. Contents are
+   * undefined and the array may be longer than requested.
+   *
+   * @param length Minimum number of floats required
+   * @return Array of at least the requested length
+   */
+  public float[] getFlatBuffer(int length) {
+    if (flat != null && flat.length >= length) {
+      return flat;
+    }
+    final float[] buffer = new float[length];
+    if (length <= MAX_RETAINED_FLOATS) {
+      flat = buffer;
+    }
+    return buffer;
+  }
+
+  /**
+   * Get an array to hold real values for an in-place real-input transform. This shares storage with
+   * {@link #getComplexBuffer}, so only one of the two can be in use at a time.
+   *
+   * @param length Minimum number of floats required
+   * @return Array of at least the requested length
+   */
+  public float[] getRealBuffer(int length) {
+    return getComplexBuffer(length);
+  }
+
+  /**
+   * Get an array to hold a second spectrum while the buffer from {@link #getComplexBuffer} or
+   * {@link #getRealBuffer} is in use. Contents are undefined and the array may be longer than
+   * requested.
+   *
+   * @param length Minimum number of floats required
+   * @return Array of at least the requested length
+   */
+  public float[] getSpectrumBuffer(int length) {
+    if (spectrum != null && spectrum.length >= length) {
+      return spectrum;
+    }
+    final float[] buffer = new float[length];
+    if (length <= MAX_RETAINED_FLOATS) {
+      spectrum = buffer;
+    }
+    return buffer;
+  }
+
+  /**
+   * Get an array to hold running sums in double precision, see {@link BoxConvolution}. Contents are
+   * undefined and the array may be longer than requested.
+   *
+   * @param length Minimum number of doubles required
+   * @return Array of at least the requested length
+   */
+  public double[] getSumBuffer(int length) {
+    if (sums != null && sums.length >= length) {
+      return sums;
+    }
+    final double[] buffer = new double[length];
+    if (length <= MAX_RETAINED_FLOATS / 2) {
+      sums = buffer;
+    }
+    return buffer;
+  }
+
+  /**
+   * Get a 2-D FFT plan for the given size, creating it if it is not one of the most recently used.
+   *
+   * @param rows Number of rows to transform
+   * @param cols Number of columns to transform
+   * @return FFT plan
+   */
+  public FloatFFT_2D getFFT(int rows, int cols) {
+    for (int i = 0; i < MAX_RETAINED_PLANS; i++) {
+      if (plans[i] != null && planRows[i] == rows && planCols[i] == cols) {
+        return plans[i];
+      }
+    }
+    final FloatFFT_2D plan = new FloatFFT_2D(rows, cols);
+    planRows[nextPlan] = rows;
+    planCols[nextPlan] = cols;
+    plans[nextPlan] = plan;
+    nextPlan = (nextPlan + 1) % MAX_RETAINED_PLANS;
+    return plan;
+  }
+
+  /**
+   * Release all retained buffers and plans of this workspace.
+   */
+  public void clear() {
+    for (int i = 0; i < ROW_PASS_SLOTS; i++) {
+      rowPasses[i] = null;
+    }
+    for (int i = 0; i < BORDER_SLOTS; i++) {
+      borders[i] = null;
+    }
+    complex = null;
+    flat = null;
+    spectrum = null;
+    sums = null;
+    for (int i = 0; i < MAX_RETAINED_PLANS; i++) {
+      plans[i] = null;
+    }
+  }
+
+  private static boolean isVirtual(Thread thread) {
+    if (IS_VIRTUAL == null) {
+      return false;
+    }
+    try {
+      return (boolean) IS_VIRTUAL.invokeExact(thread);
+    } catch (Throwable e) {
+      return false;
+    }
+  }
+
+  private static MethodHandle findIsVirtual() {
+    try {
+      // Thread.isVirtual() only exists from Java 21
+      return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+          MethodType.methodType(boolean.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Workspace borrowed by a thread, returned to the pool when closed.
+   */
+  public static final class Lease implements Closeable {
+    private final ConvolutionWorkspace workspace;
+
+    private Lease(ConvolutionWorkspace workspace) {
+      this.workspace = workspace;
+    }
+
+    @Override
+    public void close() {
+      if (workspace == null) {
+        return;
+      }
+      LEASED.remove();
+      // Most recently used workspaces are reused first as they are most likely to fit
+      if (POOLED.incrementAndGet() <= MAX_POOLED) {
+        POOL.offerFirst(workspace);
+      } else {
+        POOLED.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Get the transform size to use for a dimension. JTransforms allocates scratch memory on every
+   * call for sizes that are not powers of two, so transforms are padded to the next power of two.
+   * JTransforms also requires at least two values in each dimension of a 2-D transform.
+   *
+   * @param n Dimension of image
+   * @return Smallest power of two no less than n or 2
+   */
+  public static int getTransformSize(int n) {
+    return (n <= 2) ? 2 : Integer.highestOneBit(n - 1) << 1;
+  }
+
+}
@@ -0,0 +1,343 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import org.openimaj.image.FImage;
+
+/**
+ * Per-machine cost model for the convolution strategies. Each strategy has an analytic count of work
+ * units for a given kernel and image size, and a cost in nanoseconds per work unit. Built-in costs
+ * are used unless a calibration file written for this machine exists. Calibration only runs when
+ * requested through {@link #calibrateDefault()}, which times each strategy on a small probe image
+ * and persists the costs so that later runs on the machine use them.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class CostModel {
+  /** System property that overrides the location of the calibration file. */
+  public static final String FILE_PROPERTY = "hybridimages.costmodel";
+  public static final int PROBE_SIZE = 256;
+  public static final int PROBE_KERNEL_SIZE = 9;
+  public static final int PROBE_WARMUPS = 5;
+  public static final int PROBE_REPEATS = 5;
+
+  private static CostModel defaultModel = null;
+  private static CostModel builtInModel = null;
+
+  private final Map<ConvolutionStrategy, Double> costs;
+
+  /**
+   * Create a cost model from known per work unit costs.
+   *
+   * @param costs Nanoseconds per work unit for every strategy
+   */
+  public CostModel(Map<ConvolutionStrategy, Double> costs) {
+    for (ConvolutionStrategy strategy : ConvolutionStrategy.values()) {
+      if (!costs.containsKey(strategy)) {
+        throw new IllegalArgumentException("No cost provided for strategy: " + strategy);
+      }
+    }
+    this.costs = new EnumMap<ConvolutionStrategy, Double>(costs);
+  }
+
+  /**
+   * Get the cost model for this machine. The calibration file is read if it exists and was written by
+   * a matching machine, otherwise the {@link #getBuiltIn() built-in} model is used. No probes are
+   * run and no file is written.
+   *
+   * @return Shared cost model
+   */
+  public static synchronized CostModel getDefault() {
+    if (defaultModel == null) {
+      try {
+        defaultModel = load(getCalibrationFile());
+      } catch (IOException e) {
+        defaultModel = null;
+      }
+      if (defaultModel == null) {
+        defaultModel = getBuiltIn();
+      }
+    }
+    return defaultModel;
+  }
+
+  /**
+   * Calibrate this machine, save the costs to the calibration file and use them as the default
+   * model from now on.
+   *
+   * @return Calibrated cost model
+   * @throws IOException If the calibration file could not be written, the model is still used
+   */
+  public static CostModel calibrateDefault() throws IOException {
+    final CostModel model = calibrate();
+    synchronized (CostModel.class) {
+      defaultModel = model;
+    }
+    model.save(getCalibrationFile());
+    return model;
+  }
+
+  /**
+   * Get the built-in cost model, with costs measured on a single core of an x86-64 machine running
+   * JDK 17. The vector engine is given the cost of the scalar loop, as it has not measured faster.
+   *
+   * @return Built-in cost model
+   */
+  public static synchronized CostModel getBuiltIn() {
+    if (builtInModel == null) {
+      final Map<ConvolutionStrategy, Double> costs =
+          new EnumMap<ConvolutionStrategy, Double>(ConvolutionStrategy.class);
+      costs.put(ConvolutionStrategy.NAIVE, 0.7);
+      costs.put(ConvolutionStrategy.VECTOR, 0.7);
+      costs.put(ConvolutionStrategy.SEPARABLE, 1.3);
+      costs.put(ConvolutionStrategy.BOX, 4.6);
+      costs.put(ConvolutionStrategy.FOURIER, 9.4);
+      costs.put(ConvolutionStrategy.ALTERNATE_FOURIER, 18.2);
+      costs.put(ConvolutionStrategy.REAL_FOURIER, 5.4);
+      costs.put(ConvolutionStrategy.BLOCK_FOURIER, 4.9);
+      builtInModel = new CostModel(costs);
+    }
+    return builtInModel;
+  }
+
+  /**
+   * @return Location of the calibration file, from {@link #FILE_PROPERTY} or the user's home
+   */
+  public static File getCalibrationFile() {
+    final String path = System.getProperty(FILE_PROPERTY);
+    if (path != null) {
+      return new File(path);
+    }
+    return new File(System.getProperty("user.home"),
+        ".hybrid-images" + File.separator + "cost-model.properties");
+  }
+
+  /**
+   * @return Identifier of the machine and runtime that calibration is valid for
+   */
+  public static String getFingerprint() {
+    return System.getProperty("os.arch") + "/" + System.getProperty("java.vm.name") + "/"
+        + System.getProperty("java.version") + "/" + Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Measure the cost of every strategy on this machine by timing each on a probe image. The best
+   * of {@link #PROBE_REPEATS} runs is taken, after {@link #PROBE_WARMUPS} runs to allow compilation.
+   * VECTOR is not probed when the vector engine is unavailable, as it would time the NAIVE loop
+   * again.
+   *
+   * @return Calibrated cost model
+   */
+  public static CostModel calibrate() {
+    final Random random = new Random(0);
+    final FImage probe = new FImage(PROBE_SIZE, PROBE_SIZE);
+    for (float[] row : probe.pixels) {
+      for (int x = 0; x < row.length; x++) {
+        row[x] = random.nextFloat();
+      }
+    }
+    // Separable probe kernel so that every strategy can run with it
+    final float[] factor = new float[PROBE_KERNEL_SIZE];
+    for (int i = 0; i < factor.length; i++) {
+      factor[i] = random.nextFloat() + 0.5f;
+    }
+    final float[][] kernel = new float[PROBE_KERNEL_SIZE][PROBE_KERNEL_SIZE];
+    for (int y = 0; y < kernel.length; y++) {
+      for (int x = 0; x < kernel[0].length; x++) {
+        kernel[y][x] = factor[y] * factor[x];
+      }
+    }
+
+    // Box probe kernel as the box strategy requires every value to be equal
+    final float[][] boxKernel = new float[PROBE_KERNEL_SIZE][PROBE_KERNEL_SIZE];
+    for (float[] row : boxKernel) {
+      Arrays.fill(row, 1f / (PROBE_KERNEL_SIZE * PROBE_KERNEL_SIZE));
+    }
+
+    final Map<ConvolutionStrategy, Double> costs =
+        new EnumMap<ConvolutionStrategy, Double>(ConvolutionStrategy.class);
+    for (ConvolutionStrategy strategy : ConvolutionStrategy.values()) {
+      if (strategy == ConvolutionStrategy.VECTOR && !VectorConvolution.isAvailable()) {
+        costs.put(strategy, costs.get(ConvolutionStrategy.NAIVE));
+        continue;
+      }
+      final MyConvolution conv = new MyConvolution(
+          (strategy == ConvolutionStrategy.BOX) ? boxKernel : kernel, strategy);
+      long best = Long.MAX_VALUE;
+      for (int r = 0; r < PROBE_WARMUPS; r++) {
+        probe.process(conv);
+      }
+      for (int r = 0; r < PROBE_REPEATS; r++) {
+        final long start = System.nanoTime();
+        probe.process(conv);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      final double units =
+          getWorkUnits(strategy, PROBE_SIZE, PROBE_SIZE, PROBE_KERNEL_SIZE, PROBE_KERNEL_SIZE);
+      costs.put(strategy, best / units);
+    }
+    return new CostModel(costs);
+  }
+
+  /**
+   * Load a cost model from a calibration file.
+   *
+   * @param file Calibration file to read
+   * @return Cost model, or null if the file does not exist or is for a different machine
+   * @throws IOException If the file could not be read
+   */
+  public static CostModel load(File file) throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    final Properties properties = new Properties();
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      properties.load(in);
+    } finally {
+      if (in != null) {
+        in.close();
+      }
+    }
+    if (!getFingerprint().equals(properties.getProperty("fingerprint"))) {
+      return null;
+    }
+    final Map<ConvolutionStrategy, Double> costs =
+        new EnumMap<ConvolutionStrategy, Double>(ConvolutionStrategy.class);
+    for (ConvolutionStrategy strategy : ConvolutionStrategy.values()) {
+      final String value = properties.getProperty(strategy.name());
+      if (value == null) {
+        return null;
+      }
+      try {
+        costs.put(strategy, Double.parseDouble(value));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return new CostModel(costs);
+  }
+
+  /**
+   * Save the cost model to a calibration file, creating parent directories as required.
+   *
+   * @param file Calibration file to write
+   * @throws IOException If the file could not be written
+   */
+  public void save(File file) throws IOException {
+    final Properties properties = new Properties();
+    properties.setProperty("fingerprint", getFingerprint());
+    for (Map.Entry<ConvolutionStrategy, Double> entry : costs.entrySet()) {
+      properties.setProperty(entry.getKey().name(), Double.toString(entry.getValue()));
+    }
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Unable to create directory: " + parent);
+    }
+    OutputStream out = null;
+    try {
+      out = new FileOutputStream(file);
+      properties.store(out, "MyConvolution cost model, nanoseconds per work unit");
+    } finally {
+      if (out != null) {
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * Get the number of work units a strategy requires. Spatial strategies count multiply-adds (or
+   * running sum updates) across the valid region, frequency domain strategies count n log2(n) for
+   * each transform size n. Kernel transforms are not counted as they are cached between calls.
+   *
+   * @param strategy Strategy to count work units of
+   * @param rows Number of rows in image
+   * @param cols Number of columns in image
+   * @param kh Height of kernel
+   * @param kw Width of kernel
+   * @return Number of work units
+   */
+  public static double getWorkUnits(ConvolutionStrategy strategy, int rows, int cols, int kh,
+      int kw) {
+    final double validRows = rows - (kh - 1);
+    final double validCols = cols - (kw - 1);
+    switch (strategy) {
+      case NAIVE:
+      case VECTOR:
+        return validRows * validCols * kh * kw;
+      case SEPARABLE:
+        return rows * validCols * kw + validRows * validCols * kh;
+      case BOX:
+        // One add and one subtract per pass whatever the kernel size
+        return rows * validCols + validRows * validCols;
+      case FOURIER:
+        // Transforms are padded to powers of two
+        return transformUnits((double) ConvolutionWorkspace.getTransformSize(rows)
+            * ConvolutionWorkspace.getTransformSize(cols));
+      case ALTERNATE_FOURIER:
+        return transformUnits((double) rows * cols);
+      case REAL_FOURIER:
+        // Half of the spectrum of a padded transform
+        return transformUnits((double) ConvolutionWorkspace.getTransformSize(rows)
+            * ConvolutionWorkspace.getTransformSize(cols)) / 2;
+      case BLOCK_FOURIER:
+        final int blockSize = BlockFourierConvolution.getBlockSize(kh, kw);
+        final double blocks = Math.ceil(validRows / (blockSize - (kh - 1)))
+            * Math.ceil(validCols / (blockSize - (kw - 1)));
+        return blocks * transformUnits((double) blockSize * blockSize);
+      default:
+        throw new IllegalArgumentException("Unknown strategy: " + strategy);
+    }
+  }
+
+  /**
+   * Estimate the time a strategy will take.
+   *
+   * @param strategy Strategy to estimate
+   * @param rows Number of rows in image
+   * @param cols Number of columns in image
+   * @param kh Height of kernel
+   * @param kw Width of kernel
+   * @param parallelism Number of threads available to the strategy
+   * @return Estimated time in nanoseconds
+   */
+  public double estimate(ConvolutionStrategy strategy, int rows, int cols, int kh, int kw,
+      int parallelism) {
+    final double time = costs.get(strategy) * getWorkUnits(strategy, rows, cols, kh, kw);
+    // Full-size transforms run on a single thread
+    if (strategy == ConvolutionStrategy.FOURIER
+        || strategy == ConvolutionStrategy.ALTERNATE_FOURIER
+        || strategy == ConvolutionStrategy.REAL_FOURIER) {
+      return time;
+    }
+    return time / parallelism;
+  }
+
+  /**
+   * @param strategy Strategy to get cost of
+   * @return Nanoseconds per work unit
+   */
+  public double getCost(ConvolutionStrategy strategy) {
+    return costs.get(strategy);
+  }
+
+  private static double transformUnits(double n) {
+    return n * Math.log(n) / Math.log(2);
+  }
+
+  @Override
+  public String toString() {
+    return costs.toString();
+  }
+
+}
@@ -0,0 +1,97 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.util.Arrays;
+import org.openimaj.image.FImage;
+
+/**
+ * Spatial domain convolution over flat row-major arrays. Images are copied into a single
+ * {@code float[]} with a row stride once on entry, so the inner loop has no row pointer to
+ * dereference, and each kernel value is applied across a whole output row at a time. The inner loop
+ * is then a simple scaled add of one contiguous array into another, which HotSpot C2 unrolls and
+ * vectorises. Every output pixel sums the same products in the same order as the 2-D loop, so output
+ * is bit-identical.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class FlatConvolution {
+  /** Scalar engine applying {@link #naiveConvolution}. */
+  public static final SpatialEngine ENGINE = new SpatialEngine() {
+    @Override
+    public void naiveConvolution(float[] image, int width, int stride, float[] kernel, int kh,
+        int kw, FImage processed, int y0, int y1) {
+      FlatConvolution.naiveConvolution(image, width, stride, kernel, kh, kw, processed, y0, y1);
+    }
+  };
+
+  /**
+   * Copy an image into a flat row-major array with a stride of the image width.
+   *
+   * @param image Image to copy
+   * @param buffer Array to copy into, null or too small to allocate a new one
+   * @return Array holding the image
+   */
+  public static float[] flatten(FImage image, float[] buffer) {
+    final int width = image.width;
+    final int length = width * image.height;
+    final float[] flat = (buffer == null || buffer.length < length) ? new float[length] : buffer;
+    for (int y = 0; y < image.height; y++) {
+      System.arraycopy(image.pixels[y], 0, flat, y * width, width);
+    }
+    return flat;
+  }
+
+  /**
+   * Copy a kernel into a flat row-major array.
+   *
+   * @param kernel Kernel to copy
+   * @return Array of length kh * kw holding the kernel
+   */
+  public static float[] flatten(float[][] kernel) {
+    final int kw = kernel[0].length;
+    final float[] flat = new float[kernel.length * kw];
+    for (int y = 0; y < kernel.length; y++) {
+      System.arraycopy(kernel[y], 0, flat, y * kw, kw);
+    }
+    return flat;
+  }
+
+  /**
+   * Process the rows [y0, y1) of a flat image using the provided flat kernel, writing every pixel
+   * that can overlay the full kernel into the given output. Rows outside the range that can overlay
+   * the full kernel must not be requested.
+   *
+   * @param image Flat image to process
+   * @param width Number of columns in image
+   * @param stride Distance between the starts of consecutive image rows
+   * @param kernel Flat kernel to apply
+   * @param kh Height of kernel
+   * @param kw Width of kernel
+   * @param processed Image to write results into
+   * @param y0 First row to process (inclusive)
+   * @param y1 Last row to process (exclusive)
+   */
+  public static void naiveConvolution(float[] image, int width, int stride, float[] kernel, int kh,
+      int kw, FImage processed, int y0, int y1) {
+    final int khh = kh / 2;
+    final int khw = kw / 2;
+    final int x1 = width - khw;
+
+    for (int y = y0; y < y1; y++) {
+      final float[] out = processed.pixels[y];
+      Arrays.fill(out, khw, x1, 0f);
+      for (int ky = 0; ky < kh; ky++) {
+        // Offset of the image row under this kernel row, with kernel flip applied
+        final int row = (y - ky + khh) * stride + khw;
+        for (int kx = 0; kx < kw; kx++) {
+          final float k = kernel[ky * kw + kx];
+          final int in = row - kx;
+          // Add contribution of this kernel value to every point of the output row
+          for (int x = khw; x < x1; x++) {
+            out[x] += image[in + x] * k;
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,190 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import edu.emory.mathcs.jtransforms.fft.FloatFFT_2D;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.openimaj.image.FImage;
+
+/**
+ * Convolution of one image with many kernels from a single forward transform. The image is
+ * transformed once on construction, as in {@link RealFourierConvolution}, after which each kernel
+ * costs a spectrum multiply and an inverse transform. Results are identical to
+ * {@link ConvolutionStrategy#REAL_FOURIER}. Sweeps are produced lazily, so only one result needs to
+ * be held at a time.
+ *
+ * <p>
+ * A sweep holds its own buffers rather than using the {@link ConvolutionWorkspace}, so it can be
+ * interleaved with other convolutions on the same thread. It must not be used by more than one thread
+ * at a time.
+ * </p>
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class FourierSweep {
+  protected final int rows;
+  protected final int cols;
+  protected final int prows;
+  protected final int pcols;
+  protected final FloatFFT_2D fft;
+  protected final float[] spectrum;
+  protected final float[] data;
+  protected final GaussianKernelFactory factory;
+
+  /**
+   * Calls the {@link #FourierSweep(FImage image, GaussianKernelFactory factory)} constructor with the
+   * default factory.
+   *
+   * @param image Image to transform
+   */
+  public FourierSweep(FImage image) {
+    this(image, GaussianKernelFactory.getDefault());
+  }
+
+  /**
+   * Transform an image ready to be convolved with many kernels.
+   *
+   * @param image Image to transform
+   * @param factory Factory to take Gaussian kernels from
+   */
+  public FourierSweep(FImage image, GaussianKernelFactory factory) {
+    this.rows = image.getRows();
+    this.cols = image.getCols();
+    this.prows = ConvolutionWorkspace.getTransformSize(rows);
+    this.pcols = ConvolutionWorkspace.getTransformSize(cols);
+    this.fft = new FloatFFT_2D(prows, pcols);
+    this.spectrum = new float[prows * pcols];
+    this.data = new float[prows * pcols];
+    this.factory = factory;
+
+    // Copy image into buffer, zero padding to the transform size, and transform
+    for (int y = 0; y < rows; y++) {
+      System.arraycopy(image.pixels[y], 0, spectrum, y * pcols, cols);
+    }
+    fft.realForward(spectrum);
+  }
+
+  /**
+   * Convolve the image with a kernel, writing every pixel of the output. Pixels where the full kernel
+   * cannot be applied are set to 0.
+   *
+   * @param kernel Kernel to apply, with odd lengths no larger than the image
+   * @param output Image of the same size to write results into
+   */
+  public void convolve(float[][] kernel, FImage output) {
+    validate(kernel, output);
+    convolve(KernelSpectrumCache.getDefault().getRealSpectrum(kernel, prows, pcols), output);
+    MyConvolution.zeroBorder(output, kernel);
+  }
+
+  /**
+   * Convolve the image with the Gaussian low-pass for a sigma, as built by the factory.
+   *
+   * @param sigma Gaussian sigma
+   * @param output Image of the same size to write results into
+   */
+  public void convolve(float sigma, FImage output) {
+    convolve(factory.getKernel(sigma).getKernel(), output);
+  }
+
+  /**
+   * Lazily convolve the image with each kernel in turn.
+   *
+   * @param kernels Kernels to apply
+   * @return Iterator creating a new image for each kernel as it is requested
+   */
+  public Iterator<FImage> sweep(final List<float[][]> kernels) {
+    return new SweepIterator(kernels.size()) {
+      @Override
+      protected void convolve(int index, FImage output) {
+        FourierSweep.this.convolve(kernels.get(index), output);
+      }
+    };
+  }
+
+  /**
+   * Lazily convolve the image with the Gaussian low-pass of each sigma in turn.
+   *
+   * @param sigmas Gaussian sigmas
+   * @return Iterator creating a new image for each sigma as it is requested
+   */
+  public Iterator<FImage> sweep(final float... sigmas) {
+    final float[] copy = sigmas.clone();
+    return new SweepIterator(copy.length) {
+      @Override
+      protected void convolve(int index, FImage output) {
+        FourierSweep.this.convolve(copy[index], output);
+      }
+    };
+  }
+
+  /**
+   * @return Number of rows in image
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * @return Number of columns in image
+   */
+  public int getCols() {
+    return cols;
+  }
+
+  private void convolve(float[] fftKernel, FImage output) {
+    System.arraycopy(spectrum, 0, data, 0, data.length);
+    RealFourierConvolution.multiplyPackedSpectra(data, fftKernel, prows, pcols);
+    fft.realInverse(data, true);
+    for (int y = 0; y < rows; y++) {
+      System.arraycopy(data, y * pcols, output.pixels[y], 0, cols);
+    }
+  }
+
+  private void validate(float[][] kernel, FImage output) {
+    if ((kernel.length % 2) == 0 || (kernel[0].length % 2) == 0) {
+      throw new IllegalArgumentException("Kernel must have odd lengths");
+    }
+    if (rows < kernel.length || cols < kernel[0].length) {
+      throw new IllegalArgumentException("Image must be bigger than convoluter kernel");
+    }
+    if (output.getRows() != rows || output.getCols() != cols) {
+      throw new IllegalArgumentException("Output must be the same size as the input image");
+    }
+  }
+
+  /**
+   * Iterator producing one new image per index.
+   */
+  private abstract class SweepIterator implements Iterator<FImage> {
+    private final int count;
+    private int next = 0;
+
+    SweepIterator(int count) {
+      this.count = count;
+    }
+
+    protected abstract void convolve(int index, FImage output);
+
+    @Override
+    public boolean hasNext() {
+      return next < count;
+    }
+
+    @Override
+    public FImage next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final FImage output = new FImage(cols, rows);
+      convolve(next++, output);
+      return output;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
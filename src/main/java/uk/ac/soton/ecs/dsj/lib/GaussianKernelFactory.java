@@ -0,0 +1,170 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import org.openimaj.image.processing.convolution.Gaussian2D;
+
+/**
+ * Factory of Gaussian low-pass kernels that caches everything derived from a sigma. Spatial kernels,
+ * their separable factors and a convolution operator are cached per sigma, so sweeps that apply a
+ * handful of sigmas to many images only build each kernel once. Their spectra are cached with those
+ * of every other kernel by {@link KernelSpectrumCache#getDefault()}. The cache is bounded in bytes,
+ * evicts the least recently used entries and records its hit rate. All methods are thread-safe.
+ * Returned kernels are shared and must not be modified.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class GaussianKernelFactory {
+  public static final long DEFAULT_MAX_KERNEL_BYTES = 16L * 1024 * 1024;
+  private static final GaussianKernelFactory DEFAULT =
+      new GaussianKernelFactory(DEFAULT_MAX_KERNEL_BYTES);
+
+  private final LruCache<Float, GaussianKernel> kernels;
+
+  /**
+   * Create a factory with an empty cache.
+   *
+   * @param maxKernelBytes Maximum number of bytes of spatial kernels to hold
+   */
+  public GaussianKernelFactory(long maxKernelBytes) {
+    this.kernels = new LruCache<Float, GaussianKernel>(maxKernelBytes);
+  }
+
+  /**
+   * @return Factory shared by the hybrid image generators
+   */
+  public static GaussianKernelFactory getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Get the width and height of the kernel for a sigma, 8 * sigma + 1 rounded up to be odd.
+   *
+   * @param sigma Gaussian sigma
+   * @return Kernel size
+   */
+  public static int getKernelSize(float sigma) {
+    int size = (int) (8.0f * sigma + 1.0f);
+    if (size % 2 == 0) {
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * Get the Gaussian kernel for a sigma, creating it if it is not cached.
+   *
+   * @param sigma Gaussian sigma
+   * @return Shared kernel
+   */
+  public GaussianKernel getKernel(float sigma) {
+    if (!(sigma > 0) || Float.isInfinite(sigma)) {
+      throw new IllegalArgumentException("Sigma must be positive and finite");
+    }
+    GaussianKernel kernel = kernels.get(sigma);
+    if (kernel == null) {
+      // Concurrent misses may both create the kernel, the last to be added is kept
+      kernel = new GaussianKernel(sigma);
+      final long size = kernel.getSize();
+      kernels.put(sigma, kernel, 8L * size * size + 8L * size);
+    }
+    return kernel;
+  }
+
+  /**
+   * Get a convolution operator applying the Gaussian low-pass for a sigma.
+   *
+   * @param sigma Gaussian sigma
+   * @return Shared convolution operator
+   */
+  public MyConvolution getLowPass(float sigma) {
+    return getKernel(sigma).getLowPass();
+  }
+
+  /**
+   * Remove all cached kernels. Counters are not reset.
+   */
+  public void clear() {
+    kernels.clear();
+  }
+
+  /**
+   * @return Cache of spatial kernels, for monitoring
+   */
+  public LruCache<Float, GaussianKernel> getKernelCache() {
+    return kernels;
+  }
+
+  /**
+   * @return Fraction of kernel lookups that were cached, NaN if there have been none
+   */
+  public double getKernelHitRate() {
+    final long hits = kernels.getHitCount();
+    final long lookups = hits + kernels.getMissCount();
+    return (lookups == 0) ? Double.NaN : (double) hits / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("kernels: %s, hit rate=%.3f", kernels, getKernelHitRate());
+  }
+
+  /**
+   * Gaussian kernel for a sigma with its separable factors.
+   */
+  public static final class GaussianKernel {
+    private final float sigma;
+    private final float[][] kernel;
+    private final float[][] factors;
+    private final MyConvolution lowPass;
+
+    private GaussianKernel(float sigma) {
+      this.sigma = sigma;
+      this.kernel = Gaussian2D.createKernelImage(getKernelSize(sigma), sigma).pixels;
+      this.factors = MyConvolution.separateKernel(kernel, MyConvolution.SEPARABLE_TOLERANCE);
+      this.lowPass = new MyConvolution(kernel);
+    }
+
+    /**
+     * @return Gaussian sigma
+     */
+    public float getSigma() {
+      return sigma;
+    }
+
+    /**
+     * @return Width and height of kernel
+     */
+    public int getSize() {
+      return kernel.length;
+    }
+
+    /**
+     * @return Shared spatial kernel
+     */
+    public float[][] getKernel() {
+      return kernel;
+    }
+
+    /**
+     * @return Shared column factor, such that kernel[y][x] = column[y] * row[x], or null if the
+     *         kernel could not be separated
+     */
+    public float[] getColumnFactor() {
+      return (factors == null) ? null : factors[0];
+    }
+
+    /**
+     * @return Shared row factor, or null if the kernel could not be separated
+     */
+    public float[] getRowFactor() {
+      return (factors == null) ? null : factors[1];
+    }
+
+    /**
+     * @return Shared convolution operator applying the kernel
+     */
+    public MyConvolution getLowPass() {
+      return lowPass;
+    }
+  }
+
+}
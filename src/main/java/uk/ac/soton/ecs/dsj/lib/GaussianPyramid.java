@@ -0,0 +1,276 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.openimaj.image.FImage;
+import org.openimaj.image.MBFImage;
+
+/**
+ * Gaussian pyramid built by decimated convolution. Each level is the previous level blurred with a
+ * separable Gaussian and sampled at every other row and column, and only the samples that survive
+ * are computed: the row pass is evaluated at every other column and the column pass at every other
+ * row, roughly a quarter of the work of a full convolution followed by a resize. Levels are produced
+ * lazily, each from the one before.
+ *
+ * <p>
+ * Unlike {@link MyConvolution} the image is always extended at its edges by a {@link BorderMode},
+ * repeating the outermost pixels by default, so that borders are not lost at every level. Away from
+ * the edges, samples are identical to a
+ * {@link ConvolutionStrategy#SEPARABLE} convolution sampled at even coordinates.
+ * </p>
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class GaussianPyramid {
+  /** Default Gaussian sigma applied before each halving. */
+  public static final float DEFAULT_SIGMA = 1.0f;
+  /** Default smallest width or height of a level. */
+  public static final int DEFAULT_MIN_SIZE = 8;
+
+  protected final float[] column;
+  protected final float[] row;
+  protected final int minSize;
+  protected final BorderMode borderMode;
+
+  /**
+   * Calls the {@link #GaussianPyramid(float sigma, int minSize)} constructor with the default sigma
+   * and minimum size.
+   */
+  public GaussianPyramid() {
+    this(DEFAULT_SIGMA, DEFAULT_MIN_SIZE);
+  }
+
+  /**
+   * Calls the {@link #GaussianPyramid(float sigma, int minSize, BorderMode borderMode)} constructor
+   * with edges extended by {@link BorderMode#CLAMP}.
+   *
+   * @param sigma Gaussian sigma applied before each halving
+   * @param minSize Smallest width or height of a level, levels stop before becoming smaller
+   */
+  public GaussianPyramid(float sigma, int minSize) {
+    this(sigma, minSize, BorderMode.CLAMP);
+  }
+
+  /**
+   * Create a pyramid generator using a Gaussian from the default {@link GaussianKernelFactory}.
+   *
+   * @param sigma Gaussian sigma applied before each halving
+   * @param minSize Smallest width or height of a level, levels stop before becoming smaller
+   * @param borderMode How the edges of each level are extended, cannot be {@link BorderMode#ZERO}
+   */
+  public GaussianPyramid(float sigma, int minSize, BorderMode borderMode) {
+    if (!borderMode.isExtending()) {
+      throw new IllegalArgumentException("Pyramid requires an extending border mode");
+    }
+    if (minSize < 1) {
+      throw new IllegalArgumentException("Minimum size must be at least 1");
+    }
+    final GaussianKernelFactory.GaussianKernel kernel =
+        GaussianKernelFactory.getDefault().getKernel(sigma);
+    if (kernel.getColumnFactor() == null) {
+      throw new IllegalArgumentException("Kernel is not separable");
+    }
+    this.column = kernel.getColumnFactor();
+    this.row = kernel.getRowFactor();
+    this.minSize = minSize;
+    this.borderMode = borderMode;
+  }
+
+  /**
+   * Lazily generate the levels of the pyramid of an image. The first level is the image itself.
+   *
+   * @param image Image to build pyramid of
+   * @return Iterator creating each level as it is requested
+   */
+  public Iterator<FImage> levels(final FImage image) {
+    return new LevelIterator<FImage>(image) {
+      @Override
+      protected FImage next(FImage level) {
+        return downsample(level);
+      }
+
+      @Override
+      protected boolean hasNext(FImage level) {
+        return canDownsample(level.getWidth(), level.getHeight());
+      }
+    };
+  }
+
+  /**
+   * Lazily generate the levels of the pyramid of a multi-band image, processing each band as in
+   * {@link #levels(FImage)}. The first level is the image itself.
+   *
+   * @param image Image to build pyramid of
+   * @return Iterator creating each level as it is requested
+   */
+  public Iterator<MBFImage> levels(final MBFImage image) {
+    return new LevelIterator<MBFImage>(image) {
+      @Override
+      protected MBFImage next(MBFImage level) {
+        final MBFImage next = new MBFImage(getLevelSize(level.getWidth()),
+            getLevelSize(level.getHeight()), level.colourSpace);
+        for (int b = 0; b < level.numBands(); b++) {
+          downsample(level.getBand(b), column, row, borderMode, next.getBand(b));
+        }
+        return next;
+      }
+
+      @Override
+      protected boolean hasNext(MBFImage level) {
+        return canDownsample(level.getWidth(), level.getHeight());
+      }
+    };
+  }
+
+  /**
+   * Create the next level of the pyramid from an image.
+   *
+   * @param image Image to blur and halve
+   * @return New image of half the size, rounded up
+   */
+  public FImage downsample(FImage image) {
+    final FImage output =
+        new FImage(getLevelSize(image.getWidth()), getLevelSize(image.getHeight()));
+    downsample(image, column, row, borderMode, output);
+    return output;
+  }
+
+  /**
+   * Calls {@link #downsample(FImage, float[], float[], BorderMode, FImage)} with edges extended by
+   * repeating the outermost pixels.
+   *
+   * @param image Image to process
+   * @param column Column factor of the kernel, of odd length
+   * @param row Row factor of the kernel, of odd length
+   * @param output Image to write samples into, of size {@link #getLevelSize} in each dimension
+   */
+  public static void downsample(FImage image, float[] column, float[] row, FImage output) {
+    downsample(image, column, row, BorderMode.CLAMP, output);
+  }
+
+  /**
+   * Blur an image with a separable kernel and sample at every other row and column, only computing
+   * the samples that are kept. The row pass is held in the calling thread's
+   * {@link ConvolutionWorkspace}.
+   *
+   * @param image Image to process
+   * @param column Column factor of the kernel, of odd length
+   * @param row Row factor of the kernel, of odd length
+   * @param borderMode How the edges of the image are extended, cannot be {@link BorderMode#ZERO}
+   * @param output Image to write samples into, of size {@link #getLevelSize} in each dimension
+   */
+  public static void downsample(FImage image, float[] column, float[] row, BorderMode borderMode,
+      FImage output) {
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    final int ow = getLevelSize(width);
+    final int oh = getLevelSize(height);
+    if (output.getWidth() != ow || output.getHeight() != oh) {
+      throw new IllegalArgumentException("Output must be half the size of the input image");
+    }
+    final int kw = row.length;
+    final int kh = column.length;
+    final int khw = kw / 2;
+    final int khh = kh / 2;
+    if (!borderMode.isExtending()) {
+      throw new IllegalArgumentException("Pyramid requires an extending border mode");
+    }
+    if (!canExtend(borderMode, width, height, khw, khh)) {
+      throw new IllegalArgumentException("Image must be bigger than half the kernel");
+    }
+    final ConvolutionWorkspace workspace = ConvolutionWorkspace.get();
+    final FImage rowPass = workspace.getRowPassBuffer(ow, height);
+    final float[] padded = workspace.getFlatBuffer(width + 2 * khw);
+
+    // Row pass at even columns, over a copy of each row with extended edges
+    for (int y = 0; y < height; y++) {
+      borderMode.extendRow(image.pixels[y], width, khw, padded);
+      final float[] out = rowPass.pixels[y];
+      for (int j = 0; j < ow; j++) {
+        final int x = 2 * j + 2 * khw;
+        float val = 0;
+        for (int kx = 0; kx < kw; kx++) {
+          val += (padded[x - kx] * row[kx]);
+        }
+        out[j] = val;
+      }
+    }
+    // Column pass at even rows, mapping rows past the edges back into the image
+    for (int i = 0; i < oh; i++) {
+      final float[] out = output.pixels[i];
+      final int y = 2 * i;
+      for (int j = 0; j < ow; j++) {
+        out[j] = 0;
+      }
+      for (int ky = 0; ky < kh; ky++) {
+        final int sy = borderMode.index(y - ky + khh, height);
+        final float[] in = rowPass.pixels[sy];
+        final float k = column[ky];
+        for (int j = 0; j < ow; j++) {
+          out[j] += (in[j] * k);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param n Width or height of a level
+   * @return Width or height of the next level
+   */
+  public static int getLevelSize(int n) {
+    return (n + 1) / 2;
+  }
+
+  private boolean canDownsample(int width, int height) {
+    return width > 1 && height > 1 && getLevelSize(width) >= minSize
+        && getLevelSize(height) >= minSize
+        && canExtend(borderMode, width, height, row.length / 2, column.length / 2);
+  }
+
+  /**
+   * Only clamping can extend an image by more than its own size less one.
+   */
+  private static boolean canExtend(BorderMode borderMode, int width, int height, int khw,
+      int khh) {
+    return borderMode == BorderMode.CLAMP || (khw < width && khh < height);
+  }
+
+  /**
+   * Iterator producing each level from the one before.
+   */
+  private abstract static class LevelIterator<I> implements Iterator<I> {
+    private I level;
+    private boolean started = false;
+
+    LevelIterator(I image) {
+      this.level = image;
+    }
+
+    protected abstract I next(I level);
+
+    protected abstract boolean hasNext(I level);
+
+    @Override
+    public boolean hasNext() {
+      return !started || hasNext(level);
+    }
+
+    @Override
+    public I next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (started) {
+        level = next(level);
+      }
+      started = true;
+      return level;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
@@ -0,0 +1,342 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import edu.emory.mathcs.jtransforms.fft.FloatFFT_2D;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.openimaj.image.FImage;
+import org.openimaj.image.MBFImage;
+import uk.ac.soton.ecs.dsj.lib.ParallelConvolution.Band;
+import uk.ac.soton.ecs.dsj.lib.ParallelConvolution.BandTask;
+
+/**
+ * Single-pass hybrid image generation. The hybrid of a low frequency image A and a high frequency
+ * image B is low-pass(A) + (B - low-pass(B)), which in the frequency domain is G_low.A +
+ * (1 - G_high).B. The second filter is the spectrum of a delta less the high Gaussian, so each band
+ * costs two forward real-input transforms, two multiplies and a single inverse transform, with no
+ * intermediate images. When both kernels are separable and the {@link CostModel} estimates it to be
+ * cheaper, the equivalent is instead computed spatially, combining both column passes and the
+ * difference in one loop over the output. Only the region where both kernels can be fully applied
+ * is produced. The choice of domain and the kernel spectra are remembered for the last image size,
+ * so a stream of same-sized images, such as video frames, only looks them up once.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class HybridConvolution {
+  protected final float[][] lowKernel;
+  protected final float[][] highKernel;
+  protected final float[][] highPassKernel;
+  protected final float[][] lowFactors;
+  protected final float[][] highFactors;
+  protected final ForkJoinPool pool;
+  private volatile Plan lastPlan = null;
+
+  /**
+   * Create a hybrid image generator using Gaussian kernels.
+   *
+   * @param lowSigma Sigma of the low-pass applied to the low frequency image
+   * @param highSigma Sigma of the low-pass removed from the high frequency image
+   */
+  public HybridConvolution(float lowSigma, float highSigma) {
+    this(GaussianKernelFactory.getDefault().getKernel(lowSigma).getKernel(),
+        GaussianKernelFactory.getDefault().getKernel(highSigma).getKernel(), null);
+  }
+
+  /**
+   * Create a hybrid image generator using arbitrary low-pass kernels.
+   *
+   * @param lowKernel Low-pass applied to the low frequency image
+   * @param highKernel Low-pass removed from the high frequency image
+   * @param pool Pool to process bands on, null for the calling thread only
+   */
+  public HybridConvolution(float[][] lowKernel, float[][] highKernel, ForkJoinPool pool) {
+    if ((lowKernel.length % 2) == 0 || (lowKernel[0].length % 2) == 0
+        || (highKernel.length % 2) == 0 || (highKernel[0].length % 2) == 0) {
+      throw new IllegalArgumentException("Kernels must have odd lengths");
+    }
+    // Copy the kernels so neither the caller nor the shared Gaussian kernels can change them
+    this.lowKernel = copyKernel(lowKernel);
+    this.highKernel = copyKernel(highKernel);
+    this.highPassKernel = createHighPassKernel(this.highKernel);
+    this.lowFactors =
+        MyConvolution.separateKernel(this.lowKernel, MyConvolution.SEPARABLE_TOLERANCE);
+    this.highFactors =
+        MyConvolution.separateKernel(this.highKernel, MyConvolution.SEPARABLE_TOLERANCE);
+    this.pool = pool;
+  }
+
+  /**
+   * Create the Gaussian kernel used for a low-pass, of size 8 * sigma + 1 rounded up to be odd. The
+   * kernel is copied from the default {@link GaussianKernelFactory}, so can be modified.
+   *
+   * @param sigma Gaussian sigma
+   * @return Kernel
+   */
+  public static float[][] createLowPassKernel(float sigma) {
+    return copyKernel(GaussianKernelFactory.getDefault().getKernel(sigma).getKernel());
+  }
+
+  private static float[][] copyKernel(float[][] kernel) {
+    final float[][] copy = new float[kernel.length][];
+    for (int y = 0; y < kernel.length; y++) {
+      copy[y] = kernel[y].clone();
+    }
+    return copy;
+  }
+
+  /**
+   * @param sigma Gaussian sigma
+   * @return Width and height of the kernel returned by {@link #createLowPassKernel}
+   */
+  public static int getLowPassSize(float sigma) {
+    return GaussianKernelFactory.getKernelSize(sigma);
+  }
+
+  /**
+   * Create the kernel that removes a low-pass from an image, a delta less the low-pass kernel.
+   *
+   * @param lowPass Low-pass kernel
+   * @return High-pass kernel of the same size
+   */
+  public static float[][] createHighPassKernel(float[][] lowPass) {
+    final float[][] kernel = new float[lowPass.length][lowPass[0].length];
+    for (int y = 0; y < kernel.length; y++) {
+      for (int x = 0; x < kernel[0].length; x++) {
+        kernel[y][x] = -lowPass[y][x];
+      }
+    }
+    kernel[kernel.length / 2][kernel[0].length / 2] += 1;
+    return kernel;
+  }
+
+  /**
+   * @return Number of rows removed from the top and bottom of a hybrid image
+   */
+  public int getBorderRows() {
+    return Math.max(lowKernel.length, highKernel.length) / 2;
+  }
+
+  /**
+   * @return Number of columns removed from the left and right of a hybrid image
+   */
+  public int getBorderCols() {
+    return Math.max(lowKernel[0].length, highKernel[0].length) / 2;
+  }
+
+  /**
+   * Create a hybrid image.
+   *
+   * @param low Image to take low frequencies from
+   * @param high Image to take high frequencies from, of the same size and number of bands
+   * @return Hybrid image, smaller than the inputs by the border each side
+   */
+  @SuppressWarnings("try")
+  public MBFImage createHybrid(final MBFImage low, final MBFImage high) {
+    final int rows = low.getRows();
+    final int cols = low.getCols();
+    if (high.getRows() != rows || high.getCols() != cols || high.numBands() != low.numBands()) {
+      throw new IllegalArgumentException("Images must have the same size and number of bands");
+    }
+    final int by = getBorderRows();
+    final int bx = getBorderCols();
+    if (rows <= 2 * by || cols <= 2 * bx) {
+      throw new IllegalArgumentException("Images must be bigger than hybrid kernels");
+    }
+
+    final MBFImage hybrid = new MBFImage(cols - 2 * bx, rows - 2 * by, low.colourSpace);
+    final Plan plan = getPlan(rows, cols);
+    final Band work;
+    if (plan.spatial) {
+      work = new Band() {
+        @Override
+        public void compute(int b0, int b1) {
+          for (int b = b0; b < b1; b++) {
+            createHybrid(low.getBand(b), high.getBand(b), hybrid.getBand(b));
+          }
+        }
+      };
+    } else {
+      work = new Band() {
+        @Override
+        public void compute(int b0, int b1) {
+          for (int b = b0; b < b1; b++) {
+            createHybrid(low.getBand(b), high.getBand(b), plan.lowSpectrum, plan.highSpectrum,
+                plan.prows, plan.pcols, hybrid.getBand(b));
+          }
+        }
+      };
+    }
+    if (pool == null || low.numBands() == 1) {
+      try (ConvolutionWorkspace.Lease lease = ConvolutionWorkspace.lease()) {
+        work.compute(0, low.numBands());
+      }
+    } else {
+      pool.invoke(new BandTask(0, low.numBands(), 1, work));
+    }
+    return hybrid;
+  }
+
+  /**
+   * Get the plan for images of the given size, reusing the previous plan if the size has not
+   * changed.
+   *
+   * @param rows Number of rows in images
+   * @param cols Number of columns in images
+   * @return Plan to use
+   */
+  private Plan getPlan(int rows, int cols) {
+    Plan plan = lastPlan;
+    if (plan == null || plan.rows != rows || plan.cols != cols) {
+      if (isSpatial(rows, cols)) {
+        plan = new Plan(rows, cols, true, 0, 0, null, null);
+      } else {
+        final int prows = ConvolutionWorkspace.getTransformSize(rows);
+        final int pcols = ConvolutionWorkspace.getTransformSize(cols);
+        final KernelSpectrumCache cache = KernelSpectrumCache.getDefault();
+        plan = new Plan(rows, cols, false, prows, pcols,
+            cache.getRealSpectrum(lowKernel, prows, pcols),
+            cache.getRealSpectrum(highPassKernel, prows, pcols));
+      }
+      lastPlan = plan;
+    }
+    return plan;
+  }
+
+  /**
+   * Whether images of the given size are processed in the spatial domain.
+   *
+   * @param rows Number of rows in images
+   * @param cols Number of columns in images
+   * @return True for the spatial domain, false for the frequency domain
+   */
+  public boolean isSpatial(int rows, int cols) {
+    if (lowFactors == null || highFactors == null) {
+      return false;
+    }
+    final CostModel model = CostModel.getDefault();
+    final double spatial = model.estimate(ConvolutionStrategy.SEPARABLE, rows, cols,
+        lowKernel.length, lowKernel[0].length, 1)
+        + model.estimate(ConvolutionStrategy.SEPARABLE, rows, cols, highKernel.length,
+            highKernel[0].length, 1);
+    // Two forward transforms and one inverse, against one of each for a single convolution
+    final double frequency = 1.5 * model.estimate(ConvolutionStrategy.REAL_FOURIER, rows, cols,
+        lowKernel.length, lowKernel[0].length, 1);
+    return spatial <= frequency;
+  }
+
+  /**
+   * Create a single band of a hybrid image in the spatial domain using the separable factors of
+   * both kernels. Scratch memory is taken from the calling thread's {@link ConvolutionWorkspace}.
+   *
+   * @param low Band to take low frequencies from
+   * @param high Band to take high frequencies from
+   * @param hybrid Band to write the central region of the result into
+   */
+  protected void createHybrid(FImage low, FImage high, FImage hybrid) {
+    final ConvolutionWorkspace workspace = ConvolutionWorkspace.get();
+    final FImage lowRowPass = workspace.getRowPassBuffer(0, low.width, low.height);
+    final FImage highRowPass = workspace.getRowPassBuffer(1, high.width, high.height);
+    MyConvolution.separableRowPass(low, lowFactors[1], lowRowPass, 0, low.height);
+    MyConvolution.separableRowPass(high, highFactors[1], highRowPass, 0, high.height);
+
+    final float[] lowColumn = lowFactors[0];
+    final float[] highColumn = highFactors[0];
+    final int lowHalf = lowColumn.length / 2;
+    final int highHalf = highColumn.length / 2;
+    final int by = getBorderRows();
+    final int bx = getBorderCols();
+    final int width = hybrid.width;
+    for (int y = 0; y < hybrid.height; y++) {
+      // Start from the high frequency image, then add its low-pass removed and the low-pass
+      final float[] out = hybrid.pixels[y];
+      System.arraycopy(high.pixels[y + by], bx, out, 0, width);
+      for (int ky = 0; ky < highColumn.length; ky++) {
+        final float k = highColumn[ky];
+        final float[] in = highRowPass.pixels[y + by - ky + highHalf];
+        for (int x = 0; x < width; x++) {
+          out[x] -= in[x + bx] * k;
+        }
+      }
+      for (int ky = 0; ky < lowColumn.length; ky++) {
+        final float k = lowColumn[ky];
+        final float[] in = lowRowPass.pixels[y + by - ky + lowHalf];
+        for (int x = 0; x < width; x++) {
+          out[x] += in[x + bx] * k;
+        }
+      }
+    }
+  }
+
+  /**
+   * Create a single band of a hybrid image in the frequency domain. Scratch memory is taken from
+   * the calling thread's {@link ConvolutionWorkspace}.
+   *
+   * @param low Band to take low frequencies from
+   * @param high Band to take high frequencies from
+   * @param lowSpectrum Packed spectrum of the low-pass kernel
+   * @param highSpectrum Packed spectrum of the high-pass kernel
+   * @param prows Number of rows in transform
+   * @param pcols Number of columns in transform
+   * @param hybrid Band to write the central region of the result into
+   */
+  protected void createHybrid(FImage low, FImage high, float[] lowSpectrum, float[] highSpectrum,
+      int prows, int pcols, FImage hybrid) {
+    final ConvolutionWorkspace workspace = ConvolutionWorkspace.get();
+    final float[] lowData = workspace.getRealBuffer(prows * pcols);
+    final float[] highData = workspace.getSpectrumBuffer(prows * pcols);
+    final FloatFFT_2D fft = workspace.getFFT(prows, pcols);
+
+    copyPadded(low, lowData, prows, pcols);
+    copyPadded(high, highData, prows, pcols);
+    fft.realForward(lowData);
+    fft.realForward(highData);
+    // Filter both spectra and sum, the packed layout is linear so can be added directly
+    RealFourierConvolution.multiplyPackedSpectra(lowData, lowSpectrum, prows, pcols);
+    RealFourierConvolution.multiplyPackedSpectra(highData, highSpectrum, prows, pcols);
+    final int length = prows * pcols;
+    for (int i = 0; i < length; i++) {
+      lowData[i] += highData[i];
+    }
+    fft.realInverse(lowData, true);
+
+    final int by = getBorderRows();
+    final int bx = getBorderCols();
+    for (int y = 0; y < hybrid.height; y++) {
+      System.arraycopy(lowData, (y + by) * pcols + bx, hybrid.pixels[y], 0, hybrid.width);
+    }
+  }
+
+  private static void copyPadded(FImage image, float[] data, int prows, int pcols) {
+    final int rows = image.getRows();
+    final int cols = image.getCols();
+    for (int y = 0; y < rows; y++) {
+      System.arraycopy(image.pixels[y], 0, data, y * pcols, cols);
+      Arrays.fill(data, y * pcols + cols, (y + 1) * pcols, 0f);
+    }
+    Arrays.fill(data, rows * pcols, prows * pcols, 0f);
+  }
+
+  /**
+   * Domain and kernel spectra used for a single image size.
+   */
+  private static final class Plan {
+    final int rows;
+    final int cols;
+    final boolean spatial;
+    final int prows;
+    final int pcols;
+    final float[] lowSpectrum;
+    final float[] highSpectrum;
+
+    Plan(int rows, int cols, boolean spatial, int prows, int pcols, float[] lowSpectrum,
+        float[] highSpectrum) {
+      this.rows = rows;
+      this.cols = cols;
+      this.spatial = spatial;
+      this.prows = prows;
+      this.pcols = pcols;
+      this.lowSpectrum = lowSpectrum;
+      this.highSpectrum = highSpectrum;
+    }
+  }
+
+}
@@ -0,0 +1,227 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.openimaj.image.FImage;
+import org.openimaj.math.geometry.shape.Rectangle;
+
+/**
+ * Reconvolution of an image after small edits, recomputing only the output pixels that the edits can
+ * affect. Each dirty rectangle of the input is grown by the kernel half-size, overlapping regions are
+ * coalesced so that no pixel is computed twice, and each region is convolved from a window of the
+ * input that includes its halo. Regions are split into row bands and executed on a
+ * {@link ForkJoinPool} if one is given.
+ *
+ * <p>
+ * As in {@link StreamingConvolution} only spatial strategies are used, as every output pixel then
+ * depends only on its neighbourhood, so the updated output is bit-identical to {@link MyConvolution}
+ * reconvolving the whole image with {@link #getStrategy()}. BOX is not used, as its running sums
+ * depend on where they start.
+ * </p>
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class IncrementalConvolution {
+  private final MyConvolution conv;
+  private final ConvolutionStrategy strategy;
+  private final ForkJoinPool pool;
+
+  /**
+   * Calls the {@link #IncrementalConvolution(MyConvolution conv, ForkJoinPool pool)} constructor with
+   * the pool of the convolution.
+   *
+   * @param conv Convolution to apply
+   */
+  public IncrementalConvolution(MyConvolution conv) {
+    this(conv, conv.pool);
+  }
+
+  /**
+   * Create an incremental convolution. The convolution must use {@link BorderMode#ZERO}, and if it has
+   * a forced strategy it must be NAIVE, VECTOR or SEPARABLE. Otherwise SEPARABLE is used if possible,
+   * then VECTOR if available, then NAIVE.
+   *
+   * @param conv Convolution to apply
+   * @param pool Pool to process regions on, null for the calling thread only
+   */
+  public IncrementalConvolution(MyConvolution conv, ForkJoinPool pool) {
+    if (conv.strategy != null && (conv.strategy.isFourier()
+        || conv.strategy == ConvolutionStrategy.BOX)) {
+      throw new IllegalArgumentException(
+          "Incremental convolution requires NAIVE, VECTOR or SEPARABLE");
+    }
+    if (conv.borderMode.isExtending()) {
+      throw new IllegalArgumentException("Incremental convolution requires BorderMode.ZERO");
+    }
+    this.conv = conv;
+    if (conv.strategy != null) {
+      this.strategy = conv.strategy;
+    } else if (conv.kernelFactors != null) {
+      this.strategy = ConvolutionStrategy.SEPARABLE;
+    } else if (VectorConvolution.isAvailable()) {
+      this.strategy = ConvolutionStrategy.VECTOR;
+    } else {
+      this.strategy = ConvolutionStrategy.NAIVE;
+    }
+    this.pool = pool;
+  }
+
+  /**
+   * @return Strategy applied to each region, a full reconvolution with it gives the same output
+   */
+  public ConvolutionStrategy getStrategy() {
+    return strategy;
+  }
+
+  /**
+   * Convolve the whole of an image, to create the output that later updates are applied to.
+   *
+   * @param image Image to process
+   * @param output Image to write results into, must not be the input image
+   */
+  @SuppressWarnings("try")
+  public void convolve(FImage image, FImage output) {
+    validate(image, output);
+    try (ConvolutionWorkspace.Lease lease = ConvolutionWorkspace.lease()) {
+      conv.convolve(image, output, strategy, pool);
+    }
+  }
+
+  /**
+   * Update the output of a previous convolution after parts of the input image have changed. Only
+   * output pixels within the kernel half-size of a dirty rectangle are recomputed, all others are
+   * left as they are.
+   *
+   * @param image Edited image
+   * @param output Output of convolving the image before the edits, updated in place
+   * @param dirty Rectangles of the image that have changed, may overlap and extend past the image
+   * @return Disjoint output regions that were recomputed
+   */
+  @SuppressWarnings("try")
+  public List<Rectangle> update(final FImage image, final FImage output,
+      Collection<Rectangle> dirty) {
+    validate(image, output);
+    final List<Rectangle> regions = getRegions(image.getCols(), image.getRows(), dirty);
+    final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+    for (final Rectangle region : regions) {
+      final int x0 = (int) region.x;
+      final int x1 = x0 + (int) region.width;
+      final int y0 = (int) region.y;
+      final int y1 = y0 + (int) region.height;
+      if (pool == null) {
+        try (ConvolutionWorkspace.Lease lease = ConvolutionWorkspace.lease()) {
+          convolveRegion(image, output, x0, x1, y0, y1);
+        }
+        continue;
+      }
+      final int band = ParallelConvolution.getBandHeight(x1 - x0 + conv.kernel[0].length - 1,
+          conv.kernel.length, y1 - y0, pool.getParallelism());
+      tasks.add(new ParallelConvolution.BandTask(y0, y1, band, new ParallelConvolution.Band() {
+        @Override
+        public void compute(int by0, int by1) {
+          try (ConvolutionWorkspace.Lease lease = ConvolutionWorkspace.lease()) {
+            convolveRegion(image, output, x0, x1, by0, by1);
+          }
+        }
+      }));
+    }
+    if (!tasks.isEmpty()) {
+      pool.invoke(new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+    }
+    return regions;
+  }
+
+  /**
+   * Get the output regions affected by changes to the dirty rectangles of an image. Each rectangle is
+   * grown by the kernel half-size and clipped to the pixels that can overlay the full kernel, then
+   * regions that overlap or touch are replaced by their bounding rectangle until none remain.
+   *
+   * @param cols Number of columns in image
+   * @param rows Number of rows in image
+   * @param dirty Rectangles of the image that have changed
+   * @return Disjoint regions with integer bounds, empty regions are dropped
+   */
+  public List<Rectangle> getRegions(int cols, int rows, Collection<Rectangle> dirty) {
+    final int khh = conv.kernel.length / 2;
+    final int khw = conv.kernel[0].length / 2;
+    // Bounds of each region as {x0, y0, x1, y1}, exclusive of x1 and y1
+    final List<int[]> bounds = new ArrayList<int[]>();
+    for (Rectangle rect : dirty) {
+      final int[] b = {
+          Math.max(khw, (int) Math.floor(rect.x) - khw),
+          Math.max(khh, (int) Math.floor(rect.y) - khh),
+          Math.min(cols - khw, (int) Math.ceil(rect.x + rect.width) + khw),
+          Math.min(rows - khh, (int) Math.ceil(rect.y + rect.height) + khh)};
+      if (b[0] >= b[2] || b[1] >= b[3]) {
+        continue;
+      }
+      // Absorb every region this one touches, repeating as the union grows
+      boolean merged = true;
+      while (merged) {
+        merged = false;
+        for (int i = bounds.size() - 1; i >= 0; i--) {
+          final int[] other = bounds.get(i);
+          if (b[0] <= other[2] && other[0] <= b[2] && b[1] <= other[3] && other[1] <= b[3]) {
+            b[0] = Math.min(b[0], other[0]);
+            b[1] = Math.min(b[1], other[1]);
+            b[2] = Math.max(b[2], other[2]);
+            b[3] = Math.max(b[3], other[3]);
+            bounds.remove(i);
+            merged = true;
+          }
+        }
+      }
+      bounds.add(b);
+    }
+    final List<Rectangle> regions = new ArrayList<Rectangle>(bounds.size());
+    for (int[] b : bounds) {
+      regions.add(new Rectangle(b[0], b[1], b[2] - b[0], b[3] - b[1]));
+    }
+    return regions;
+  }
+
+  /**
+   * Recompute the output pixels [x0, x1) x [y0, y1), all of which must be able to overlay the full
+   * kernel, from a window of the image including the kernel halo.
+   */
+  private void convolveRegion(FImage image, FImage output, int x0, int x1, int y0, int y1) {
+    final int khh = conv.kernel.length / 2;
+    final int khw = conv.kernel[0].length / 2;
+    final int width = x1 - x0 + 2 * khw;
+    final int height = y1 - y0 + 2 * khh;
+    final FImage window = new FImage(width, height);
+    for (int y = 0; y < height; y++) {
+      System.arraycopy(image.pixels[y0 - khh + y], x0 - khw, window.pixels[y], 0, width);
+    }
+    final FImage processed = new FImage(width, height);
+    conv.convolve(window, processed, strategy, null);
+    for (int y = y0; y < y1; y++) {
+      System.arraycopy(processed.pixels[y - y0 + khh], khw, output.pixels[y], x0, x1 - x0);
+    }
+  }
+
+  private void validate(FImage image, FImage output) {
+    final int rows = image.getRows();
+    final int cols = image.getCols();
+    if (rows < conv.kernel.length || cols < conv.kernel[0].length) {
+      throw new IllegalArgumentException("Image must be bigger than convoluter kernel");
+    }
+    if (output == image || output.pixels == image.pixels) {
+      throw new IllegalArgumentException("Output cannot be the input image");
+    }
+    if (output.getRows() != rows || output.getCols() != cols) {
+      throw new IllegalArgumentException("Output must be the same size as the input image");
+    }
+  }
+
+}
@@ -0,0 +1,235 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import edu.emory.mathcs.jtransforms.fft.FloatFFT_2D;
+import java.util.Arrays;
+import org.openimaj.image.FImage;
+import org.openimaj.image.processing.algorithm.FourierTransform;
+
+/**
+ * Cache of kernel spectra for frequency domain convolution. Spectra are keyed by kernel content and
+ * the size of the image they were padded to, so the same kernel applied to many images of the same
+ * size is only transformed once. Returned spectra are shared and must not be modified.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class KernelSpectrumCache {
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+  private static final KernelSpectrumCache DEFAULT = new KernelSpectrumCache(DEFAULT_MAX_BYTES);
+
+  private final LruCache<Key, Object> cache;
+
+  /**
+   * Create an empty cache.
+   *
+   * @param maxBytes Maximum number of bytes of spectra to hold
+   */
+  public KernelSpectrumCache(long maxBytes) {
+    this.cache = new LruCache<Key, Object>(maxBytes);
+  }
+
+  /**
+   * @return Cache shared by all {@link MyConvolution} instances
+   */
+  public static KernelSpectrumCache getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Get the magnitude and phase spectrum of a kernel padded to the given size, as used by
+   * {@link MyConvolution#alternateFourierConvolution}.
+   *
+   * @param kernel Kernel to transform
+   * @param rows Number of rows in image
+   * @param cols Number of columns in image
+   * @return Kernel spectrum
+   */
+  public FourierTransform getPolarSpectrum(float[][] kernel, int rows, int cols) {
+    final Key key = new Key(Key.POLAR, kernel, rows, cols);
+    FourierTransform spectrum = (FourierTransform) cache.get(key);
+    if (spectrum == null) {
+      final FImage scaledKernel = MyConvolution.getFFTKernel(new FImage(kernel), rows, cols);
+      spectrum = new FourierTransform(scaledKernel, false);
+      cache.put(key.copy(), spectrum, 2L * 4 * rows * cols);
+    }
+    return spectrum;
+  }
+
+  /**
+   * Get the complex spectrum of a kernel padded to the given transform size, as interleaved real and
+   * imaginary values in row-major order (the layout used by {@link FloatFFT_2D#complexForward}). The
+   * kernel centre is placed at the origin as in {@link MyConvolution#getFFTKernel}.
+   *
+   * @param kernel Kernel to transform
+   * @param rows Number of rows in transform
+   * @param cols Number of columns in transform
+   * @return Interleaved kernel spectrum of length 2 * rows * cols
+   */
+  public float[] getComplexSpectrum(float[][] kernel, int rows, int cols) {
+    final Key key = new Key(Key.COMPLEX, kernel, rows, cols);
+    float[] spectrum = (float[]) cache.get(key);
+    if (spectrum == null) {
+      spectrum = computeComplexSpectrum(kernel, rows, cols);
+      cache.put(key.copy(), spectrum, 4L * spectrum.length);
+    }
+    return spectrum;
+  }
+
+  /**
+   * Calculate the spectrum returned by {@link #getComplexSpectrum} without caching.
+   *
+   * @param kernel Kernel to transform
+   * @param rows Number of rows in transform
+   * @param cols Number of columns in transform
+   * @return Interleaved kernel spectrum of length 2 * rows * cols
+   */
+  public static float[] computeComplexSpectrum(float[][] kernel, int rows, int cols) {
+    final float[] spectrum = new float[2 * rows * cols];
+    final int ky = kernel.length;
+    final int kx = kernel[0].length;
+    for (int y = 0; y < ky; y++) {
+      for (int x = 0; x < kx; x++) {
+        // Calculate wrapping position of kernel pixels
+        final int iy = (rows + (y - ky / 2)) % rows;
+        final int ix = (cols + (x - kx / 2)) % cols;
+        spectrum[2 * (iy * cols + ix)] = kernel[y][x];
+      }
+    }
+    new FloatFFT_2D(rows, cols).complexForward(spectrum);
+    return spectrum;
+  }
+
+  /**
+   * Get the packed real-input spectrum of a kernel padded to the given transform size, in the layout
+   * used by {@link FloatFFT_2D#realForward(float[])}. The kernel centre is placed at the origin as in
+   * {@link MyConvolution#getFFTKernel}.
+   *
+   * @param kernel Kernel to transform
+   * @param rows Number of rows in transform, a power of two
+   * @param cols Number of columns in transform, a power of two
+   * @return Packed kernel spectrum of length rows * cols
+   */
+  public float[] getRealSpectrum(float[][] kernel, int rows, int cols) {
+    final Key key = new Key(Key.REAL, kernel, rows, cols);
+    float[] spectrum = (float[]) cache.get(key);
+    if (spectrum == null) {
+      spectrum = computeRealSpectrum(kernel, rows, cols);
+      cache.put(key.copy(), spectrum, 4L * spectrum.length);
+    }
+    return spectrum;
+  }
+
+  /**
+   * Calculate the spectrum returned by {@link #getRealSpectrum} without caching.
+   *
+   * @param kernel Kernel to transform
+   * @param rows Number of rows in transform, a power of two
+   * @param cols Number of columns in transform, a power of two
+   * @return Packed kernel spectrum of length rows * cols
+   */
+  public static float[] computeRealSpectrum(float[][] kernel, int rows, int cols) {
+    final float[] spectrum = new float[rows * cols];
+    final int ky = kernel.length;
+    final int kx = kernel[0].length;
+    for (int y = 0; y < ky; y++) {
+      for (int x = 0; x < kx; x++) {
+        // Calculate wrapping position of kernel pixels
+        final int iy = (rows + (y - ky / 2)) % rows;
+        final int ix = (cols + (x - kx / 2)) % cols;
+        spectrum[iy * cols + ix] = kernel[y][x];
+      }
+    }
+    new FloatFFT_2D(rows, cols).realForward(spectrum);
+    return spectrum;
+  }
+
+  /**
+   * Remove all cached spectra.
+   */
+  public void clear() {
+    cache.clear();
+  }
+
+  /**
+   * @return Number of lookups that found a cached spectrum
+   */
+  public long getHitCount() {
+    return cache.getHitCount();
+  }
+
+  /**
+   * @return Number of lookups that required a spectrum to be calculated
+   */
+  public long getMissCount() {
+    return cache.getMissCount();
+  }
+
+  /**
+   * @return Number of spectra removed to stay within the memory bound
+   */
+  public long getEvictionCount() {
+    return cache.getEvictionCount();
+  }
+
+  /**
+   * @return Approximate number of bytes of spectra currently cached
+   */
+  public long getBytes() {
+    return cache.getBytes();
+  }
+
+  @Override
+  public String toString() {
+    return cache.toString();
+  }
+
+  /**
+   * Key of a cached spectrum. Kernel content is compared rather than identity, so a key that is
+   * stored must hold its own copy of the kernel.
+   */
+  private static class Key {
+    static final int POLAR = 0;
+    static final int COMPLEX = 1;
+    static final int REAL = 2;
+
+    final int type;
+    final float[][] kernel;
+    final int rows;
+    final int cols;
+    final int hash;
+
+    Key(int type, float[][] kernel, int rows, int cols) {
+      this.type = type;
+      this.kernel = kernel;
+      this.rows = rows;
+      this.cols = cols;
+      this.hash = ((Arrays.deepHashCode(kernel) * 31 + rows) * 31 + cols) * 31 + type;
+    }
+
+    /**
+     * @return Equal key holding a copy of the kernel
+     */
+    Key copy() {
+      final float[][] copy = new float[kernel.length][];
+      for (int y = 0; y < kernel.length; y++) {
+        copy[y] = kernel[y].clone();
+      }
+      return new Key(type, copy, rows, cols);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return type == other.type && rows == other.rows && cols == other.cols
+          && hash == other.hash && Arrays.deepEquals(kernel, other.kernel);
+    }
+  }
+
+}
@@ -0,0 +1,129 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative durations. Buckets are spaced logarithmically with four buckets
+ * per power of two, so percentiles are accurate to within 25% at any scale using a fixed 2 KiB of
+ * counters.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class LatencyHistogram {
+  private static final int SUB_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a value.
+   *
+   * @param value Value to record, negative values are recorded as 0
+   */
+  public void record(long value) {
+    final long v = Math.max(0, value);
+    counts.incrementAndGet(getBucket(v));
+    count.incrementAndGet();
+    sum.addAndGet(v);
+    long current = max.get();
+    while (v > current && !max.compareAndSet(current, v)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * @return Number of values recorded
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return Sum of values recorded
+   */
+  public long getSum() {
+    return sum.get();
+  }
+
+  /**
+   * @return Largest value recorded, 0 if none
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @return Mean of values recorded, NaN if none
+   */
+  public double getMean() {
+    final long n = count.get();
+    return (n == 0) ? Double.NaN : (double) sum.get() / n;
+  }
+
+  /**
+   * Get an upper bound on a percentile of the values recorded.
+   *
+   * @param percentile Percentile in [0, 100]
+   * @return Upper bound of the bucket holding the percentile, 0 if no values have been recorded
+   */
+  public long getPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be in [0, 100]");
+    }
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    final long rank = (long) Math.ceil(percentile / 100 * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank && seen > 0) {
+        return Math.min(getUpperBound(i), max.get());
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Clear all recorded values. Values recorded concurrently with a reset may be partially kept.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  private static int getBucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  private static long getUpperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    final long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lower + (1L << shift) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d, mean=%.0f, p50=%d, p99=%d, max=%d", getCount(), getMean(),
+        getPercentile(50), getPercentile(99), getMax());
+  }
+
+}
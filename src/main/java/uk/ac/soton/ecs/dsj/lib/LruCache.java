@@ -0,0 +1,146 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Thread-safe least-recently-used cache bounded by the approximate number of bytes held. Each entry is
+ * added with its size, and the least recently accessed entries are evicted until the total fits
+ * within the bound. Hit, miss and eviction counts are recorded for monitoring.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ * @param <K> Key type, must implement equals and hashCode
+ * @param <V> Value type
+ */
+public class LruCache<K, V> {
+  private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+  private final long maxBytes;
+  private long bytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /**
+   * Create an empty cache.
+   *
+   * @param maxBytes Maximum number of bytes to hold, entries larger than this are never cached
+   */
+  public LruCache(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Cache size cannot be negative");
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Get a cached value, marking it as most recently used.
+   *
+   * @param key Key to look up
+   * @return Cached value, or null if not present
+   */
+  public synchronized V get(K key) {
+    final Entry<V> entry = map.get(key);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.value;
+  }
+
+  /**
+   * Add a value to the cache, evicting least recently used entries as required. Values larger than
+   * the cache bound are not added.
+   *
+   * @param key Key to store value under
+   * @param value Value to store
+   * @param size Approximate size of the value in bytes
+   */
+  public synchronized void put(K key, V value, long size) {
+    final Entry<V> previous = map.remove(key);
+    if (previous != null) {
+      bytes -= previous.size;
+    }
+    if (size > maxBytes) {
+      return;
+    }
+    map.put(key, new Entry<V>(value, size));
+    bytes += size;
+    final Iterator<Entry<V>> it = map.values().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      bytes -= it.next().size;
+      it.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Remove all entries from the cache. Counters are not reset.
+   */
+  public synchronized void clear() {
+    map.clear();
+    bytes = 0;
+  }
+
+  /**
+   * @return Number of entries currently cached
+   */
+  public synchronized int size() {
+    return map.size();
+  }
+
+  /**
+   * @return Approximate number of bytes currently cached
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @return Maximum number of bytes the cache will hold
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return Number of lookups that found a cached value
+   */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  /**
+   * @return Number of lookups that did not find a cached value
+   */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  /**
+   * @return Number of entries removed to stay within the bound
+   */
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("entries=%d, bytes=%d/%d, hits=%d, misses=%d, evictions=%d", map.size(),
+        bytes, maxBytes, hits, misses, evictions);
+  }
+
+  /**
+   * Cached value with its size.
+   */
+  private static class Entry<V> {
+    final V value;
+    final long size;
+
+    Entry(V value, long size) {
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+}
@@ -0,0 +1,107 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import org.openimaj.image.FImage;
+
+/**
+ * Single band image stored as a raw file of little-endian floats in row-major order, with no header.
+ * Strips are accessed through memory mappings of only the rows required, so images of any height
+ * can be read and written without holding them on heap.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class MappedFloatImage implements StripSource, StripSink, Closeable {
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final int width;
+  private final int height;
+
+  private MappedFloatImage(RandomAccessFile file, int width, int height) {
+    this.file = file;
+    this.channel = file.getChannel();
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Open an existing raw float image for reading and writing.
+   *
+   * @param path File to open
+   * @param width Width of image
+   * @param height Height of image
+   * @return Opened image
+   * @throws IOException If the file could not be opened or is not the expected size
+   */
+  public static MappedFloatImage open(File path, int width, int height) throws IOException {
+    final RandomAccessFile file = new RandomAccessFile(path, "rw");
+    if (file.length() != 4L * width * height) {
+      file.close();
+      throw new IOException(String.format("Expected %d bytes for %dx%d image, found %d",
+          4L * width * height, width, height, file.length()));
+    }
+    return new MappedFloatImage(file, width, height);
+  }
+
+  /**
+   * Create a raw float image filled with zeros, replacing any existing file.
+   *
+   * @param path File to create
+   * @param width Width of image
+   * @param height Height of image
+   * @return Created image
+   * @throws IOException If the file could not be created
+   */
+  public static MappedFloatImage create(File path, int width, int height) throws IOException {
+    final RandomAccessFile file = new RandomAccessFile(path, "rw");
+    file.setLength(0);
+    file.setLength(4L * width * height);
+    return new MappedFloatImage(file, width, height);
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public void read(int y0, FImage strip) throws IOException {
+    final FloatBuffer buffer = map(MapMode.READ_ONLY, y0, strip.height);
+    for (int r = 0; r < strip.height; r++) {
+      buffer.get(strip.pixels[r], 0, width);
+    }
+  }
+
+  @Override
+  public void write(int y0, FImage strip, int r0, int count) throws IOException {
+    final FloatBuffer buffer = map(MapMode.READ_WRITE, y0, count);
+    for (int r = 0; r < count; r++) {
+      buffer.put(strip.pixels[r0 + r], 0, width);
+    }
+  }
+
+  private FloatBuffer map(MapMode mode, int y0, int rows) throws IOException {
+    if (y0 < 0 || rows < 0 || y0 + rows > height) {
+      throw new IndexOutOfBoundsException("Rows " + y0 + " to " + (y0 + rows) + " of " + height);
+    }
+    return channel.map(mode, 4L * y0 * width, 4L * rows * width)
+        .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+}
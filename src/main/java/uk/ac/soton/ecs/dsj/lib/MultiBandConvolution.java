@@ -0,0 +1,152 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.util.concurrent.ForkJoinPool;
+import org.openimaj.image.FImage;
+import org.openimaj.image.MBFImage;
+import org.openimaj.image.processor.ImageProcessor;
+import uk.ac.soton.ecs.dsj.lib.ParallelConvolution.Band;
+import uk.ac.soton.ecs.dsj.lib.ParallelConvolution.BandTask;
+
+/**
+ * Applies a {@link MyConvolution} to every band of a multi-band image together, rather than once per
+ * band through {@link MBFImage#process}. The strategy is selected once for the image. The FOURIER
+ * strategy transforms bands in pairs as the real and imaginary parts of one complex transform, and
+ * frequency domain strategies share one kernel spectrum across bands. When the convolution has a
+ * pool, bands (or pairs of bands) are processed concurrently, each on a single worker. Bands are
+ * only paired with {@link BorderMode#ZERO}, other border modes extend and convolve each band on its
+ * own.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class MultiBandConvolution implements ImageProcessor<MBFImage> {
+  protected final MyConvolution conv;
+
+  /**
+   * Create a multi-band convolution with automatic strategy selection.
+   *
+   * @param kernel Kernel to apply
+   */
+  public MultiBandConvolution(float[][] kernel) {
+    this(new MyConvolution(kernel));
+  }
+
+  /**
+   * Create a multi-band convolution using the kernel, strategy and pool of a convolution.
+   *
+   * @param conv Convolution to apply to every band
+   */
+  public MultiBandConvolution(MyConvolution conv) {
+    this.conv = conv;
+  }
+
+  /**
+   * @return Convolution applied to every band
+   */
+  public MyConvolution getConvolution() {
+    return conv;
+  }
+
+  @Override
+  @SuppressWarnings("try")
+  public void processImage(MBFImage image) {
+    final int bands = image.numBands();
+    final int rows = image.getRows();
+    final int cols = image.getCols();
+
+    // Validate inputs
+    if (rows < conv.kernel.length || cols < conv.kernel[0].length) {
+      throw new IllegalArgumentException("Image must be bigger than convoluter kernel");
+    }
+
+    final ConvolutionStrategy strategy = conv.getStrategy(rows, cols);
+    final ConvolutionListener listener = ConvolutionMetrics.getListener();
+    final long start = ConvolutionMetrics.start(listener);
+    final long allocated = ConvolutionMetrics.allocatedBytes(listener);
+    final FImage[] inputs = new FImage[bands];
+    final FImage[] outputs = new FImage[bands];
+    for (int b = 0; b < bands; b++) {
+      inputs[b] = image.getBand(b);
+      outputs[b] = new FImage(cols, rows);
+    }
+    try (ConvolutionWorkspace.Lease lease = ConvolutionWorkspace.lease()) {
+      convolve(inputs, outputs, strategy);
+    }
+    // Apply new changes all in one go
+    final long assign = ConvolutionMetrics.start(listener);
+    for (int b = 0; b < bands; b++) {
+      inputs[b].internalAssign(outputs[b]);
+    }
+    ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.ASSIGN, assign);
+    ConvolutionMetrics.completed(listener, strategy, rows, cols, bands, start, allocated);
+  }
+
+  /**
+   * Apply the kernel to every band using the given strategy, writing every pixel of the outputs.
+   *
+   * @param inputs Bands to process
+   * @param outputs Images to write results into, one per band
+   * @param strategy Strategy to use
+   */
+  protected void convolve(final FImage[] inputs, final FImage[] outputs,
+      final ConvolutionStrategy strategy) {
+    final int rows = inputs[0].getRows();
+    final int cols = inputs[0].getCols();
+    // Bands processed concurrently each run on their own worker, as a worker waiting on a nested
+    // invoke can take another band's task and share its thread's workspace
+    final ForkJoinPool bandPool = isConcurrent(inputs.length) ? null : conv.pool;
+
+    if (strategy == ConvolutionStrategy.FOURIER && !conv.borderMode.isExtending()) {
+      final int prows = ConvolutionWorkspace.getTransformSize(rows);
+      final int pcols = ConvolutionWorkspace.getTransformSize(cols);
+      final float[] fftKernel = conv.getComplexSpectrum(prows, pcols);
+      // Each task transforms a pair of bands, the last alone if the number is odd
+      forEach((inputs.length + 1) / 2, new Band() {
+        @Override
+        public void compute(int i0, int i1) {
+          for (int i = i0; i < i1; i++) {
+            final int b = 2 * i;
+            final boolean paired = b + 1 < inputs.length;
+            MyConvolution.fourierConvolution(inputs[b], paired ? inputs[b + 1] : null, fftKernel,
+                prows, pcols, outputs[b], paired ? outputs[b + 1] : null);
+            MyConvolution.zeroBorder(outputs[b], conv.kernel);
+            if (paired) {
+              MyConvolution.zeroBorder(outputs[b + 1], conv.kernel);
+            }
+          }
+        }
+      });
+      return;
+    }
+    // Remaining strategies are applied to each band, sharing the memoised kernel spectrum
+    forEach(inputs.length, new Band() {
+      @Override
+      public void compute(int b0, int b1) {
+        for (int b = b0; b < b1; b++) {
+          conv.convolve(inputs[b], outputs[b], strategy, bandPool);
+        }
+      }
+    });
+  }
+
+  /**
+   * Whether work on n indices is run concurrently by {@link #forEach(int, Band)}.
+   */
+  private boolean isConcurrent(int n) {
+    return conv.pool != null && n > 1;
+  }
+
+  /**
+   * Apply work to every index in [0, n), concurrently if the convolution has a pool.
+   *
+   * @param n Number of indices
+   * @param work Work to apply to each index
+   */
+  private void forEach(int n, Band work) {
+    if (isConcurrent(n)) {
+      conv.pool.invoke(new BandTask(0, n, 1, work));
+    } else {
+      work.compute(0, n);
+    }
+  }
+
+}
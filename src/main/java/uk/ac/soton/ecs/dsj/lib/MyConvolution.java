@@ -1,20 +1,51 @@
 package uk.ac.soton.ecs.dsj.lib;
 
+import edu.emory.mathcs.jtransforms.fft.FloatFFT_2D;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 import org.openimaj.image.FImage;
 import org.openimaj.image.processing.algorithm.FourierTransform;
-import org.openimaj.image.processing.algorithm.FourierTransformComplex;
 import org.openimaj.image.processor.SinglebandImageProcessor;
 
 /**
  * Convolution operator implementation for COMP3204 Coursework 2.<br>
  * Both spatial and frequency domain operators are provided.
  *
+ * <p>
+ * Instances are immutable and thread-safe: the kernel is copied on construction and the only other
+ * state is memoised strategy and spectrum lookups, which are replaced atomically. One instance can
+ * be shared by any number of threads, including virtual threads, with scratch memory taken from
+ * each thread's {@link ConvolutionWorkspace}.
+ * </p>
+ *
+ * <p>
+ * By default pixels where the full kernel cannot be applied are set to 0, as in the coursework
+ * specification. Other {@link BorderMode}s extend the image so that every pixel is computed.
+ * </p>
+ *
  * @author David Jones (dsj1n15@ecs.soton.ac.uk)
  */
 public class MyConvolution implements SinglebandImageProcessor<Float, FImage> {
+  /**
+   * Kernel area below which the spatial domain was always used.
+   * 
+   * @deprecated Strategies are now chosen by {@link StrategySelector} using a {@link CostModel}
+   *             that accounts for image size.
+   */
+  @Deprecated
   public static final int MAX_NAIVE_SIZE = 49;
+  public static final float SEPARABLE_TOLERANCE = 1e-5f;
   protected final float[][] kernel;
-  protected boolean allowFFT;
+  protected final float[][] kernelFactors;
+  protected final float[] flatKernel;
+  protected final float boxValue;
+  protected final boolean allowFFT;
+  protected final ConvolutionStrategy strategy;
+  protected final ForkJoinPool pool;
+  protected final BorderMode borderMode;
+  private volatile SizeMemo<ConvolutionStrategy> lastStrategy = null;
+  private volatile SizeMemo<float[]> lastSpectrum = null;
+  private volatile SizeMemo<float[]> lastRealSpectrum = null;
 
   /**
    * Calls the {@link #MyConvolution(float[][] kernel, boolean allowFFT)} constructor with allowFFT
@@ -27,16 +58,133 @@ public class MyConvolution implements SinglebandImageProcessor<Float, FImage> {
   }
 
   /**
-   * Create an instance of the convolution operator with a given kernel. The kernel length in both the
-   * x and y axis must be odd. If the max sequential size constant is exceeded and allowFFT is true
-   * the FFT will be used to apply the convolution.
+   * Calls the {@link #MyConvolution(float[][] kernel, boolean allowFFT, boolean allowSeparable)}
+   * constructor with allowSeparable set to true.
    * 
    * @param kernel Kernel to use for convolution operator
+   * @param allowFFT Whether the FFT can be used for large kernels
    */
   public MyConvolution(float[][] kernel, boolean allowFFT) {
-    // Validate inputs
-    if (kernel == null) {
-      throw new IllegalArgumentException("Kernel cannot be null");
+    this(kernel, allowFFT, true);
+  }
+
+  /**
+   * Create an instance of the convolution operator with a given kernel. The kernel length in both the
+   * x and y axis must be odd. If allowSeparable is true and the kernel is rank 1 (within
+   * {@link #SEPARABLE_TOLERANCE}) it can be applied as a row pass followed by a column pass. If
+   * allowFFT is true the frequency domain strategies can be used. The cheapest allowed strategy for
+   * each image is chosen by the default {@link StrategySelector}.
+   * 
+   * @param kernel Kernel to use for convolution operator
+   * @param allowFFT Whether the FFT can be used for large kernels
+   * @param allowSeparable Whether separable kernels can be applied as two 1-D passes
+   */
+  public MyConvolution(float[][] kernel, boolean allowFFT, boolean allowSeparable) {
+    this(kernel, allowFFT, allowSeparable, null);
+  }
+
+  /**
+   * Create an instance of the convolution operator as in
+   * {@link #MyConvolution(float[][] kernel, boolean allowFFT, boolean allowSeparable)}. If a pool is
+   * provided, spatial domain processing is split into row bands that are executed on it.
+   * 
+   * @param kernel Kernel to use for convolution operator
+   * @param allowFFT Whether the FFT can be used for large kernels
+   * @param allowSeparable Whether separable kernels can be applied as two 1-D passes
+   * @param pool Pool to execute spatial domain processing on, null for the calling thread only
+   */
+  public MyConvolution(float[][] kernel, boolean allowFFT, boolean allowSeparable,
+      ForkJoinPool pool) {
+    this(kernel, allowFFT, allowSeparable, pool, BorderMode.ZERO);
+  }
+
+  /**
+   * Create an instance of the convolution operator as in
+   * {@link #MyConvolution(float[][] kernel, boolean allowFFT, boolean allowSeparable, ForkJoinPool pool)}
+   * with the given border mode.
+   * 
+   * @param kernel Kernel to use for convolution operator
+   * @param allowFFT Whether the FFT can be used for large kernels
+   * @param allowSeparable Whether separable kernels can be applied as two 1-D passes
+   * @param pool Pool to execute spatial domain processing on, null for the calling thread only
+   * @param borderMode How pixels where the full kernel cannot be applied are computed
+   */
+  public MyConvolution(float[][] kernel, boolean allowFFT, boolean allowSeparable,
+      ForkJoinPool pool, BorderMode borderMode) {
+    this(kernel, allowFFT, allowSeparable, null, pool, borderMode);
+  }
+
+  /**
+   * Calls the {@link #MyConvolution(float[][] kernel, ConvolutionStrategy strategy, ForkJoinPool pool)}
+   * constructor without a pool.
+   * 
+   * @param kernel Kernel to use for convolution operator
+   * @param strategy Strategy to always use
+   */
+  public MyConvolution(float[][] kernel, ConvolutionStrategy strategy) {
+    this(kernel, strategy, null);
+  }
+
+  /**
+   * Create an instance of the convolution operator that always uses the given strategy rather than
+   * selecting one per image. The kernel must be separable to force {@link ConvolutionStrategy#SEPARABLE}
+   * and have every value equal to force {@link ConvolutionStrategy#BOX}.
+   * 
+   * @param kernel Kernel to use for convolution operator
+   * @param strategy Strategy to always use
+   * @param pool Pool to execute spatial domain processing on, null for the calling thread only
+   */
+  public MyConvolution(float[][] kernel, ConvolutionStrategy strategy, ForkJoinPool pool) {
+    this(kernel, strategy, pool, BorderMode.ZERO);
+  }
+
+  /**
+   * Create an instance of the convolution operator that always uses the given strategy, as in
+   * {@link #MyConvolution(float[][] kernel, ConvolutionStrategy strategy, ForkJoinPool pool)}, with
+   * the given border mode.
+   * 
+   * @param kernel Kernel to use for convolution operator
+   * @param strategy Strategy to always use
+   * @param pool Pool to execute spatial domain processing on, null for the calling thread only
+   * @param borderMode How pixels where the full kernel cannot be applied are computed
+   */
+  public MyConvolution(float[][] kernel, ConvolutionStrategy strategy, ForkJoinPool pool,
+      BorderMode borderMode) {
+    this(kernel, strategy.isFourier(), strategy == ConvolutionStrategy.SEPARABLE, strategy, pool,
+        borderMode);
+    if (strategy == ConvolutionStrategy.SEPARABLE && kernelFactors == null) {
+      throw new IllegalArgumentException("Kernel is not separable");
+    }
+    if (strategy == ConvolutionStrategy.BOX && Float.isNaN(boxValue)) {
+      throw new IllegalArgumentException("Kernel values are not all equal");
+    }
+  }
+
+  private MyConvolution(float[][] kernel, boolean allowFFT, boolean allowSeparable,
+      ConvolutionStrategy strategy, ForkJoinPool pool, BorderMode borderMode) {
+    if (borderMode == null) {
+      throw new IllegalArgumentException("Border mode cannot be null");
+    }
+    // Assign instance variables, copying the kernel so the caller cannot change it
+    this.kernel = copyKernel(kernel);
+    this.allowFFT = allowFFT;
+    this.kernelFactors = allowSeparable ? separateKernel(this.kernel, SEPARABLE_TOLERANCE) : null;
+    this.flatKernel = FlatConvolution.flatten(this.kernel);
+    this.boxValue = BoxConvolution.getBoxValue(this.kernel);
+    this.strategy = strategy;
+    this.pool = pool;
+    this.borderMode = borderMode;
+  }
+
+  /**
+   * Validate a kernel and copy it.
+   * 
+   * @param kernel Kernel to copy
+   * @return Copy of the kernel
+   */
+  private static float[][] copyKernel(float[][] kernel) {
+    if (kernel == null || kernel.length == 0 || kernel[0] == null) {
+      throw new IllegalArgumentException("Kernel cannot be null or empty");
     }
     if ((kernel.length % 2) == 0) {
       throw new IllegalArgumentException(
@@ -46,12 +194,37 @@ public class MyConvolution implements SinglebandImageProcessor<Float, FImage> {
       throw new IllegalArgumentException(
           "Kernel must have an odd length along the x-axis");
     }
-    // Assign instance variables
-    this.kernel = kernel;
-    this.allowFFT = allowFFT;
+    final float[][] copy = new float[kernel.length][];
+    for (int y = 0; y < kernel.length; y++) {
+      if (kernel[y] == null || kernel[y].length != kernel[0].length) {
+        throw new IllegalArgumentException("Kernel rows must all be the same length");
+      }
+      copy[y] = kernel[y].clone();
+      for (float value : copy[y]) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+          throw new IllegalArgumentException("Kernel values must be finite");
+        }
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * @return Copy of the kernel applied by this operator
+   */
+  public float[][] getKernel() {
+    return copyKernel(kernel);
+  }
+
+  /**
+   * @return How pixels where the full kernel cannot be applied are computed
+   */
+  public BorderMode getBorderMode() {
+    return borderMode;
   }
 
   @Override
+  @SuppressWarnings("try")
   public void processImage(FImage image) {
     final int rows = image.getRows();
     final int cols = image.getCols();
@@ -61,26 +234,330 @@ public class MyConvolution implements SinglebandImageProcessor<Float, FImage> {
       throw new IllegalArgumentException("Image must be bigger than convoluter kernel");
     }
 
-    FImage buffer;
-    if (!allowFFT || kernel.length * kernel[0].length < MAX_NAIVE_SIZE) {
-      buffer = naiveConvolution(image, this.kernel);
+    final ConvolutionStrategy strategy = getStrategy(rows, cols);
+    final ConvolutionListener listener = ConvolutionMetrics.getListener();
+    final long start = ConvolutionMetrics.start(listener);
+    final long allocated = ConvolutionMetrics.allocatedBytes(listener);
+    FImage buffer = new FImage(cols, rows);
+    try (ConvolutionWorkspace.Lease lease = ConvolutionWorkspace.lease()) {
+      convolve(image, buffer, strategy);
+    }
+    // Apply new changes all in one go
+    final long assign = ConvolutionMetrics.start(listener);
+    image.internalAssign(buffer);
+    ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.ASSIGN, assign);
+    ConvolutionMetrics.completed(listener, strategy, rows, cols, 1, start, allocated);
+  }
+
+  /**
+   * Convolve an image into a caller-supplied output image of the same size, leaving the input
+   * unchanged. Every output pixel is written. Scratch memory is taken from the calling thread's
+   * {@link ConvolutionWorkspace}, so once a stream of same-sized images has warmed up the NAIVE,
+   * SEPARABLE, BOX, FOURIER, REAL_FOURIER and BLOCK_FOURIER strategies allocate nothing when no pool is
+   * used (with JTransforms running single-threaded). ALTERNATE_FOURIER always allocates.
+   * 
+   * @param image Image to process
+   * @param output Image to write results into, must not be the input image
+   */
+  @SuppressWarnings("try")
+  public void processImage(FImage image, FImage output) {
+    final int rows = image.getRows();
+    final int cols = image.getCols();
+
+    // Validate inputs
+    if (rows < kernel.length || cols < kernel[0].length) {
+      throw new IllegalArgumentException("Image must be bigger than convoluter kernel");
+    }
+    if (output == image || output.pixels == image.pixels) {
+      throw new IllegalArgumentException("Output cannot be the input image");
+    }
+    if (output.getRows() != rows || output.getCols() != cols) {
+      throw new IllegalArgumentException("Output must be the same size as the input image");
+    }
+    final ConvolutionStrategy strategy = getStrategy(rows, cols);
+    final ConvolutionListener listener = ConvolutionMetrics.getListener();
+    final long start = ConvolutionMetrics.start(listener);
+    final long allocated = ConvolutionMetrics.allocatedBytes(listener);
+    try (ConvolutionWorkspace.Lease lease = ConvolutionWorkspace.lease()) {
+      convolve(image, output, strategy);
+    }
+    ConvolutionMetrics.completed(listener, strategy, rows, cols, 1, start, allocated);
+  }
+
+  /**
+   * Get the strategy that will be used for an image of the given size, with the reason it was chosen.
+   * 
+   * @param rows Number of rows in image
+   * @param cols Number of columns in image
+   * @return Selected strategy
+   */
+  public StrategySelector.Selection selectStrategy(int rows, int cols) {
+    if (strategy != null) {
+      return StrategySelector.Selection.forced(strategy);
+    }
+    final int parallelism = (pool == null) ? 1 : pool.getParallelism();
+    // Extending border modes convolve an image larger by the kernel halo
+    final int halo = borderMode.isExtending() ? 1 : 0;
+    return StrategySelector.getDefault().select(rows + halo * (kernel.length - 1),
+        cols + halo * (kernel[0].length - 1), kernel.length, kernel[0].length,
+        kernelFactors != null, !Float.isNaN(boxValue), allowFFT, parallelism);
+  }
+
+  /**
+   * Get the strategy to use for an image of the given size, reusing the previous selection if the
+   * size has not changed.
+   * 
+   * @param rows Number of rows in image
+   * @param cols Number of columns in image
+   * @return Strategy to use
+   */
+  protected ConvolutionStrategy getStrategy(int rows, int cols) {
+    if (strategy != null) {
+      return strategy;
+    }
+    SizeMemo<ConvolutionStrategy> memo = lastStrategy;
+    if (memo == null || memo.rows != rows || memo.cols != cols) {
+      memo = new SizeMemo<ConvolutionStrategy>(rows, cols,
+          selectStrategy(rows, cols).getStrategy());
+      lastStrategy = memo;
+    }
+    return memo.value;
+  }
+
+  /**
+   * Get the complex kernel spectrum for a transform size from the default
+   * {@link KernelSpectrumCache}, reusing the previous spectrum if the size has not changed.
+   * 
+   * @param rows Number of rows in transform
+   * @param cols Number of columns in transform
+   * @return Interleaved kernel spectrum
+   */
+  protected float[] getComplexSpectrum(int rows, int cols) {
+    SizeMemo<float[]> memo = lastSpectrum;
+    if (memo == null || memo.rows != rows || memo.cols != cols) {
+      memo = new SizeMemo<float[]>(rows, cols,
+          KernelSpectrumCache.getDefault().getComplexSpectrum(kernel, rows, cols));
+      lastSpectrum = memo;
+    }
+    return memo.value;
+  }
+
+  /**
+   * Get the packed real-input kernel spectrum for a transform size from the default
+   * {@link KernelSpectrumCache}, reusing the previous spectrum if the size has not changed.
+   * 
+   * @param rows Number of rows in transform
+   * @param cols Number of columns in transform
+   * @return Packed kernel spectrum
+   */
+  protected float[] getRealSpectrum(int rows, int cols) {
+    SizeMemo<float[]> memo = lastRealSpectrum;
+    if (memo == null || memo.rows != rows || memo.cols != cols) {
+      memo = new SizeMemo<float[]>(rows, cols,
+          KernelSpectrumCache.getDefault().getRealSpectrum(kernel, rows, cols));
+      lastRealSpectrum = memo;
+    }
+    return memo.value;
+  }
+
+  /**
+   * Apply the kernel to an image using the given strategy, writing every pixel of the output. Pixels
+   * where the full kernel cannot be applied are set to 0 or computed from the extended image
+   * according to the border mode, regardless of strategy.
+   * 
+   * @param image Image to process
+   * @param output Image to write results into
+   * @param strategy Strategy to use
+   */
+  protected void convolve(FImage image, FImage output, ConvolutionStrategy strategy) {
+    convolve(image, output, strategy, pool);
+  }
+
+  /**
+   * Apply the kernel to an image as in {@link #convolve(FImage, FImage, ConvolutionStrategy)}, using
+   * the given pool rather than the pool of this operator.
+   * 
+   * @param image Image to process
+   * @param output Image to write results into
+   * @param strategy Strategy to use
+   * @param pool Pool to execute spatial domain processing on, null for the calling thread only
+   */
+  protected void convolve(FImage image, FImage output, ConvolutionStrategy strategy,
+      ForkJoinPool pool) {
+    final ConvolutionListener listener = ConvolutionMetrics.getListener();
+    final int rows = image.getRows();
+    final int cols = image.getCols();
+    final int khh = kernel.length / 2;
+    final int khw = kernel[0].length / 2;
+    if (borderMode == BorderMode.ZERO) {
+      convolveValid(image, output, strategy, pool);
+      final long time = ConvolutionMetrics.start(listener);
+      zeroBorder(output, kernel);
+      ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.BORDER, time);
+    } else if (borderMode == BorderMode.WRAP && isCyclic(strategy, rows, cols)) {
+      convolveValid(image, output, strategy, pool);
     } else {
-      buffer = alternateFourierConvolution(image, this.kernel);
-      // Apply border to conform with coursework specification
-      final int miny = kernel.length / 2;
-      final int minx = kernel[0].length / 2;
-      final int maxy = rows - miny;
-      final int maxx = cols - minx;
+      final ConvolutionWorkspace workspace = ConvolutionWorkspace.get();
+      long time = ConvolutionMetrics.start(listener);
+      final FImage extended = borderMode.extend(image, khh, khw,
+          workspace.getBorderBuffer(0, cols + 2 * khw, rows + 2 * khh));
+      time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.BORDER, time);
+      final FImage processed = workspace.getBorderBuffer(1, cols + 2 * khw, rows + 2 * khh);
+      convolveValid(extended, processed, strategy, pool);
+      time = ConvolutionMetrics.start(listener);
       for (int y = 0; y < rows; y++) {
-        for (int x = 0; x < cols; x++) {
-          if (x < minx || y < miny || x > maxx || y > maxy) {
-            buffer.pixels[y][x] = 0f;
-          }
+        System.arraycopy(processed.pixels[y + khh], khw, output.pixels[y], 0, cols);
+      }
+      ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.EXTRACT, time);
+    }
+  }
+
+  /**
+   * Whether a strategy computes the cyclic convolution of an image, so already applies
+   * {@link BorderMode#WRAP} without extending the image. This is the case when the transform is the
+   * size of the image.
+   * 
+   * @param strategy Strategy to use
+   * @param rows Number of rows in image
+   * @param cols Number of columns in image
+   * @return True if the output of the strategy already wraps
+   */
+  private static boolean isCyclic(ConvolutionStrategy strategy, int rows, int cols) {
+    switch (strategy) {
+      case ALTERNATE_FOURIER:
+        return true;
+      case FOURIER:
+      case REAL_FOURIER:
+        return ConvolutionWorkspace.getTransformSize(rows) == rows
+            && ConvolutionWorkspace.getTransformSize(cols) == cols;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Apply the kernel to an image using the given strategy, writing at least every pixel that can
+   * overlay the full kernel. Other pixels are left undefined.
+   * 
+   * @param image Image to process
+   * @param output Image to write results into
+   * @param strategy Strategy to use
+   * @param pool Pool to execute spatial domain processing on, null for the calling thread only
+   */
+  private void convolveValid(FImage image, FImage output, ConvolutionStrategy strategy,
+      ForkJoinPool pool) {
+    final int rows = image.getRows();
+    final int cols = image.getCols();
+    final int kh = kernel.length;
+    final int kw = kernel[0].length;
+    final ConvolutionListener listener = ConvolutionMetrics.getListener();
+    long time = ConvolutionMetrics.start(listener);
+    switch (strategy) {
+      case NAIVE:
+      case VECTOR:
+        final SpatialEngine engine = (strategy == ConvolutionStrategy.VECTOR)
+            ? VectorConvolution.getEngine() : FlatConvolution.ENGINE;
+        final float[] flat =
+            FlatConvolution.flatten(image, ConvolutionWorkspace.get().getFlatBuffer(rows * cols));
+        time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.PAD, time);
+        if (pool == null) {
+          engine.naiveConvolution(flat, cols, cols, flatKernel, kh, kw, output, kh / 2,
+              rows - kh / 2);
+        } else {
+          ParallelConvolution.naiveConvolution(engine, flat, cols, cols, flatKernel, kh, kw, output,
+              pool);
+        }
+        ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.CONVOLVE, time);
+        break;
+      case SEPARABLE:
+        final FImage rowPass = ConvolutionWorkspace.get().getRowPassBuffer(cols, rows);
+        if (pool == null) {
+          separableConvolution(image, kernelFactors[0], kernelFactors[1], rowPass, output);
+        } else {
+          ParallelConvolution.separableConvolution(image, kernelFactors[0], kernelFactors[1],
+              rowPass, output, pool);
         }
+        ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.CONVOLVE, time);
+        break;
+      case BOX:
+        BoxConvolution.boxConvolution(image, kh, kw, boxValue, output, pool);
+        ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.CONVOLVE, time);
+        break;
+      case FOURIER:
+        final int prows = ConvolutionWorkspace.getTransformSize(rows);
+        final int pcols = ConvolutionWorkspace.getTransformSize(cols);
+        final float[] fftKernel = getComplexSpectrum(prows, pcols);
+        ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.KERNEL, time);
+        // Remaining phases are reported by the transform itself
+        fourierConvolution(image, fftKernel, prows, pcols, output);
+        break;
+      case ALTERNATE_FOURIER:
+        final FImage processed =
+            alternateFourierConvolution(image, this.kernel, KernelSpectrumCache.getDefault());
+        time = ConvolutionMetrics.start(listener);
+        for (int y = 0; y < rows; y++) {
+          System.arraycopy(processed.pixels[y], 0, output.pixels[y], 0, cols);
+        }
+        ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.EXTRACT, time);
+        break;
+      case REAL_FOURIER:
+        final int rrows = ConvolutionWorkspace.getTransformSize(rows);
+        final int rcols = ConvolutionWorkspace.getTransformSize(cols);
+        final float[] realKernel = getRealSpectrum(rrows, rcols);
+        ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.KERNEL, time);
+        RealFourierConvolution.realFourierConvolution(image, realKernel, rrows, rcols, output);
+        break;
+      case BLOCK_FOURIER:
+        final int blockSize = BlockFourierConvolution.getBlockSize(kh, kw);
+        final float[] blockKernel = getComplexSpectrum(blockSize, blockSize);
+        time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.KERNEL, time);
+        BlockFourierConvolution.blockFourierConvolution(image, kh, kw, blockKernel, blockSize,
+            output, pool);
+        ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.CONVOLVE, time);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown strategy: " + strategy);
+    }
+  }
+
+  /**
+   * Set pixels where the full kernel cannot be applied to 0, to conform with the coursework
+   * specification. Only the border rows and columns are visited.
+   * 
+   * @param image Image to modify
+   * @param kernel Kernel that was applied
+   * @return The modified image
+   */
+  public static FImage zeroBorder(FImage image, float[][] kernel) {
+    return zeroBorder(image, kernel.length, kernel[0].length);
+  }
+
+  /**
+   * Set pixels where a kernel of the given size cannot be applied to 0, as in
+   * {@link #zeroBorder(FImage, float[][])}.
+   * 
+   * @param image Image to modify
+   * @param kh Height of kernel that was applied
+   * @param kw Width of kernel that was applied
+   * @return The modified image
+   */
+  public static FImage zeroBorder(FImage image, int kh, int kw) {
+    final int rows = image.getRows();
+    final int cols = image.getCols();
+    final int miny = Math.min(kh / 2, rows);
+    final int minx = Math.min(kw / 2, cols);
+    final int maxy = Math.max(rows - miny, miny);
+    final int maxx = Math.max(cols - minx, minx);
+    for (int y = 0; y < rows; y++) {
+      final float[] row = image.pixels[y];
+      if (y < miny || y >= maxy) {
+        Arrays.fill(row, 0f);
+      } else {
+        Arrays.fill(row, 0, minx, 0f);
+        Arrays.fill(row, maxx, cols, 0f);
       }
     }
-    // Apply new changes all in one go
-    image.internalAssign(buffer);
+    return image;
   }
 
   /**
@@ -93,70 +570,282 @@ public class MyConvolution implements SinglebandImageProcessor<Float, FImage> {
    * @return Processed image
    */
   public static FImage naiveConvolution(FImage image, float[][] kernel) {
-    final int kh = kernel.length;
-    final int kw = kernel[0].length;
-    final int khh = kh / 2;
-    final int khw = kw / 2;
     // Record calculated points in a separate buffer
     final FImage processed = new FImage(image.width, image.height);
+    // Process every row that can overlay the full kernel
+    FlatConvolution.naiveConvolution(FlatConvolution.flatten(image, null), image.width,
+        image.width, FlatConvolution.flatten(kernel), kernel.length, kernel[0].length, processed,
+        kernel.length / 2, image.height - kernel.length / 2);
+    return processed;
+  }
+
+  /**
+   * Process an image using a separable kernel, given as its column and row factors. A row pass is
+   * applied to every image row, followed by a column pass over the result, so each pixel costs kw + kh
+   * multiply-adds rather than kw * kh. Pixels where the full kernel cannot be applied are set to 0, as
+   * with {@link #naiveConvolution}.
+   * 
+   * @param image Image to process
+   * @param column Column factor of the kernel (length kh)
+   * @param row Row factor of the kernel (length kw)
+   * @return Processed image
+   */
+  public static FImage separableConvolution(FImage image, float[] column, float[] row) {
+    // Row pass result is required for every row the column pass overlays
+    final FImage rowPass = new FImage(image.width, image.height);
+    final FImage processed = new FImage(image.width, image.height);
+    separableConvolution(image, column, row, rowPass, processed);
+    return processed;
+  }
 
-    // Process every pixel that can overlay the full kernel
-    for (int y = khh; y < image.height - khh; y++) {
+  /**
+   * Apply {@link #separableConvolution(FImage, float[], float[])} using caller-supplied buffers. Only
+   * pixels that can overlay the full kernel are written to the output.
+   * 
+   * @param image Image to process
+   * @param column Column factor of the kernel (length kh)
+   * @param row Row factor of the kernel (length kw)
+   * @param rowPass Image of the same size to hold the row pass
+   * @param processed Image to write results into
+   */
+  public static void separableConvolution(FImage image, float[] column, float[] row,
+      FImage rowPass, FImage processed) {
+    separableRowPass(image, row, rowPass, 0, image.height);
+    separableColumnPass(rowPass, column, row.length, processed, column.length / 2,
+        image.height - column.length / 2);
+  }
+
+  /**
+   * Apply the row factor of a separable kernel to the rows [y0, y1) of an image, with kernel flip.
+   * Only columns that can overlay the full kernel are written.
+   * 
+   * @param image Image to process
+   * @param row Row factor of the kernel
+   * @param rowPass Image to write results into
+   * @param y0 First row to process (inclusive)
+   * @param y1 Last row to process (exclusive)
+   */
+  static void separableRowPass(FImage image, float[] row, FImage rowPass, int y0, int y1) {
+    final int kw = row.length;
+    final int khw = kw / 2;
+    for (int y = y0; y < y1; y++) {
       for (int x = khw; x < image.width - khw; x++) {
-        // Sum each kernel value to calculate point
+        float val = 0;
+        for (int kx = 0; kx < kw; kx++) {
+          val += (image.pixels[y][x - kx + khw] * row[kx]);
+        }
+        rowPass.pixels[y][x] = val;
+      }
+    }
+  }
+
+  /**
+   * Apply the column factor of a separable kernel to the rows [y0, y1) of a row pass result, with
+   * kernel flip. Rows outside the range that can overlay the full kernel must not be requested.
+   * 
+   * @param rowPass Result of {@link #separableRowPass}
+   * @param column Column factor of the kernel
+   * @param kw Length of the row factor of the kernel
+   * @param processed Image to write results into
+   * @param y0 First row to process (inclusive)
+   * @param y1 Last row to process (exclusive)
+   */
+  static void separableColumnPass(FImage rowPass, float[] column, int kw, FImage processed, int y0,
+      int y1) {
+    final int kh = column.length;
+    final int khh = kh / 2;
+    final int khw = kw / 2;
+    for (int y = y0; y < y1; y++) {
+      for (int x = khw; x < rowPass.width - khw; x++) {
         float val = 0;
         for (int ky = 0; ky < kh; ky++) {
-          for (int kx = 0; kx < kw; kx++) {
-            // Calculate points with kernel flip applied
-            final int iy = y - ky + khh;
-            final int ix = x - kx + khw;
-            val += (image.pixels[iy][ix] * kernel[ky][kx]);
-          }
+          val += (rowPass.pixels[y - ky + khh][x] * column[ky]);
         }
         processed.pixels[y][x] = val;
       }
     }
-    return processed;
+  }
+
+  /**
+   * Attempt to decompose a kernel into a column and row factor such that
+   * kernel[y][x] = column[y] * row[x]. The decomposition is taken through the largest magnitude kernel
+   * value and is only accepted if every reconstructed value is within the given tolerance (relative to
+   * that largest magnitude). Kernels with a single row or column are always separable.
+   * 
+   * @param kernel Kernel to decompose
+   * @param tolerance Maximum relative reconstruction error
+   * @return Array of {column, row} factors, or null if the kernel is not separable
+   */
+  public static float[][] separateKernel(float[][] kernel, float tolerance) {
+    final int kh = kernel.length;
+    final int kw = kernel[0].length;
+    // Find pivot (largest magnitude value) to decompose around
+    int py = 0;
+    int px = 0;
+    float max = 0;
+    for (int y = 0; y < kh; y++) {
+      for (int x = 0; x < kw; x++) {
+        if (Math.abs(kernel[y][x]) > max) {
+          max = Math.abs(kernel[y][x]);
+          py = y;
+          px = x;
+        }
+      }
+    }
+    if (max == 0) {
+      return null;
+    }
+    // Take pivot column as is and normalise pivot row so that their product is the pivot
+    final float[] column = new float[kh];
+    final float[] row = new float[kw];
+    for (int y = 0; y < kh; y++) {
+      column[y] = kernel[y][px];
+    }
+    for (int x = 0; x < kw; x++) {
+      row[x] = kernel[py][x] / kernel[py][px];
+    }
+    // Check that the factors reconstruct the kernel
+    final float limit = tolerance * max;
+    for (int y = 0; y < kh; y++) {
+      for (int x = 0; x < kw; x++) {
+        if (Math.abs(column[y] * row[x] - kernel[y][x]) > limit) {
+          return null;
+        }
+      }
+    }
+    return new float[][] {column, row};
   }
 
   /**
    * Process an image using the provided kernel. Processing is done in the frequency domain and is
-   * therefore faster for larger kernel sizes. The borders will appear as if the kernel was applied at
-   * every point but a cyclic shift was taken into account (using pixel data from the far border).
+   * therefore faster for larger kernel sizes. The transform is the size of the image, so the borders
+   * will appear as if the kernel was applied at every point with a cyclic shift. Borders are not
+   * zeroed, the FOURIER strategy instead pads the transform to the next power of two in each
+   * dimension and zeroes the border.
    * 
    * @param image Image to process
    * @param kernel Kernel to apply
    * @return Processed image
    */
   public static FImage fourierConvolution(FImage image, float[][] kernel) {
-    final int rows = image.getRows();
-    final int cols = image.getCols();
+    return fourierConvolution(image, kernel, null);
+  }
 
+  /**
+   * Process an image as in {@link #fourierConvolution(FImage, float[][])}, taking the kernel spectrum
+   * from a cache so that repeat calls with the same kernel and image size only transform the image.
+   * 
+   * @param image Image to process
+   * @param kernel Kernel to apply
+   * @param cache Cache of kernel spectra, null to always transform the kernel
+   * @return Processed image
+   */
+  public static FImage fourierConvolution(FImage image, float[][] kernel,
+      KernelSpectrumCache cache) {
+    final int prows = image.getRows();
+    final int pcols = image.getCols();
     // Transform kernel to frequency domain (must be same size as image so pad)
-    FImage scaledKernel = getFFTKernel(new FImage(kernel), rows, cols);
-    final FourierTransformComplex fftKernel =
-        new FourierTransformComplex(scaledKernel, false);
-    // Transform image to frequency domain
-    final FourierTransformComplex fftImage = new FourierTransformComplex(image, false);
+    final float[] fftKernel = (cache == null)
+        ? KernelSpectrumCache.computeComplexSpectrum(kernel, prows, pcols)
+        : cache.getComplexSpectrum(kernel, prows, pcols);
+    final FImage processed = new FImage(image.getCols(), image.getRows());
+    fourierConvolution(image, fftKernel, prows, pcols, processed);
+    return processed;
+  }
 
-    // Do complex multiply across kernel and image FFTs
-    final FImage outReal = new FImage(cols, rows);
-    final FImage outImag = new FImage(cols, rows);
+  /**
+   * Process an image as in {@link #fourierConvolution(FImage, float[][])} with a kernel spectrum from
+   * {@link KernelSpectrumCache#getComplexSpectrum}, writing into the given output. Scratch memory is
+   * taken from the calling thread's {@link ConvolutionWorkspace}.
+   * 
+   * @param image Image to process
+   * @param fftKernel Interleaved kernel spectrum of the transform size
+   * @param prows Number of rows in transform, at least the number of image rows
+   * @param pcols Number of columns in transform, at least the number of image columns
+   * @param processed Image to write results into
+   */
+  public static void fourierConvolution(FImage image, float[] fftKernel, int prows, int pcols,
+      FImage processed) {
+    fourierConvolution(image, null, fftKernel, prows, pcols, processed, null);
+  }
+
+  /**
+   * Process two images of the same size with one complex transform, as in
+   * {@link #fourierConvolution(FImage, float[], int, int, FImage)}. The first image is transformed as
+   * the real part and the second as the imaginary part. As the kernel is real the two results are
+   * returned in the real and imaginary parts without mixing.
+   * 
+   * @param real Image to process as the real part
+   * @param imag Image to process as the imaginary part, null for none
+   * @param fftKernel Interleaved kernel spectrum of the transform size
+   * @param prows Number of rows in transform, at least the number of image rows
+   * @param pcols Number of columns in transform, at least the number of image columns
+   * @param processedReal Image to write results of the real part into
+   * @param processedImag Image to write results of the imaginary part into, null if no imaginary part
+   */
+  public static void fourierConvolution(FImage real, FImage imag, float[] fftKernel, int prows,
+      int pcols, FImage processedReal, FImage processedImag) {
+    final int rows = real.getRows();
+    final int cols = real.getCols();
+    final ConvolutionListener listener = ConvolutionMetrics.getListener();
+    final ConvolutionStrategy strategy = ConvolutionStrategy.FOURIER;
+    long time = ConvolutionMetrics.start(listener);
+    final ConvolutionWorkspace workspace = ConvolutionWorkspace.get();
+    final float[] data = workspace.getComplexBuffer(2 * prows * pcols);
+    final FloatFFT_2D fft = workspace.getFFT(prows, pcols);
+
+    // Copy images into interleaved complex buffer, zero padding to the transform size
+    for (int y = 0; y < prows; y++) {
+      final int offset = 2 * y * pcols;
+      final int copied = (y < rows) ? cols : 0;
+      for (int x = 0; x < copied; x++) {
+        data[offset + 2 * x] = real.pixels[y][x];
+        data[offset + 2 * x + 1] = (imag == null) ? 0f : imag.pixels[y][x];
+      }
+      Arrays.fill(data, offset + 2 * copied, offset + 2 * pcols, 0f);
+    }
+    time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.PAD, time);
+    // Transform images to frequency domain, multiply and transform back
+    fft.complexForward(data);
+    time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.FORWARD, time);
+    multiplySpectra(data, fftKernel, 2 * prows * pcols);
+    time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.MULTIPLY, time);
+    fft.complexInverse(data, true);
+    time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.INVERSE, time);
     for (int y = 0; y < rows; y++) {
+      final int offset = 2 * y * pcols;
+      final float[] out = processedReal.pixels[y];
       for (int x = 0; x < cols; x++) {
-        final float kr = fftKernel.getReal().pixels[y][x];
-        final float ki = fftKernel.getImaginary().pixels[y][x];
-        final float ir = fftImage.getReal().pixels[y][x];
-        final float ii = fftImage.getImaginary().pixels[y][x];
-        // Complex multiply for each point
-        outReal.pixels[y][x] = kr * ir - ki * ii;
-        outImag.pixels[y][x] = ki * ir + kr * ii;
+        out[x] = data[offset + 2 * x];
+      }
+      if (processedImag != null) {
+        final float[] outImag = processedImag.pixels[y];
+        for (int x = 0; x < cols; x++) {
+          outImag[x] = data[offset + 2 * x + 1];
+        }
       }
     }
-    // Inverse Fourier to get back in spatial domain
-    final FImage processed =
-        new FourierTransformComplex(outReal, outImag, false).inverse();
-    return processed;
+    ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.EXTRACT, time);
+  }
+
+  /**
+   * Complex multiply a spectrum by a kernel spectrum in place, both as interleaved real and imaginary
+   * values.
+   * 
+   * @param data Spectrum to multiply, replaced with the result
+   * @param kernel Kernel spectrum
+   * @param length Number of floats to process
+   */
+  static void multiplySpectra(float[] data, float[] kernel, int length) {
+    for (int i = 0; i < length; i += 2) {
+      final float kr = kernel[i];
+      final float ki = kernel[i + 1];
+      final float ir = data[i];
+      final float ii = data[i + 1];
+      // Complex multiply for each point
+      data[i] = kr * ir - ki * ii;
+      data[i + 1] = ki * ir + kr * ii;
+    }
   }
 
   /**
@@ -168,22 +857,50 @@ public class MyConvolution implements SinglebandImageProcessor<Float, FImage> {
    * @return Processed image
    */
   public static FImage alternateFourierConvolution(FImage image, float[][] kernel) {
+    return alternateFourierConvolution(image, kernel, null);
+  }
+
+  /**
+   * Process an image as in {@link #alternateFourierConvolution(FImage, float[][])}, taking the kernel
+   * spectrum from a cache so that repeat calls with the same kernel and image size only transform the
+   * image.
+   * 
+   * @param image Image to process
+   * @param kernel Kernel to apply
+   * @param cache Cache of kernel spectra, null to always transform the kernel
+   * @return Processed image
+   */
+  public static FImage alternateFourierConvolution(FImage image, float[][] kernel,
+      KernelSpectrumCache cache) {
+    final ConvolutionListener listener = ConvolutionMetrics.getListener();
+    final ConvolutionStrategy strategy = ConvolutionStrategy.ALTERNATE_FOURIER;
+    long time = ConvolutionMetrics.start(listener);
     // Transform kernel to frequency domain (must be same size as image so pad)
-    FImage scaledKernel =
-        getFFTKernel(new FImage(kernel), image.getRows(), image.getCols());
-    final FourierTransform fftKernel = new FourierTransform(scaledKernel, false);
+    final FourierTransform fftKernel;
+    if (cache == null) {
+      FImage scaledKernel =
+          getFFTKernel(new FImage(kernel), image.getRows(), image.getCols());
+      fftKernel = new FourierTransform(scaledKernel, false);
+    } else {
+      fftKernel = cache.getPolarSpectrum(kernel, image.getRows(), image.getCols());
+    }
+
+    time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.KERNEL, time);
 
     // Transform image to frequency domain
     final FourierTransform fftImage = new FourierTransform(image, false);
+    time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.FORWARD, time);
 
     // Multiply the magnitudes and add the phases
     final FImage outMagnitude =
         fftKernel.getMagnitude().multiply(fftImage.getMagnitude());
     FImage outPhase = fftKernel.getPhase().add(fftImage.getPhase());
+    time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.MULTIPLY, time);
 
     // Inverse Fourier to get back in spatial domain
     final FImage processed =
         new FourierTransform(outMagnitude, outPhase, false).inverse();
+    ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.INVERSE, time);
 
     return processed;
   }
@@ -214,4 +931,19 @@ public class MyConvolution implements SinglebandImageProcessor<Float, FImage> {
     return scaledKernel;
   }
 
+  /**
+   * Value remembered for a single image size.
+   */
+  private static final class SizeMemo<T> {
+    final int rows;
+    final int cols;
+    final T value;
+
+    SizeMemo(int rows, int cols, T value) {
+      this.rows = rows;
+      this.cols = cols;
+      this.value = value;
+    }
+  }
+
 }
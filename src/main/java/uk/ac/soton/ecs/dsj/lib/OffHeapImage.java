@@ -0,0 +1,323 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import org.openimaj.image.FImage;
+import org.openimaj.image.MBFImage;
+import org.openimaj.image.colour.ColourSpace;
+
+/**
+ * Multi-band float image held outside the Java heap, in direct buffers or in a memory-mapped file.
+ * Each band can be read and written a strip at a time through {@link #getBand(int)}, so engines such
+ * as {@link StreamingConvolution} work on it in place with only strip-sized buffers on heap.
+ * Conversions to and from {@link FImage} and {@link MBFImage} are provided for the edges of a
+ * pipeline. A file-backed image can be opened by other processes while it is in use.
+ *
+ * <p>
+ * Files start with a {@link #HEADER_BYTES} byte header holding a magic number, width, height and
+ * number of bands, followed by each band in turn as little-endian floats in row-major order. Storage
+ * is split into chunks of whole rows of at most {@link #MAX_CHUNK_BYTES}, as a single mapping cannot
+ * exceed 2 GiB.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class OffHeapImage implements Closeable {
+  /** Magic number at the start of every image file, the characters "HYBF" as an int. */
+  public static final int MAGIC = 0x48594246;
+  /** Number of bytes before the first band in a file, the rest of the header is reserved. */
+  public static final int HEADER_BYTES = 64;
+  /** Maximum number of bytes in each buffer or mapping holding the pixels. */
+  public static final int MAX_CHUNK_BYTES = 1 << 30;
+
+  private final int width;
+  private final int height;
+  private final int bands;
+  private final int chunkRows;
+  private final FloatBuffer[] chunks;
+  private final RandomAccessFile file;
+
+  private OffHeapImage(int width, int height, int bands, FloatBuffer[] chunks, int chunkRows,
+      RandomAccessFile file) {
+    this.width = width;
+    this.height = height;
+    this.bands = bands;
+    this.chunks = chunks;
+    this.chunkRows = chunkRows;
+    this.file = file;
+  }
+
+  /**
+   * Allocate an image in direct buffers, filled with zeros.
+   *
+   * @param width Width of image
+   * @param height Height of image
+   * @param bands Number of bands
+   * @return Allocated image
+   */
+  public static OffHeapImage allocateDirect(int width, int height, int bands) {
+    validate(width, height, bands);
+    final int chunkRows = getChunkRows(width);
+    final long rows = (long) height * bands;
+    final FloatBuffer[] chunks = new FloatBuffer[(int) ((rows + chunkRows - 1) / chunkRows)];
+    for (int c = 0; c < chunks.length; c++) {
+      final long chunkBytes = 4L * width * Math.min(chunkRows, rows - (long) c * chunkRows);
+      chunks[c] = ByteBuffer.allocateDirect((int) chunkBytes).order(ByteOrder.LITTLE_ENDIAN)
+          .asFloatBuffer();
+    }
+    return new OffHeapImage(width, height, bands, chunks, chunkRows, null);
+  }
+
+  /**
+   * Create a file-backed image filled with zeros, replacing any existing file.
+   *
+   * @param path File to create
+   * @param width Width of image
+   * @param height Height of image
+   * @param bands Number of bands
+   * @return Created image
+   * @throws IOException If the file could not be created
+   */
+  public static OffHeapImage create(File path, int width, int height, int bands)
+      throws IOException {
+    validate(width, height, bands);
+    final RandomAccessFile file = new RandomAccessFile(path, "rw");
+    try {
+      file.setLength(0);
+      file.setLength(HEADER_BYTES + 4L * width * height * bands);
+      final ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(width).putInt(height).putInt(bands).flip();
+      file.getChannel().write(header, 0);
+      return map(file, width, height, bands);
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Open an existing file-backed image for reading and writing.
+   *
+   * @param path File to open
+   * @return Opened image
+   * @throws IOException If the file could not be opened or is not an image
+   */
+  public static OffHeapImage open(File path) throws IOException {
+    final RandomAccessFile file = new RandomAccessFile(path, "rw");
+    try {
+      final ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+      file.getChannel().read(header, 0);
+      header.flip();
+      if (header.remaining() < 16 || header.getInt() != MAGIC) {
+        throw new IOException("Not an off-heap image file: " + path);
+      }
+      final int width = header.getInt();
+      final int height = header.getInt();
+      final int bands = header.getInt();
+      try {
+        validate(width, height, bands);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid off-heap image file: " + path, e);
+      }
+      if (file.length() != HEADER_BYTES + 4L * width * height * bands) {
+        throw new IOException("Truncated off-heap image file: " + path);
+      }
+      return map(file, width, height, bands);
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  private static OffHeapImage map(RandomAccessFile file, int width, int height, int bands)
+      throws IOException {
+    final FileChannel channel = file.getChannel();
+    final int chunkRows = getChunkRows(width);
+    final long rows = (long) height * bands;
+    final FloatBuffer[] chunks = new FloatBuffer[(int) ((rows + chunkRows - 1) / chunkRows)];
+    for (int c = 0; c < chunks.length; c++) {
+      final long offset = HEADER_BYTES + 4L * width * c * chunkRows;
+      final long chunkBytes = 4L * width * Math.min(chunkRows, rows - (long) c * chunkRows);
+      chunks[c] = channel.map(MapMode.READ_WRITE, offset, chunkBytes)
+          .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+    return new OffHeapImage(width, height, bands, chunks, chunkRows, file);
+  }
+
+  private static void validate(int width, int height, int bands) {
+    if (width < 1 || height < 1 || bands < 1) {
+      throw new IllegalArgumentException("Image dimensions must be positive");
+    }
+    if (4L * width > MAX_CHUNK_BYTES) {
+      throw new IllegalArgumentException("Image rows cannot exceed " + MAX_CHUNK_BYTES + " bytes");
+    }
+  }
+
+  private static int getChunkRows(int width) {
+    return MAX_CHUNK_BYTES / (4 * width);
+  }
+
+  /**
+   * Copy a multi-band image into direct buffers.
+   *
+   * @param image Image to copy
+   * @return Off-heap copy
+   */
+  public static OffHeapImage fromMBFImage(MBFImage image) {
+    final OffHeapImage copy =
+        allocateDirect(image.getWidth(), image.getHeight(), image.numBands());
+    for (int b = 0; b < image.numBands(); b++) {
+      copy.setBand(b, image.getBand(b));
+    }
+    return copy;
+  }
+
+  /**
+   * Copy into a new on-heap multi-band image.
+   *
+   * @param colourSpace Colour space of the image, must have the same number of bands
+   * @return On-heap copy
+   */
+  public MBFImage toMBFImage(ColourSpace colourSpace) {
+    final FImage[] copies = new FImage[bands];
+    for (int b = 0; b < bands; b++) {
+      copies[b] = getBandImage(b);
+    }
+    return new MBFImage(colourSpace, copies);
+  }
+
+  /**
+   * Copy a band into a new on-heap image.
+   *
+   * @param band Index of band
+   * @return On-heap copy of band
+   */
+  public FImage getBandImage(int band) {
+    final FImage image = new FImage(width, height);
+    read(band, 0, image, 0, height);
+    return image;
+  }
+
+  /**
+   * Copy an on-heap image into a band.
+   *
+   * @param band Index of band
+   * @param image Image of the same size to copy
+   */
+  public void setBand(int band, FImage image) {
+    if (image.width != width || image.height != height) {
+      throw new IllegalArgumentException("Image must be the same size as the off-heap image");
+    }
+    write(band, 0, image, 0, height);
+  }
+
+  /**
+   * Get a view of a band that can be read and written a strip at a time.
+   *
+   * @param band Index of band
+   * @return View of band
+   */
+  public Band getBand(int band) {
+    if (band < 0 || band >= bands) {
+      throw new IndexOutOfBoundsException("Band " + band + " of " + bands);
+    }
+    return new Band(band);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int numBands() {
+    return bands;
+  }
+
+  /**
+   * Copy rows out of a band into rows of an on-heap image.
+   */
+  private void read(int band, int y0, FImage strip, int r0, int count) {
+    checkRows(y0, count);
+    for (int r = 0; r < count; r++) {
+      locate(band, y0 + r).get(strip.pixels[r0 + r], 0, width);
+    }
+  }
+
+  /**
+   * Copy rows of an on-heap image into rows of a band.
+   */
+  private void write(int band, int y0, FImage strip, int r0, int count) {
+    checkRows(y0, count);
+    for (int r = 0; r < count; r++) {
+      locate(band, y0 + r).put(strip.pixels[r0 + r], 0, width);
+    }
+  }
+
+  /**
+   * Get a buffer positioned at the start of a row, independent of other threads' buffers.
+   */
+  private FloatBuffer locate(int band, int y) {
+    final long row = (long) band * height + y;
+    final FloatBuffer buffer = chunks[(int) (row / chunkRows)].duplicate();
+    buffer.position((int) (row % chunkRows) * width);
+    return buffer;
+  }
+
+  private void checkRows(int y0, int count) {
+    if (y0 < 0 || count < 0 || y0 + count > height) {
+      throw new IndexOutOfBoundsException("Rows " + y0 + " to " + (y0 + count) + " of " + height);
+    }
+  }
+
+  /**
+   * Close the file of a file-backed image. Changes made through the mappings are written back by the
+   * operating system, and the mappings themselves are released when the image is garbage collected.
+   */
+  @Override
+  public void close() throws IOException {
+    if (file != null) {
+      file.close();
+    }
+  }
+
+  /**
+   * Single band of an off-heap image.
+   */
+  public class Band implements StripSource, StripSink {
+    private final int band;
+
+    private Band(int band) {
+      this.band = band;
+    }
+
+    @Override
+    public int getWidth() {
+      return width;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public void read(int y0, FImage strip) {
+      OffHeapImage.this.read(band, y0, strip, 0, strip.height);
+    }
+
+    @Override
+    public void write(int y0, FImage strip, int r0, int count) {
+      OffHeapImage.this.write(band, y0, strip, r0, count);
+    }
+  }
+
+}
@@ -0,0 +1,184 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.openimaj.image.FImage;
+
+/**
+ * Multi-core spatial domain convolution. The valid output region is split into row bands which are
+ * executed on a {@link ForkJoinPool}. Each band is processed with the same loops as the sequential
+ * implementations in {@link MyConvolution} and {@link FlatConvolution}, so output is bit-identical.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class ParallelConvolution {
+  /** Target number of input bytes a single band reads, roughly a per-core L2 cache. */
+  public static final int BAND_BYTES = 256 * 1024;
+  /** Minimum number of bands to create per worker thread, for load balancing. */
+  public static final int BANDS_PER_THREAD = 4;
+
+  /**
+   * Parallel equivalent of {@link MyConvolution#naiveConvolution(FImage, float[][])}.
+   *
+   * @param image Image to process
+   * @param kernel Kernel to apply
+   * @param pool Pool to execute bands on
+   * @return Processed image
+   */
+  public static FImage naiveConvolution(FImage image, float[][] kernel, ForkJoinPool pool) {
+    final FImage processed = new FImage(image.width, image.height);
+    naiveConvolution(FlatConvolution.ENGINE, FlatConvolution.flatten(image, null), image.width,
+        image.width, FlatConvolution.flatten(kernel), kernel.length, kernel[0].length, processed,
+        pool);
+    return processed;
+  }
+
+  /**
+   * Parallel equivalent of
+   * {@link SpatialEngine#naiveConvolution(float[], int, int, float[], int, int, FImage, int, int)}
+   * across every row that can overlay the full kernel.
+   *
+   * @param engine Engine to process each band with
+   * @param image Flat image to process
+   * @param width Number of columns in image
+   * @param stride Distance between the starts of consecutive image rows
+   * @param kernel Flat kernel to apply
+   * @param kh Height of kernel
+   * @param kw Width of kernel
+   * @param processed Image to write results into
+   * @param pool Pool to execute bands on
+   */
+  public static void naiveConvolution(final SpatialEngine engine, final float[] image,
+      final int width, final int stride, final float[] kernel, final int kh, final int kw,
+      final FImage processed, ForkJoinPool pool) {
+    final int khh = kh / 2;
+    final int height = processed.height;
+    final int band = getBandHeight(width, kh, height - 2 * khh, pool.getParallelism());
+    pool.invoke(new BandTask(khh, height - khh, band, new Band() {
+      @Override
+      public void compute(int y0, int y1) {
+        engine.naiveConvolution(image, width, stride, kernel, kh, kw, processed, y0, y1);
+      }
+    }));
+  }
+
+  /**
+   * Parallel equivalent of {@link MyConvolution#separableConvolution(FImage, float[], float[])}. The
+   * row pass completes across all bands before the column pass starts, as the column pass reads rows
+   * from neighbouring bands.
+   *
+   * @param image Image to process
+   * @param column Column factor of the kernel
+   * @param row Row factor of the kernel
+   * @param pool Pool to execute bands on
+   * @return Processed image
+   */
+  public static FImage separableConvolution(FImage image, float[] column, float[] row,
+      ForkJoinPool pool) {
+    final FImage rowPass = new FImage(image.width, image.height);
+    final FImage processed = new FImage(image.width, image.height);
+    separableConvolution(image, column, row, rowPass, processed, pool);
+    return processed;
+  }
+
+  /**
+   * Parallel equivalent of
+   * {@link MyConvolution#separableConvolution(FImage, float[], float[], FImage, FImage)}.
+   *
+   * @param image Image to process
+   * @param column Column factor of the kernel
+   * @param row Row factor of the kernel
+   * @param rowPass Image of the same size to hold the row pass
+   * @param processed Image to write results into
+   * @param pool Pool to execute bands on
+   */
+  public static void separableConvolution(final FImage image, final float[] column,
+      final float[] row, final FImage rowPass, final FImage processed, ForkJoinPool pool) {
+    final int khh = column.length / 2;
+    final int parallelism = pool.getParallelism();
+    final int rowBand = getBandHeight(image.width, 1, image.height, parallelism);
+    final int columnBand =
+        getBandHeight(image.width, column.length, image.height - 2 * khh, parallelism);
+
+    pool.invoke(new BandTask(0, image.height, rowBand, new Band() {
+      @Override
+      public void compute(int y0, int y1) {
+        MyConvolution.separableRowPass(image, row, rowPass, y0, y1);
+      }
+    }));
+    pool.invoke(new BandTask(khh, image.height - khh, columnBand, new Band() {
+      @Override
+      public void compute(int y0, int y1) {
+        MyConvolution.separableColumnPass(rowPass, column, row.length, processed, y0, y1);
+      }
+    }));
+  }
+
+  /**
+   * Calculate the number of output rows per band. Bands are sized so that the input rows they read
+   * (including the kernel overlap) fit in {@link #BAND_BYTES}, then reduced if required so that every
+   * worker thread receives at least {@link #BANDS_PER_THREAD} bands.
+   *
+   * @param width Width of the image
+   * @param kh Height of the kernel
+   * @param rows Number of output rows to split
+   * @param parallelism Number of worker threads
+   * @return Number of rows per band (at least 1)
+   */
+  public static int getBandHeight(int width, int kh, int rows, int parallelism) {
+    final int cacheRows = BAND_BYTES / (width * 4) - (kh - 1);
+    final int balanceRows = (rows + parallelism * BANDS_PER_THREAD - 1)
+        / (parallelism * BANDS_PER_THREAD);
+    return Math.max(1, Math.min(cacheRows, balanceRows));
+  }
+
+  /**
+   * Work to apply to a single band of rows.
+   */
+  public interface Band {
+    /**
+     * Process the rows [y0, y1).
+     *
+     * @param y0 First row to process (inclusive)
+     * @param y1 Last row to process (exclusive)
+     */
+    void compute(int y0, int y1);
+  }
+
+  /**
+   * Task that recursively splits a row range in half until it is no larger than a band.
+   */
+  public static class BandTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int y0;
+    private final int y1;
+    private final int band;
+    private final Band work;
+
+    /**
+     * Create a task covering the rows [y0, y1).
+     *
+     * @param y0 First row to process (inclusive)
+     * @param y1 Last row to process (exclusive)
+     * @param band Maximum number of rows to process without splitting
+     * @param work Work to apply to each band
+     */
+    public BandTask(int y0, int y1, int band, Band work) {
+      this.y0 = y0;
+      this.y1 = y1;
+      this.band = band;
+      this.work = work;
+    }
+
+    @Override
+    protected void compute() {
+      if (y1 - y0 <= band) {
+        work.compute(y0, y1);
+        return;
+      }
+      final int mid = y0 + (y1 - y0) / 2;
+      invokeAll(new BandTask(y0, mid, band, work), new BandTask(mid, y1, band, work));
+    }
+  }
+
+}
@@ -0,0 +1,136 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import edu.emory.mathcs.jtransforms.fft.FloatFFT_2D;
+import java.util.Arrays;
+import org.openimaj.image.FImage;
+
+/**
+ * Frequency domain convolution using real-input FFTs. The spectrum of real data is Hermitian
+ * symmetric, so only half of it is stored, in the packed layout of {@link FloatFFT_2D#realForward},
+ * and the image and kernel spectra are multiplied directly in rectangular form. Compared to a full
+ * complex transform this halves both the transform work and the memory per image. As with the
+ * FOURIER strategy of {@link MyConvolution}, transforms are padded to the next power of two in each
+ * dimension.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class RealFourierConvolution {
+
+  /**
+   * Process an image using the provided kernel. The borders will appear as if the kernel was applied
+   * at every point with a cyclic shift across the padded transform size.
+   *
+   * @param image Image to process
+   * @param kernel Kernel to apply
+   * @param cache Cache of kernel spectra, null to transform the kernel on every call
+   * @return Processed image
+   */
+  public static FImage realFourierConvolution(FImage image, float[][] kernel,
+      KernelSpectrumCache cache) {
+    final int prows = ConvolutionWorkspace.getTransformSize(image.getRows());
+    final int pcols = ConvolutionWorkspace.getTransformSize(image.getCols());
+    final float[] fftKernel = (cache == null)
+        ? KernelSpectrumCache.computeRealSpectrum(kernel, prows, pcols)
+        : cache.getRealSpectrum(kernel, prows, pcols);
+    final FImage processed = new FImage(image.getCols(), image.getRows());
+    realFourierConvolution(image, fftKernel, prows, pcols, processed);
+    return processed;
+  }
+
+  /**
+   * Process an image with a kernel spectrum from {@link KernelSpectrumCache#getRealSpectrum}, writing
+   * into the given output. Scratch memory is taken from the calling thread's
+   * {@link ConvolutionWorkspace}.
+   *
+   * @param image Image to process
+   * @param fftKernel Packed kernel spectrum of the transform size
+   * @param prows Number of rows in transform, a power of two no less than the number of image rows
+   * @param pcols Number of columns in transform, a power of two no less than the number of image
+   *        columns
+   * @param processed Image to write results into
+   */
+  public static void realFourierConvolution(FImage image, float[] fftKernel, int prows, int pcols,
+      FImage processed) {
+    final int rows = image.getRows();
+    final int cols = image.getCols();
+    final ConvolutionListener listener = ConvolutionMetrics.getListener();
+    final ConvolutionStrategy strategy = ConvolutionStrategy.REAL_FOURIER;
+    long time = ConvolutionMetrics.start(listener);
+    final ConvolutionWorkspace workspace = ConvolutionWorkspace.get();
+    final float[] data = workspace.getRealBuffer(prows * pcols);
+    final FloatFFT_2D fft = workspace.getFFT(prows, pcols);
+
+    // Copy image into buffer, zero padding to the transform size
+    for (int y = 0; y < prows; y++) {
+      final int offset = y * pcols;
+      if (y < rows) {
+        System.arraycopy(image.pixels[y], 0, data, offset, cols);
+        Arrays.fill(data, offset + cols, offset + pcols, 0f);
+      } else {
+        Arrays.fill(data, offset, offset + pcols, 0f);
+      }
+    }
+    time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.PAD, time);
+    // Transform image to frequency domain, multiply and transform back
+    fft.realForward(data);
+    time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.FORWARD, time);
+    multiplyPackedSpectra(data, fftKernel, prows, pcols);
+    time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.MULTIPLY, time);
+    fft.realInverse(data, true);
+    time = ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.INVERSE, time);
+    for (int y = 0; y < rows; y++) {
+      System.arraycopy(data, y * pcols, processed.pixels[y], 0, cols);
+    }
+    ConvolutionMetrics.phase(listener, strategy, ConvolutionPhase.EXTRACT, time);
+  }
+
+  /**
+   * Multiply a packed real-input spectrum by a kernel spectrum in the same layout, in place. Most
+   * bins are stored as interleaved complex values, the exceptions being the columns at 0 and the
+   * Nyquist frequency which are packed into the first two values of each row.
+   *
+   * @param data Packed spectrum to multiply, replaced with the result
+   * @param kernel Packed kernel spectrum
+   * @param rows Number of rows in transform, a power of two
+   * @param cols Number of columns in transform, a power of two
+   */
+  static void multiplyPackedSpectra(float[] data, float[] kernel, int rows, int cols) {
+    for (int y = 0; y < rows; y++) {
+      // Complex multiply for each point away from the packed columns
+      final int end = (y + 1) * cols;
+      for (int i = y * cols + 2; i < end; i += 2) {
+        final float kr = kernel[i];
+        final float ki = kernel[i + 1];
+        final float ir = data[i];
+        final float ii = data[i + 1];
+        data[i] = kr * ir - ki * ii;
+        data[i + 1] = ki * ir + kr * ii;
+      }
+    }
+    // Zero frequency and Nyquist rows hold real values of both packed columns
+    final int half = (rows / 2) * cols;
+    data[0] *= kernel[0];
+    data[1] *= kernel[1];
+    data[half] *= kernel[half];
+    data[half + 1] *= kernel[half + 1];
+    for (int y = 1; y < rows / 2; y++) {
+      // Upper rows hold column 0 as (re, im)
+      final int i = y * cols;
+      final float kr = kernel[i];
+      final float ki = kernel[i + 1];
+      final float ir = data[i];
+      final float ii = data[i + 1];
+      data[i] = kr * ir - ki * ii;
+      data[i + 1] = ki * ir + kr * ii;
+      // Lower rows hold the Nyquist column as (-im, re), so undo one factor of i after multiplying
+      final int j = (rows - y) * cols;
+      final float lr = kernel[j];
+      final float li = kernel[j + 1];
+      final float jr = data[j];
+      final float ji = data[j + 1];
+      data[j] = li * jr + lr * ji;
+      data[j + 1] = li * ji - lr * jr;
+    }
+  }
+
+}
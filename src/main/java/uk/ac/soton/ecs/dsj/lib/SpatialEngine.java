@@ -0,0 +1,31 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import org.openimaj.image.FImage;
+
+/**
+ * Implementation of the inner loops of spatial domain convolution over a flat row-major image, see
+ * {@link FlatConvolution}. Allows engines that need a newer runtime to be loaded only when available.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public interface SpatialEngine {
+
+  /**
+   * Process the rows [y0, y1) of a flat image using the provided flat kernel, writing every pixel
+   * that can overlay the full kernel into the given output. Rows outside the range that can overlay
+   * the full kernel must not be requested.
+   *
+   * @param image Flat image to process
+   * @param width Number of columns in image
+   * @param stride Distance between the starts of consecutive image rows
+   * @param kernel Flat kernel to apply
+   * @param kh Height of kernel
+   * @param kw Width of kernel
+   * @param processed Image to write results into
+   * @param y0 First row to process (inclusive)
+   * @param y1 Last row to process (exclusive)
+   */
+  void naiveConvolution(float[] image, int width, int stride, float[] kernel, int kh, int kw,
+      FImage processed, int y0, int y1);
+
+}
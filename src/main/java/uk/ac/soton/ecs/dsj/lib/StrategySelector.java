@@ -0,0 +1,161 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Chooses the cheapest convolution strategy for a kernel and image size using a {@link CostModel}.
+ * Every selection records the estimate for each strategy considered, so the reason for a choice can
+ * be logged.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class StrategySelector {
+  private static StrategySelector defaultSelector = null;
+
+  private final CostModel model;
+
+  /**
+   * Create a selector using the given cost model.
+   *
+   * @param model Cost model to estimate strategies with
+   */
+  public StrategySelector(CostModel model) {
+    this.model = model;
+  }
+
+  /**
+   * @return Selector using the default cost model for this machine, see {@link CostModel#getDefault}
+   */
+  public static synchronized StrategySelector getDefault() {
+    final CostModel model = CostModel.getDefault();
+    // Calibrating replaces the default model
+    if (defaultSelector == null || defaultSelector.model != model) {
+      defaultSelector = new StrategySelector(model);
+    }
+    return defaultSelector;
+  }
+
+  /**
+   * Select the strategy with the lowest estimated time, excluding {@link ConvolutionStrategy#BOX}.
+   *
+   * @param rows Number of rows in image
+   * @param cols Number of columns in image
+   * @param kh Height of kernel
+   * @param kw Width of kernel
+   * @param separable Whether the separable strategy can be used
+   * @param allowFFT Whether frequency domain strategies can be used
+   * @param parallelism Number of threads available to the spatial and block strategies
+   * @return Selected strategy with estimates
+   */
+  public Selection select(int rows, int cols, int kh, int kw, boolean separable, boolean allowFFT,
+      int parallelism) {
+    return select(rows, cols, kh, kw, separable, false, allowFFT, parallelism);
+  }
+
+  /**
+   * Select the strategy with the lowest estimated time. VECTOR is only considered when the vector
+   * engine is available, as otherwise it runs the same loop as NAIVE.
+   *
+   * @param rows Number of rows in image
+   * @param cols Number of columns in image
+   * @param kh Height of kernel
+   * @param kw Width of kernel
+   * @param separable Whether the separable strategy can be used
+   * @param box Whether the box strategy can be used
+   * @param allowFFT Whether frequency domain strategies can be used
+   * @param parallelism Number of threads available to the spatial and block strategies
+   * @return Selected strategy with estimates
+   */
+  public Selection select(int rows, int cols, int kh, int kw, boolean separable, boolean box,
+      boolean allowFFT, int parallelism) {
+    final Map<ConvolutionStrategy, Double> estimates =
+        new EnumMap<ConvolutionStrategy, Double>(ConvolutionStrategy.class);
+    ConvolutionStrategy best = null;
+    for (ConvolutionStrategy strategy : ConvolutionStrategy.values()) {
+      if ((strategy.isFourier() && !allowFFT)
+          || (strategy == ConvolutionStrategy.VECTOR && !VectorConvolution.isAvailable())
+          || (strategy == ConvolutionStrategy.SEPARABLE && !separable)
+          || (strategy == ConvolutionStrategy.BOX && !box)) {
+        continue;
+      }
+      final double estimate = model.estimate(strategy, rows, cols, kh, kw, parallelism);
+      estimates.put(strategy, estimate);
+      if (best == null || estimate < estimates.get(best)) {
+        best = strategy;
+      }
+    }
+
+    final StringBuilder reason = new StringBuilder();
+    reason.append(String.format("%s selected for %dx%d kernel on %dx%d image (threads=%d):", best,
+        kw, kh, cols, rows, parallelism));
+    for (Map.Entry<ConvolutionStrategy, Double> entry : estimates.entrySet()) {
+      reason.append(String.format(" %s=%.3fms", entry.getKey(), entry.getValue() / 1e6));
+    }
+    return new Selection(best, estimates, reason.toString());
+  }
+
+  /**
+   * Result of a strategy selection.
+   */
+  public static class Selection {
+    private final ConvolutionStrategy strategy;
+    private final Map<ConvolutionStrategy, Double> estimates;
+    private final String reason;
+
+    /**
+     * Create a selection.
+     *
+     * @param strategy Selected strategy
+     * @param estimates Estimated nanoseconds of each strategy considered
+     * @param reason Human readable explanation of the selection
+     */
+    public Selection(ConvolutionStrategy strategy, Map<ConvolutionStrategy, Double> estimates,
+        String reason) {
+      this.strategy = strategy;
+      this.estimates = estimates;
+      this.reason = reason;
+    }
+
+    /**
+     * Create a selection for a strategy that was forced rather than estimated.
+     *
+     * @param strategy Forced strategy
+     * @return Selection without estimates
+     */
+    public static Selection forced(ConvolutionStrategy strategy) {
+      return new Selection(strategy,
+          new EnumMap<ConvolutionStrategy, Double>(ConvolutionStrategy.class),
+          strategy + " forced by constructor");
+    }
+
+    /**
+     * @return Selected strategy
+     */
+    public ConvolutionStrategy getStrategy() {
+      return strategy;
+    }
+
+    /**
+     * @param strategy Strategy to get estimate of
+     * @return Estimated nanoseconds, or NaN if the strategy was not considered
+     */
+    public double getEstimate(ConvolutionStrategy strategy) {
+      final Double estimate = estimates.get(strategy);
+      return (estimate == null) ? Double.NaN : estimate;
+    }
+
+    /**
+     * @return Human readable explanation of the selection
+     */
+    public String getReason() {
+      return reason;
+    }
+
+    @Override
+    public String toString() {
+      return reason;
+    }
+  }
+
+}
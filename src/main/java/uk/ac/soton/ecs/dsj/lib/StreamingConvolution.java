@@ -0,0 +1,138 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.io.IOException;
+import org.openimaj.image.FImage;
+
+/**
+ * Convolution of images too large to hold on heap. The source is read as horizontal strips with a
+ * halo of kernel.length / 2 rows above and below, each strip is convolved on its own and its finished
+ * rows are written to the sink before the next is read, so peak memory is proportional to the strip
+ * height and image width only. Only spatial strategies are used, as every output pixel then depends
+ * only on its neighbourhood, so output is bit-identical to {@link MyConvolution} using the same
+ * strategy on the whole image. BOX is not used, as its running sums depend on where they start.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class StreamingConvolution {
+  /** Target number of bytes in each input strip when no strip height is given. */
+  public static final int DEFAULT_STRIP_BYTES = 32 * 1024 * 1024;
+
+  private final MyConvolution conv;
+  private final ConvolutionStrategy strategy;
+  private final int stripHeight;
+
+  /**
+   * Create a streaming convolution with strips of roughly {@link #DEFAULT_STRIP_BYTES}.
+   *
+   * @param conv Convolution to apply to each strip
+   */
+  public StreamingConvolution(MyConvolution conv) {
+    this(conv, 0);
+  }
+
+  /**
+   * Create a streaming convolution. The convolution must use {@link BorderMode#ZERO}, and if it has a
+   * forced strategy it must be NAIVE, VECTOR or SEPARABLE. Otherwise SEPARABLE is used if possible,
+   * then VECTOR if available, then NAIVE.
+   *
+   * @param conv Convolution to apply to each strip
+   * @param stripHeight Number of output rows in each strip, 0 to size strips automatically
+   */
+  public StreamingConvolution(MyConvolution conv, int stripHeight) {
+    if (stripHeight < 0) {
+      throw new IllegalArgumentException("Strip height cannot be negative");
+    }
+    if (conv.strategy != null && (conv.strategy.isFourier()
+        || conv.strategy == ConvolutionStrategy.BOX)) {
+      throw new IllegalArgumentException("Streaming requires NAIVE, VECTOR or SEPARABLE");
+    }
+    if (conv.borderMode.isExtending()) {
+      throw new IllegalArgumentException("Streaming requires BorderMode.ZERO");
+    }
+    this.conv = conv;
+    if (conv.strategy != null) {
+      this.strategy = conv.strategy;
+    } else if (conv.kernelFactors != null) {
+      this.strategy = ConvolutionStrategy.SEPARABLE;
+    } else if (VectorConvolution.isAvailable()) {
+      this.strategy = ConvolutionStrategy.VECTOR;
+    } else {
+      this.strategy = ConvolutionStrategy.NAIVE;
+    }
+    this.stripHeight = stripHeight;
+  }
+
+  /**
+   * @return Strategy applied to each strip
+   */
+  public ConvolutionStrategy getStrategy() {
+    return strategy;
+  }
+
+  /**
+   * Get the number of output rows in each strip for an image width.
+   *
+   * @param width Width of image
+   * @return Strip height
+   */
+  public int getStripHeight(int width) {
+    if (stripHeight > 0) {
+      return stripHeight;
+    }
+    return Math.max(1, DEFAULT_STRIP_BYTES / (4 * width) - 2 * (conv.kernel.length / 2));
+  }
+
+  /**
+   * Convolve a source image into a sink of the same size.
+   *
+   * @param source Image to process
+   * @param sink Image to write results into
+   * @throws IOException If reading the source or writing the sink fails
+   */
+  public void convolve(StripSource source, StripSink sink) throws IOException {
+    final int width = source.getWidth();
+    final int height = source.getHeight();
+    final int kh = conv.kernel.length;
+    final int khh = kh / 2;
+    if (height < kh || width < conv.kernel[0].length) {
+      throw new IllegalArgumentException("Image must be bigger than convoluter kernel");
+    }
+
+    final int rows = getStripHeight(width);
+    FImage in = null;
+    FImage out = null;
+    for (int y0 = 0; y0 < height; y0 += rows) {
+      final int y1 = Math.min(height, y0 + rows);
+      // Input rows including halo, extended if needed so that the strip can overlay the kernel
+      int s1 = Math.min(height, y1 + khh);
+      final int s0 = Math.max(0, Math.min(y0 - khh, s1 - kh));
+      s1 = Math.max(s1, s0 + kh);
+      if (in == null || in.height != s1 - s0) {
+        in = new FImage(width, s1 - s0);
+        out = new FImage(width, s1 - s0);
+      }
+      source.read(s0, in);
+      // Rows kept from each strip are either valid or image border rows, zeroed as strip border rows
+      conv.convolve(in, out, strategy);
+      sink.write(y0, out, y0 - s0, y1 - y0);
+    }
+  }
+
+  /**
+   * Convolve every band of an off-heap image into another of the same size and number of bands.
+   *
+   * @param source Image to process
+   * @param sink Image to write results into
+   * @throws IOException If reading the source or writing the sink fails
+   */
+  public void convolve(OffHeapImage source, OffHeapImage sink) throws IOException {
+    if (source.numBands() != sink.numBands() || source.getWidth() != sink.getWidth()
+        || source.getHeight() != sink.getHeight()) {
+      throw new IllegalArgumentException("Images must have the same size and number of bands");
+    }
+    for (int b = 0; b < source.numBands(); b++) {
+      convolve(source.getBand(b), sink.getBand(b));
+    }
+  }
+
+}
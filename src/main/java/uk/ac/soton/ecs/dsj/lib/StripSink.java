@@ -0,0 +1,24 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.io.IOException;
+import org.openimaj.image.FImage;
+
+/**
+ * Image that can be written a horizontal strip at a time, see {@link StreamingConvolution}.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public interface StripSink {
+
+  /**
+   * Write rows of a strip to consecutive rows of the image.
+   *
+   * @param y0 First image row to write
+   * @param strip Image of the sink width to write from
+   * @param r0 First strip row to write
+   * @param count Number of rows to write
+   * @throws IOException If the rows could not be written
+   */
+  void write(int y0, FImage strip, int r0, int count) throws IOException;
+
+}
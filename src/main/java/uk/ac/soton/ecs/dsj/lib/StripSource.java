@@ -0,0 +1,32 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.io.IOException;
+import org.openimaj.image.FImage;
+
+/**
+ * Image that can be read a horizontal strip at a time, see {@link StreamingConvolution}.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public interface StripSource {
+
+  /**
+   * @return Width of image
+   */
+  int getWidth();
+
+  /**
+   * @return Height of image
+   */
+  int getHeight();
+
+  /**
+   * Read consecutive rows of the image into every row of a strip.
+   *
+   * @param y0 First image row to read
+   * @param strip Image of the source width to read into, its height giving the number of rows
+   * @throws IOException If the rows could not be read
+   */
+  void read(int y0, FImage strip) throws IOException;
+
+}
@@ -0,0 +1,43 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+/**
+ * Access to the SIMD spatial engine built on the incubating Vector API (jdk.incubator.vector). The
+ * engine is compiled only when the {@code vector} build profile is selected (-P vector) on JDK 16 or
+ * later, and can only be loaded when the runtime is started with
+ * {@code --add-modules jdk.incubator.vector}. When it cannot be loaded the scalar
+ * {@link FlatConvolution#ENGINE} is used instead, so the VECTOR strategy always works.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class VectorConvolution {
+  /** Name of the engine class compiled from src/vector/java. */
+  public static final String ENGINE_CLASS = "uk.ac.soton.ecs.dsj.lib.vector.VectorSpatialEngine";
+
+  private static final SpatialEngine VECTOR_ENGINE = loadEngine();
+
+  /**
+   * @return Vector engine if available, otherwise the scalar engine
+   */
+  public static SpatialEngine getEngine() {
+    return (VECTOR_ENGINE == null) ? FlatConvolution.ENGINE : VECTOR_ENGINE;
+  }
+
+  /**
+   * @return Whether the vector engine could be loaded by this runtime
+   */
+  public static boolean isAvailable() {
+    return VECTOR_ENGINE != null;
+  }
+
+  private static SpatialEngine loadEngine() {
+    try {
+      return (SpatialEngine) Class.forName(ENGINE_CLASS).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      return null;
+    } catch (LinkageError e) {
+      // Engine was compiled but the incubator module is not present
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,70 @@
+package uk.ac.soton.ecs.dsj.pipeline;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Progress and metrics of a pipeline run, timed from creation until {@link #finish()}. Pipelines
+ * extend this with their own totals.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class PipelineSummary {
+  private final List<Stage<?>> stages;
+  private final long start = System.nanoTime();
+  private volatile long end = 0;
+
+  /**
+   * Create a summary of a run, starting its timer.
+   *
+   * @param stages Stages of the pipeline, in order
+   */
+  protected PipelineSummary(Stage<?>... stages) {
+    this.stages = Arrays.asList(stages);
+  }
+
+  /**
+   * Stop the timer once the run has finished.
+   */
+  public void finish() {
+    end = System.nanoTime();
+  }
+
+  /**
+   * @return Seconds from the start of the run to its end, or to now if still running
+   */
+  public double getSeconds() {
+    return (((end == 0) ? System.nanoTime() : end) - start) / 1e9;
+  }
+
+  /**
+   * @return Number of items that failed in any stage
+   */
+  public long getFailed() {
+    long failed = 0;
+    for (Stage<?> stage : stages) {
+      failed += stage.getFailed();
+    }
+    return failed;
+  }
+
+  /**
+   * @return Stages of the pipeline, in order
+   */
+  public List<Stage<?>> getStages() {
+    return stages;
+  }
+
+  /**
+   * Append the progress of every stage to a report.
+   *
+   * @param sb Report to append to
+   * @param seconds Seconds the run has taken
+   */
+  protected void appendStages(StringBuilder sb, double seconds) {
+    for (Stage<?> stage : stages) {
+      sb.append(" | ").append(stage.toString(seconds));
+    }
+  }
+
+}
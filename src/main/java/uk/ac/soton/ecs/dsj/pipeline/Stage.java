@@ -0,0 +1,196 @@
+package uk.ac.soton.ecs.dsj.pipeline;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stage of a pipeline, run by each of its worker threads. Items are taken from a bounded queue in
+ * front of the stage, processed and put on the queue of the next stage, so a slow stage holds back
+ * the stages before it. Each worker stops when it takes the end marker, and the last worker of a
+ * stage to stop passes one end marker per worker on to the next stage.
+ *
+ * <p>
+ * Items that fail to process, including with errors such as running out of memory, are counted and
+ * logged and the worker carries on with the next item.
+ * </p>
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ * @param <T> Type of item passed through the pipeline
+ */
+public abstract class Stage<T> implements Runnable {
+  private final String name;
+  private final int workers;
+  private final T end;
+  private final BlockingQueue<T> in;
+  private final AtomicInteger running;
+  private final AtomicLong processed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong busyNanos = new AtomicLong();
+  private Stage<T> next = null;
+
+  /**
+   * Create a stage.
+   *
+   * @param name Name of the stage, used for its threads and in reports
+   * @param workers Number of worker threads
+   * @param capacity Capacity of the queue in front of the stage
+   * @param end Marker passed down the queues to stop one worker, never processed
+   */
+  protected Stage(String name, int workers, int capacity, T end) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("Every stage must have at least one worker");
+    }
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Queue capacity must be at least 1");
+    }
+    this.name = name;
+    this.workers = workers;
+    this.end = end;
+    this.in = new ArrayBlockingQueue<T>(capacity);
+    this.running = new AtomicInteger(workers);
+  }
+
+  /**
+   * Apply this stage to an item.
+   *
+   * @param item Item to process
+   * @throws Exception If the item failed
+   */
+  protected abstract void process(T item) throws Exception;
+
+  /**
+   * Record that an item failed in this stage.
+   *
+   * @param item Item that failed
+   * @param e Cause of the failure
+   * @return Whether the item is still passed to the next stage, false by default
+   */
+  protected boolean fail(T item, Throwable e) {
+    failed.incrementAndGet();
+    System.err.println("Failed to " + name + " " + item + ": " + e);
+    return false;
+  }
+
+  /**
+   * @param next Stage to pass processed items to, null if this is the last stage
+   */
+  public void setNext(Stage<T> next) {
+    this.next = next;
+  }
+
+  /**
+   * Create and start the worker threads of this stage.
+   *
+   * @param prefix Prefix of thread names
+   * @param threads List to add the started threads to
+   */
+  public void start(String prefix, List<Thread> threads) {
+    for (int i = 0; i < workers; i++) {
+      final Thread thread = new Thread(this, prefix + name + "-" + i);
+      thread.start();
+      threads.add(thread);
+    }
+  }
+
+  /**
+   * Put an item on the queue in front of this stage, waiting for space.
+   *
+   * @param item Item to process
+   * @throws InterruptedException If interrupted while waiting for space
+   */
+  public void put(T item) throws InterruptedException {
+    in.put(item);
+  }
+
+  /**
+   * Put an end marker for each worker of this stage.
+   *
+   * @throws InterruptedException If interrupted while waiting for space
+   */
+  public void stop() throws InterruptedException {
+    for (int i = 0; i < workers; i++) {
+      in.put(end);
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      T item;
+      while ((item = in.take()) != end) {
+        final long start = System.nanoTime();
+        boolean ok;
+        try {
+          process(item);
+          processed.incrementAndGet();
+          ok = true;
+        } catch (Exception | Error e) {
+          ok = fail(item, e);
+        }
+        busyNanos.addAndGet(System.nanoTime() - start);
+        if (ok && next != null) {
+          next.put(item);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      // Last worker out stops the next stage however it exits, unless the run is torn down
+      if (running.decrementAndGet() == 0 && next != null
+          && !Thread.currentThread().isInterrupted()) {
+        try {
+          next.stop();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return Name of the stage
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return Number of items processed without failing
+   */
+  public long getProcessed() {
+    return processed.get();
+  }
+
+  /**
+   * @return Number of items that failed in this stage
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * Get the busy fraction of the stage's workers.
+   *
+   * @param seconds Seconds the stage has been running for
+   * @return Utilisation from 0 to 1
+   */
+  public double getUtilisation(double seconds) {
+    return busyNanos.get() / 1e9 / seconds / workers;
+  }
+
+  /**
+   * Describe the progress of this stage.
+   *
+   * @param seconds Seconds the stage has been running for
+   * @return Items processed, rate, queue occupancy and utilisation
+   */
+  public String toString(double seconds) {
+    return String.format("%s: %d done, %.2f/s, queue %d/%d, util %.0f%%", name,
+        processed.get(), processed.get() / seconds, in.size(), in.size() + in.remainingCapacity(),
+        100 * getUtilisation(seconds));
+  }
+
+}
@@ -0,0 +1,146 @@
+package uk.ac.soton.ecs.dsj.video;
+
+import org.openimaj.image.MBFImage;
+import org.openimaj.image.colour.ColourSpace;
+import org.openimaj.video.Video;
+
+/**
+ * Video of generated RGB frames, for testing and benchmarking video processing without a decoder or
+ * camera. Each frame is a pattern of moving stripes and a moving disc that depends only on the frame
+ * index, so repeated runs see identical frames. A live video delivers frames no faster than its frame
+ * rate, as a webcam would, blocking in {@link #getNextFrame()} until each frame is due.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class SyntheticVideo extends Video<MBFImage> {
+  private final int width;
+  private final int height;
+  private final double fps;
+  private final long frames;
+  private final boolean live;
+  private MBFImage current = null;
+  private long start = 0;
+
+  /**
+   * Create a synthetic video.
+   *
+   * @param width Width of each frame
+   * @param height Height of each frame
+   * @param fps Frame rate
+   * @param frames Number of frames, or -1 for an endless video
+   * @param live Whether frames are delivered no faster than the frame rate
+   */
+  public SyntheticVideo(int width, int height, double fps, long frames, boolean live) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Frames must have at least one pixel");
+    }
+    if (!(fps > 0)) {
+      throw new IllegalArgumentException("Frame rate must be positive");
+    }
+    this.width = width;
+    this.height = height;
+    this.fps = fps;
+    this.frames = frames;
+    this.live = live;
+  }
+
+  /**
+   * Render a frame of the video.
+   *
+   * @param index Index of the frame
+   * @return New image holding the frame
+   */
+  public MBFImage render(long index) {
+    final MBFImage frame = new MBFImage(width, height, ColourSpace.RGB);
+    final double t = index / fps;
+    // Disc circling the centre once every four seconds
+    final double cx = width / 2.0 + width / 4.0 * Math.cos(t * Math.PI / 2);
+    final double cy = height / 2.0 + height / 4.0 * Math.sin(t * Math.PI / 2);
+    final double radius = Math.min(width, height) / 8.0;
+    for (int b = 0; b < 3; b++) {
+      final float[][] pixels = frame.getBand(b).pixels;
+      // Stripes of a different angle and speed in each band
+      final double fx = (b + 1) * 0.05;
+      final double fy = (3 - b) * 0.03;
+      for (int y = 0; y < height; y++) {
+        final double dy = y - cy;
+        for (int x = 0; x < width; x++) {
+          final double dx = x - cx;
+          final float stripes = (float) (0.5 + 0.4 * Math.sin(fx * x + fy * y - (b + 1) * t));
+          pixels[y][x] = (dx * dx + dy * dy < radius * radius) ? 1 - stripes : stripes;
+        }
+      }
+    }
+    return frame;
+  }
+
+  @Override
+  public synchronized MBFImage getNextFrame() {
+    if (!hasNextFrame()) {
+      return null;
+    }
+    if (live) {
+      if (currentFrame == 0) {
+        start = System.nanoTime();
+      }
+      final long due = start + (long) (currentFrame * 1e9 / fps);
+      long wait;
+      while ((wait = due - System.nanoTime()) > 0) {
+        try {
+          Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+      }
+    }
+    current = render(currentFrame);
+    currentFrame++;
+    return current;
+  }
+
+  @Override
+  public synchronized MBFImage getCurrentFrame() {
+    if (current == null) {
+      current = render(currentFrame);
+    }
+    return current;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public long getTimeStamp() {
+    return (long) (currentFrame * 1000 / fps);
+  }
+
+  @Override
+  public double getFPS() {
+    return fps;
+  }
+
+  @Override
+  public synchronized boolean hasNextFrame() {
+    return frames < 0 || currentFrame < frames;
+  }
+
+  @Override
+  public long countFrames() {
+    return frames;
+  }
+
+  @Override
+  public synchronized void reset() {
+    currentFrame = 0;
+    current = null;
+  }
+
+}
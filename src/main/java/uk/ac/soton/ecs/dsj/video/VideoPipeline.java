@@ -0,0 +1,305 @@
+package uk.ac.soton.ecs.dsj.video;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openimaj.image.MBFImage;
+import org.openimaj.video.Video;
+import org.openimaj.video.VideoWriter;
+import uk.ac.soton.ecs.dsj.lib.HybridConvolution;
+import uk.ac.soton.ecs.dsj.lib.LatencyHistogram;
+import uk.ac.soton.ecs.dsj.lib.MultiBandConvolution;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+import uk.ac.soton.ecs.dsj.pipeline.PipelineSummary;
+import uk.ac.soton.ecs.dsj.pipeline.Stage;
+
+/**
+ * Pipelined filtering of video frames. The calling thread decodes frames from the source, a pool of
+ * filter workers process them concurrently and an encode worker writes them to the sink in their
+ * original order. Stages are connected by bounded queues, so a slow stage holds back decoding
+ * rather than letting frames pile up, and decode, filter and encode of different frames overlap.
+ *
+ * <p>
+ * Frame size is fixed for a video, so the strategy and kernel spectra of a {@link MyConvolution} or
+ * {@link HybridConvolution} are looked up for the first frame and reused for every frame after, and
+ * each filter worker keeps a warm {@link uk.ac.soton.ecs.dsj.lib.ConvolutionWorkspace}. Filter and
+ * encode are {@link Stage stages}, so frames that fail are counted and skipped, as in
+ * {@link uk.ac.soton.ecs.dsj.batch.HybridPipeline}.
+ * </p>
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class VideoPipeline {
+  /** Marker passed down a queue to stop one worker. */
+  private static final Frame END = new Frame(-1, null, 0);
+
+  private final FrameFilter filter;
+  private final int filters;
+  private final int queueCapacity;
+
+  /**
+   * Create a pipeline.
+   *
+   * @param filter Filter to apply to each frame, must be safe to call from several threads at once
+   * @param filters Number of filter workers
+   * @param queueCapacity Capacity of the queue in front of the filter and encode stages
+   */
+  public VideoPipeline(FrameFilter filter, int filters, int queueCapacity) {
+    if (filters < 1) {
+      throw new IllegalArgumentException("There must be at least one filter worker");
+    }
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("Queue capacity must be at least 1");
+    }
+    this.filter = filter;
+    this.filters = filters;
+    this.queueCapacity = queueCapacity;
+  }
+
+  /**
+   * Create a filter convolving every band of each frame.
+   *
+   * @param conv Convolution to apply
+   * @return Filter returning frames of the same size
+   */
+  public static FrameFilter convolution(MyConvolution conv) {
+    final MultiBandConvolution multiBand = new MultiBandConvolution(conv);
+    return new FrameFilter() {
+      @Override
+      public MBFImage filter(MBFImage frame) {
+        return frame.processInplace(multiBand);
+      }
+    };
+  }
+
+  /**
+   * Create a filter taking the low frequencies of each frame and the high frequencies of a fixed
+   * image.
+   *
+   * @param hybrid Hybrid image generator
+   * @param high Image to take high frequencies from, of the same size as the frames
+   * @return Filter returning hybrid frames, smaller than the source by the hybrid border
+   */
+  public static FrameFilter hybridWithHigh(final HybridConvolution hybrid, final MBFImage high) {
+    return new FrameFilter() {
+      @Override
+      public MBFImage filter(MBFImage frame) {
+        return hybrid.createHybrid(frame, high);
+      }
+    };
+  }
+
+  /**
+   * Create a filter taking the high frequencies of each frame and the low frequencies of a fixed
+   * image.
+   *
+   * @param hybrid Hybrid image generator
+   * @param low Image to take low frequencies from, of the same size as the frames
+   * @return Filter returning hybrid frames, smaller than the source by the hybrid border
+   */
+  public static FrameFilter hybridWithLow(final HybridConvolution hybrid, final MBFImage low) {
+    return new FrameFilter() {
+      @Override
+      public MBFImage filter(MBFImage frame) {
+        return hybrid.createHybrid(low, frame);
+      }
+    };
+  }
+
+  /**
+   * Filter frames of a video, blocking until they have all been written. Each frame is copied as it
+   * is decoded, so sources that reuse their frame image are safe.
+   *
+   * @param source Video to read frames from
+   * @param sink Writer to add filtered frames to in order, null to discard them
+   * @param maxFrames Maximum number of frames to read, or -1 to read until the source ends
+   * @return Throughput and latency of the run
+   * @throws InterruptedException If interrupted while waiting for the pipeline
+   */
+  public Summary run(Video<MBFImage> source, final VideoWriter<MBFImage> sink, long maxFrames)
+      throws InterruptedException {
+    final Stage<Frame> filterStage = new Stage<Frame>("filter", filters, queueCapacity, END) {
+      @Override
+      protected void process(Frame frame) {
+        frame.result = filter.filter(frame.image);
+        frame.image = null;
+      }
+
+      @Override
+      protected boolean fail(Frame frame, Throwable e) {
+        // Failed frames still go to the encoder, which writes frames in order
+        frame.image = null;
+        super.fail(frame, e);
+        return true;
+      }
+    };
+    final EncodeStage encodeStage = new EncodeStage(sink, queueCapacity);
+    filterStage.setNext(encodeStage);
+    final Summary summary = new Summary(filterStage, encodeStage);
+
+    final List<Thread> threads = new ArrayList<Thread>();
+    filterStage.start("video-", threads);
+    encodeStage.start("video-", threads);
+    try {
+      // Decode on the calling thread, blocking while the filters are full
+      long index = 0;
+      while ((maxFrames < 0 || index < maxFrames) && source.hasNextFrame()) {
+        final long start = System.nanoTime();
+        final MBFImage image = source.getNextFrame();
+        if (image == null) {
+          break;
+        }
+        final long decoded = System.nanoTime();
+        final Frame frame = new Frame(index++, image.clone(), decoded);
+        summary.decodeNanos.addAndGet(System.nanoTime() - start);
+        filterStage.put(frame);
+      }
+      filterStage.stop();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    } finally {
+      // Workers have already exited unless the caller was interrupted, in which case tear down
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+    }
+    summary.finish();
+    return summary;
+  }
+
+  /**
+   * Encode stage, with a single worker. Frames finish filtering out of order, so each is held until
+   * those before it have been written.
+   */
+  private static class EncodeStage extends Stage<Frame> {
+    private final VideoWriter<MBFImage> sink;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong written = new AtomicLong();
+    private final PriorityQueue<Frame> pending = new PriorityQueue<Frame>(11,
+        new Comparator<Frame>() {
+          @Override
+          public int compare(Frame a, Frame b) {
+            return Long.compare(a.index, b.index);
+          }
+        });
+    private long next = 0;
+
+    EncodeStage(VideoWriter<MBFImage> sink, int queueCapacity) {
+      super("encode", 1, queueCapacity, END);
+      this.sink = sink;
+    }
+
+    @Override
+    protected void process(Frame frame) {
+      pending.add(frame);
+      while (!pending.isEmpty() && pending.peek().index == next) {
+        write(pending.poll());
+        next++;
+      }
+    }
+
+    private void write(Frame frame) {
+      if (frame.result == null) {
+        return;
+      }
+      try {
+        if (sink != null) {
+          sink.addFrame(frame.result);
+        }
+        latency.record(System.nanoTime() - frame.decoded);
+        written.incrementAndGet();
+      } catch (RuntimeException | Error e) {
+        fail(frame, e);
+      }
+      frame.result = null;
+    }
+  }
+
+  /**
+   * Processing applied to each frame.
+   */
+  public interface FrameFilter {
+    /**
+     * Filter a frame. Called concurrently by every filter worker.
+     *
+     * @param frame Copy of the decoded frame, may be modified or returned
+     * @return Filtered frame
+     */
+    MBFImage filter(MBFImage frame);
+  }
+
+  /**
+   * A frame passing through the pipeline.
+   */
+  private static class Frame {
+    final long index;
+    final long decoded;
+    MBFImage image;
+    MBFImage result;
+
+    Frame(long index, MBFImage image, long decoded) {
+      this.index = index;
+      this.image = image;
+      this.decoded = decoded;
+    }
+
+    @Override
+    public String toString() {
+      return "frame " + index;
+    }
+  }
+
+  /**
+   * Throughput and per-frame latency of a run.
+   */
+  public static class Summary extends PipelineSummary {
+    private final EncodeStage encode;
+    final AtomicLong decodeNanos = new AtomicLong();
+
+    Summary(Stage<Frame> filter, EncodeStage encode) {
+      super(filter, encode);
+      this.encode = encode;
+    }
+
+    /**
+     * @return Number of frames written to the sink
+     */
+    public long getFrames() {
+      return encode.written.get();
+    }
+
+    /**
+     * @return Sustained frames written per second
+     */
+    public double getFPS() {
+      return getFrames() / getSeconds();
+    }
+
+    /**
+     * @return Nanoseconds from each frame being decoded to it being written
+     */
+    public LatencyHistogram getLatency() {
+      return encode.latency;
+    }
+
+    @Override
+    public String toString() {
+      final double seconds = getSeconds();
+      final LatencyHistogram latency = encode.latency;
+      final StringBuilder sb = new StringBuilder();
+      // Frames are decoded on the calling thread rather than by a stage
+      sb.append(String.format(
+          "%d frames in %.2fs, %.1f fps, failed=%d | latency p50=%.1fms, p95=%.1fms, "
+              + "p99=%.1fms, max=%.1fms | decode util %.0f%%",
+          getFrames(), seconds, getFPS(), getFailed(), latency.getPercentile(50) / 1e6,
+          latency.getPercentile(95) / 1e6, latency.getPercentile(99) / 1e6,
+          latency.getMax() / 1e6, 100 * decodeNanos.get() / 1e9 / seconds));
+      appendStages(sb, seconds);
+      return sb.toString();
+    }
+  }
+
+}
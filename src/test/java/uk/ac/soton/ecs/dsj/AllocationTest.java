@@ -0,0 +1,51 @@
+package uk.ac.soton.ecs.dsj;
+
+import edu.emory.mathcs.utils.ConcurrencyUtils;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import org.openimaj.image.FImage;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that steady-state convolution into a caller-supplied output does not allocate. Uses the
+ * per-thread allocation counter of HotSpot, so must be run on a HotSpot JVM.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class AllocationTest {
+  private static final ConvolutionStrategy[] STRATEGIES = {ConvolutionStrategy.NAIVE,
+      ConvolutionStrategy.SEPARABLE, ConvolutionStrategy.FOURIER,
+      ConvolutionStrategy.REAL_FOURIER, ConvolutionStrategy.BLOCK_FOURIER};
+
+  public static void main(String[] args) {
+    // JTransforms allocates when splitting work between threads
+    ConcurrencyUtils.setNumberOfThreads(1);
+    final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    final long tid = Thread.currentThread().getId();
+
+    final Random random = new Random(0);
+    final FImage image = HybridTesting.createRandomImage(640, 480, random);
+    final FImage output = new FImage(image.getWidth(), image.getHeight());
+    final float[][] kernel = HybridTesting.createSeparableKernel(15, 15);
+
+    boolean failed = false;
+    for (ConvolutionStrategy strategy : STRATEGIES) {
+      final MyConvolution conv = new MyConvolution(kernel, strategy);
+      for (int i = 0; i < 20; i++) {
+        conv.processImage(image, output);
+      }
+      final long start = threads.getThreadAllocatedBytes(tid);
+      conv.processImage(image, output);
+      final long allocated = threads.getThreadAllocatedBytes(tid) - start;
+      System.out.println(String.format("%s: %d bytes", strategy, allocated));
+      failed |= allocated != 0;
+    }
+    if (failed) {
+      throw new AssertionError("Steady-state convolution allocated memory");
+    }
+  }
+
+}
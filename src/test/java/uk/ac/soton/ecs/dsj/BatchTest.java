@@ -0,0 +1,152 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import org.openimaj.image.ImageUtilities;
+import org.openimaj.image.MBFImage;
+import org.openimaj.image.colour.ColourSpace;
+import uk.ac.soton.ecs.dsj.batch.HybridPipeline;
+import uk.ac.soton.ecs.dsj.batch.HybridTask;
+import uk.ac.soton.ecs.dsj.batch.Manifest;
+import uk.ac.soton.ecs.dsj.lib.HybridConvolution;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+
+/**
+ * Check that a batch manifest is read and run through the hybrid pipeline, writing every hybrid
+ * that can be generated, counting tasks whose input is missing as failed, skipping completed
+ * outputs when the batch is run again, and stopping every worker when the caller is interrupted.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class BatchTest {
+  private static final float TOLERANCE = 2 / 255f;
+
+  public static void main(String[] args) throws Exception {
+    final File dir = Files.createTempDirectory("batch-test").toFile();
+    try {
+      run(dir);
+    } finally {
+      delete(dir);
+    }
+  }
+
+  private static void run(File dir) throws Exception {
+    final Random random = new Random(0);
+    final String[] names = {"a.png", "b.png", "c.png"};
+    for (String name : names) {
+      final MBFImage image =
+          HybridTesting.fillRandom(new MBFImage(96, 64, ColourSpace.RGB), random);
+      ImageUtilities.write(image, new File(dir, name));
+    }
+    final File manifest = new File(dir, "manifest.csv");
+    try (PrintWriter writer = new PrintWriter(manifest, "UTF-8")) {
+      writer.println("low,high,lowSigma,highSigma,output");
+      writer.println("# Comments are ignored");
+      writer.println("a.png,b.png,4,2,out/ab.png");
+      writer.println("b.png,c.png,3,1.5,out/bc.png");
+      writer.println("c.png,a.png,2,2,out/ca.png");
+      writer.println("missing.png,a.png,2,2,out/missing.png");
+    }
+    final File out = new File(dir, "results");
+    final List<HybridTask> tasks = Manifest.read(manifest, out);
+    if (tasks.size() != 4) {
+      throw new AssertionError("Expected 4 tasks in manifest, read " + tasks.size());
+    }
+
+    // First run writes every hybrid with inputs, the missing input fails without stopping the batch
+    final HybridPipeline pipeline = new HybridPipeline(1, 2, 1, 2);
+    HybridPipeline.Summary summary = pipeline.run(tasks, null, 0);
+    System.out.println("First run: " + summary);
+    check(summary, 3, 1, 0);
+    for (HybridTask task : tasks.subList(0, 3)) {
+      final MBFImage expected =
+          new HybridConvolution(task.getLowSigma(), task.getHighSigma()).createHybrid(
+              ImageUtilities.readMBF(task.getLow()), ImageUtilities.readMBF(task.getHigh()));
+      final MBFImage actual = ImageUtilities.readMBF(task.getOutput());
+      if (!matches(expected, actual)) {
+        throw new AssertionError("Hybrid differs from HybridConvolution: " + task);
+      }
+    }
+    if (tasks.get(3).getOutput().exists()) {
+      throw new AssertionError("Output written for failed task");
+    }
+
+    // Second run resumes, only the deleted output and the failed task are attempted again
+    if (!tasks.get(1).getOutput().delete()) {
+      throw new IOException("Unable to delete " + tasks.get(1).getOutput());
+    }
+    summary = pipeline.run(Manifest.read(manifest, out), null, 0);
+    System.out.println("Resumed run: " + summary);
+    check(summary, 1, 1, 2);
+    if (!tasks.get(1).getOutput().isFile()) {
+      throw new AssertionError("Deleted output was not written again");
+    }
+    System.out.println("Batch outputs, failures and resume match");
+
+    // A caller interrupted while feeding the batch tears the pipeline down rather than leaving
+    // workers blocked
+    if (!tasks.get(0).getOutput().delete()) {
+      throw new IOException("Unable to delete " + tasks.get(0).getOutput());
+    }
+    Thread.currentThread().interrupt();
+    try {
+      pipeline.run(Manifest.read(manifest, out), null, 0);
+      throw new AssertionError("Interrupted batch returned normally");
+    } catch (InterruptedException e) {
+      System.out.println("Interrupted batch stopped");
+    }
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("hybrid-")) {
+        thread.join(10000);
+        if (thread.isAlive()) {
+          throw new AssertionError("Worker left running after interrupt: " + thread.getName());
+        }
+      }
+    }
+  }
+
+  private static void check(HybridPipeline.Summary summary, long completed, long failed,
+      int skipped) {
+    if (summary.getCompleted() != completed || summary.getFailed() != failed
+        || summary.getSkipped() != skipped) {
+      throw new AssertionError(String.format(
+          "Expected completed=%d failed=%d skipped=%d, found completed=%d failed=%d skipped=%d",
+          completed, failed, skipped, summary.getCompleted(), summary.getFailed(),
+          summary.getSkipped()));
+    }
+  }
+
+  private static boolean matches(MBFImage expected, MBFImage actual) {
+    if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()) {
+      return false;
+    }
+    // Outputs are quantised when encoded
+    for (int b = 0; b < expected.numBands(); b++) {
+      final float[][] e = expected.getBand(b).pixels;
+      final float[][] a = actual.getBand(b).pixels;
+      for (int y = 0; y < e.length; y++) {
+        for (int x = 0; x < e[y].length; x++) {
+          if (Math.abs(Math.min(1, Math.max(0, e[y][x])) - a[y][x]) > TOLERANCE) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  private static void delete(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+}
@@ -0,0 +1,127 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.util.Iterator;
+import java.util.Random;
+import org.openimaj.image.FImage;
+import org.openimaj.image.MBFImage;
+import org.openimaj.image.colour.ColourSpace;
+import uk.ac.soton.ecs.dsj.lib.BorderMode;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.GaussianPyramid;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MultiBandConvolution;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that every strategy computes the border of each extending border mode the same as a direct
+ * sum over the extended image, including image sizes where wrapping comes from the cyclic transform
+ * itself and multi-band images. Also compares the time of each mode with the zero border.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class BorderTest {
+  private static final float TOLERANCE = 1e-4f;
+  private static final int REPEATS = 10;
+
+  public static void main(String[] args) {
+    final Random random = new Random(0);
+    // Box kernel so that every strategy can run with it
+    final float[][] kernel = new float[7][11];
+    for (float[] row : kernel) {
+      for (int x = 0; x < row.length; x++) {
+        row[x] = 1f / 77;
+      }
+    }
+    boolean failed = false;
+    // Power of two sizes are wrapped by the transform itself
+    for (int[] size : new int[][] {{203, 97}, {256, 128}}) {
+      final FImage image = HybridTesting.createRandomImage(size[0], size[1], random);
+      for (BorderMode mode : BorderMode.values()) {
+        if (!mode.isExtending()) {
+          continue;
+        }
+        final FImage expected = convolve(image, kernel, mode);
+        for (ConvolutionStrategy strategy : ConvolutionStrategy.values()) {
+          final FImage actual = image.process(new MyConvolution(kernel, strategy, null, mode));
+          final float error = HybridTesting.maxError(expected, actual);
+          if (error > TOLERANCE) {
+            System.err.println(String.format("%dx%d %s %s: max error %g", size[0], size[1], mode,
+                strategy, error));
+            failed = true;
+          }
+        }
+      }
+    }
+
+    // Bands of a multi-band image are each extended
+    final MBFImage colour = new MBFImage(120, 90, ColourSpace.RGB);
+    for (int b = 0; b < colour.numBands(); b++) {
+      colour.getBand(b).internalAssign(HybridTesting.createRandomImage(120, 90, random));
+    }
+    for (ConvolutionStrategy strategy : new ConvolutionStrategy[] {ConvolutionStrategy.NAIVE,
+        ConvolutionStrategy.FOURIER}) {
+      final MBFImage processed = colour.process(new MultiBandConvolution(
+          new MyConvolution(kernel, strategy, null, BorderMode.REFLECT)));
+      for (int b = 0; b < colour.numBands(); b++) {
+        failed |= HybridTesting.maxError(convolve(colour.getBand(b), kernel, BorderMode.REFLECT),
+            processed.getBand(b)) > TOLERANCE;
+      }
+    }
+
+    // Pyramid levels can be extended by any mode
+    for (BorderMode mode : new BorderMode[] {BorderMode.REFLECT, BorderMode.WRAP}) {
+      final GaussianPyramid pyramid = new GaussianPyramid(1, 1, mode);
+      final FImage image = HybridTesting.createRandomImage(64, 48, random);
+      int levels = 0;
+      for (Iterator<FImage> it = pyramid.levels(image); it.hasNext(); it.next()) {
+        levels++;
+      }
+      failed |= levels < 3;
+    }
+    if (failed) {
+      throw new AssertionError("Border modes differ from direct sum over extended image");
+    }
+    System.out.println("Border modes match direct sum over extended image");
+
+    // Cost of computing the border rather than zeroing it
+    final FImage image = HybridTesting.createRandomImage(640, 480, random);
+    final FImage output = new FImage(image.width, image.height);
+    for (ConvolutionStrategy strategy : ConvolutionStrategy.values()) {
+      final StringBuilder sb = new StringBuilder(strategy.toString());
+      for (BorderMode mode : BorderMode.values()) {
+        final MyConvolution conv = new MyConvolution(kernel, strategy, null, mode);
+        conv.processImage(image, output);
+        final long start = System.nanoTime();
+        for (int r = 0; r < REPEATS; r++) {
+          conv.processImage(image, output);
+        }
+        final long time = (System.nanoTime() - start) / REPEATS;
+        sb.append(String.format(", %s=%.2fms", mode, time / 1e6));
+      }
+      System.out.println(sb);
+    }
+  }
+
+  /**
+   * Direct sum of every kernel value over an image extended by a border mode.
+   */
+  private static FImage convolve(FImage image, float[][] kernel, BorderMode mode) {
+    final int kh = kernel.length;
+    final int kw = kernel[0].length;
+    final FImage processed = new FImage(image.width, image.height);
+    for (int y = 0; y < image.height; y++) {
+      for (int x = 0; x < image.width; x++) {
+        double sum = 0;
+        for (int ky = 0; ky < kh; ky++) {
+          final int sy = mode.index(y - ky + kh / 2, image.height);
+          for (int kx = 0; kx < kw; kx++) {
+            sum += kernel[ky][kx] * image.pixels[sy][mode.index(x - kx + kw / 2, image.width)];
+          }
+        }
+        processed.pixels[y][x] = (float) sum;
+      }
+    }
+    return processed;
+  }
+
+}
@@ -0,0 +1,99 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.openimaj.image.FImage;
+import uk.ac.soton.ecs.dsj.lib.BoxConvolution;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.GaussianKernelFactory;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that the box strategy matches the naive strategy on the uniform kernels of KernelTesting and
+ * is chosen for them, that its output does not depend on the pool it runs on, and that the
+ * repeated box approximation of a Gaussian is within its error
+ * bound. Also compares the time of each against the strategies they replace.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class BoxTest {
+  private static final float TOLERANCE = 1e-5f;
+  private static final float[] SIGMAS = {4, 12, 30};
+
+  public static void main(String[] args) {
+    final Random random = new Random(0);
+    final FImage image = HybridTesting.createRandomImage(800, 600, random);
+
+    boolean failed = false;
+    final ForkJoinPool[] pools = {new ForkJoinPool(2), new ForkJoinPool(3), new ForkJoinPool(8)};
+    final int[][] sizes = {{1, 25}, {25, 1}, {5, 5}, {31, 31}};
+    for (int[] size : sizes) {
+      final float[][] kernel = new float[size[0]][size[1]];
+      for (float[] row : kernel) {
+        Arrays.fill(row, 0.05f);
+      }
+      final MyConvolution naive = new MyConvolution(kernel, ConvolutionStrategy.NAIVE);
+      final MyConvolution box = new MyConvolution(kernel, ConvolutionStrategy.BOX);
+      long start = System.nanoTime();
+      final FImage expected = image.process(naive);
+      final long naiveTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      final FImage actual = image.process(box);
+      final long boxTime = System.nanoTime() - start;
+      final float error = HybridTesting.maxError(expected, actual);
+      final ConvolutionStrategy selected =
+          new MyConvolution(kernel).selectStrategy(image.height, image.width).getStrategy();
+      System.out.println(String.format(
+          "%dx%d box: max error %g, naive=%.1fms, box=%.1fms, selected %s", size[1], size[0],
+          error, naiveTime / 1e6, boxTime / 1e6, selected));
+      failed |= error > TOLERANCE * size[0] * size[1] * 0.05f;
+      for (ForkJoinPool pool : pools) {
+        final FImage pooled =
+            image.process(new MyConvolution(kernel, ConvolutionStrategy.BOX, pool));
+        if (!Arrays.deepEquals(actual.pixels, pooled.pixels)) {
+          System.err.println(String.format("%dx%d box differs on %d threads", size[1], size[0],
+              pool.getParallelism()));
+          failed = true;
+        }
+      }
+    }
+    for (ForkJoinPool pool : pools) {
+      pool.shutdown();
+    }
+
+    final FImage smooth = new FImage(image.width, image.height);
+    for (int y = 0; y < smooth.height; y++) {
+      for (int x = 0; x < smooth.width; x++) {
+        smooth.pixels[y][x] = (float) (0.5 + 0.5 * Math.sin(x / 37.0) * Math.cos(y / 23.0));
+      }
+    }
+    for (float sigma : SIGMAS) {
+      final MyConvolution gaussian = GaussianKernelFactory.getDefault().getLowPass(sigma);
+      final FImage output = new FImage(image.width, image.height);
+      for (FImage input : new FImage[] {image, smooth}) {
+        long start = System.nanoTime();
+        final FImage expected = input.process(gaussian);
+        final long gaussianTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        BoxConvolution.approximateGaussian(input, sigma, BoxConvolution.DEFAULT_GAUSSIAN_PASSES,
+            output);
+        final long boxTime = System.nanoTime() - start;
+        final double bound = BoxConvolution.getGaussianErrorBound(sigma,
+            BoxConvolution.DEFAULT_GAUSSIAN_PASSES);
+        final float error = HybridTesting.maxError(expected, output);
+        System.out.println(String.format(
+            "Gaussian sigma %.0f (%s): max error %.5f (bound %.5f), %s=%.1fms, boxes=%.1fms",
+            sigma, (input == image) ? "noise" : "smooth", error, bound,
+            gaussian.selectStrategy(input.height, input.width).getStrategy(), gaussianTime / 1e6,
+            boxTime / 1e6));
+        failed |= error > bound + TOLERANCE;
+      }
+    }
+    if (failed) {
+      throw new AssertionError("Box convolution exceeded its tolerance");
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.openimaj.image.FImage;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that one shared convolution instance per strategy gives the same results from many threads
+ * as from one, and that changing the caller's kernel after construction has no effect. Virtual
+ * threads are also used if the runtime supports them.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class ConcurrencyTest {
+  private static final int THREADS = 8;
+  private static final int TASKS = 64;
+
+  public static void main(String[] args) throws Exception {
+    final Random random = new Random(0);
+    final FImage[] images = new FImage[4];
+    for (int i = 0; i < images.length; i++) {
+      // Different sizes so that memoised strategies and spectra are replaced concurrently
+      images[i] = HybridTesting.createRandomImage(200 + 17 * i, 150 + 11 * i, random);
+    }
+    final float[][] kernel = HybridTesting.createSeparableKernel(7, 7);
+
+    final List<MyConvolution> convs = new ArrayList<MyConvolution>();
+    for (ConvolutionStrategy strategy : ConvolutionStrategy.values()) {
+      if (strategy == ConvolutionStrategy.BOX) {
+        // Kernel values are not all equal
+        continue;
+      }
+      convs.add(new MyConvolution(kernel, strategy));
+    }
+    convs.add(new MyConvolution(kernel));
+    final List<FImage[]> expected = new ArrayList<FImage[]>();
+    for (MyConvolution conv : convs) {
+      final FImage[] results = new FImage[images.length];
+      for (int i = 0; i < images.length; i++) {
+        results[i] = images[i].process(conv);
+      }
+      expected.add(results);
+    }
+    // Changing the caller's kernel must not change any instance
+    for (float[] row : kernel) {
+      Arrays.fill(row, 1f);
+    }
+
+    final ExecutorService platform = Executors.newFixedThreadPool(THREADS);
+    try {
+      run("platform", platform, convs, images, expected);
+    } finally {
+      platform.shutdown();
+    }
+    final ExecutorService virtual = createVirtualExecutor();
+    if (virtual != null) {
+      try {
+        run("virtual", virtual, convs, images, expected);
+      } finally {
+        virtual.shutdown();
+      }
+    }
+  }
+
+  private static void run(String name, ExecutorService executor, final List<MyConvolution> convs,
+      final FImage[] images, final List<FImage[]> expected)
+      throws InterruptedException, ExecutionException {
+    final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    final long start = System.nanoTime();
+    for (int t = 0; t < TASKS; t++) {
+      final int task = t;
+      results.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          boolean matched = true;
+          for (int c = 0; c < convs.size(); c++) {
+            for (int j = 0; j < images.length; j++) {
+              final int i = (task + j) % images.length;
+              final FImage output = new FImage(images[i].width, images[i].height);
+              convs.get(c).processImage(images[i], output);
+              matched &= Arrays.deepEquals(expected.get(c)[i].pixels, output.pixels);
+            }
+          }
+          return matched;
+        }
+      }));
+    }
+    for (Future<Boolean> result : results) {
+      if (!result.get()) {
+        throw new AssertionError("Shared convolution gave different results on " + name
+            + " threads");
+      }
+    }
+    System.out.println(String.format("%d tasks on %s threads match in %.1fms", TASKS, name,
+        (System.nanoTime() - start) / 1e6));
+  }
+
+  private static ExecutorService createVirtualExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      System.out.println("Virtual threads not supported by this runtime");
+      return null;
+    }
+  }
+
+}
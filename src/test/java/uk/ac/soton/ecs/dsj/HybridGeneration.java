@@ -6,6 +6,7 @@ import java.net.URL;
 import org.openimaj.image.DisplayUtilities;
 import org.openimaj.image.ImageUtilities;
 import org.openimaj.image.MBFImage;
+import uk.ac.soton.ecs.dsj.lib.HybridConvolution;
 import uk.ac.soton.ecs.dsj.lib.HybridTesting;
 import uk.ac.soton.ecs.dsj.lib.MyConvolution;
 
@@ -54,15 +55,11 @@ public class HybridGeneration {
     final float lowSigma = 6f;
     final float highSigma = 1f;
 
+    // Components are only generated for display, the hybrid is generated in a single pass
     imgLowFrequency = HybridTesting.applyLowPass(img1, lowSigma);
     imgHighFrequency = img2.subtract(HybridTesting.applyLowPass(img2, highSigma));
-    imgHybrid = imgLowFrequency.add(imgHighFrequency);
-
-    // Remove any undefined pixels (set max_sigma to highest sigma used)
-    int max_sigma = (int) Math.max(lowSigma, highSigma);
-    int border = (8 * max_sigma + 1) / 2;
-    imgHybrid = imgHybrid.extractROI(border, border, imgHybrid.getWidth() - border * 2,
-        imgHybrid.getHeight() - border * 2);
+    // Undefined border pixels are not produced
+    imgHybrid = new HybridConvolution(lowSigma, highSigma).createHybrid(img1, img2);
 
     try {
       ImageUtilities.write(img1, new File("lowbase.png"));
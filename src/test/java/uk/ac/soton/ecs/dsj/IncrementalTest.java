@@ -0,0 +1,104 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.openimaj.image.FImage;
+import org.openimaj.math.geometry.shape.Rectangle;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.IncrementalConvolution;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that incremental reconvolution of edited regions matches a full reconvolution exactly, with
+ * and without a pool, for dirty rectangles that overlap, touch the image edges and extend past them.
+ * Also compares the time of a small edit with a full reconvolution.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class IncrementalTest {
+  private static final int EDITS = 50;
+
+  public static void main(String[] args) {
+    final Random random = new Random(0);
+    final FImage image = HybridTesting.createRandomImage(640, 480, random);
+    final List<Rectangle> dirty = Arrays.asList(new Rectangle(100, 100, 20, 10),
+        new Rectangle(110, 105, 30, 30), new Rectangle(-5, 200, 12, 4),
+        new Rectangle(630, 470, 40, 40), new Rectangle(300.5f, 50.25f, 1, 1));
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    final ConvolutionStrategy[] strategies = {ConvolutionStrategy.NAIVE,
+        ConvolutionStrategy.VECTOR, ConvolutionStrategy.SEPARABLE};
+    final int[] kdims = {1, 5, 15};
+    boolean failed = false;
+    for (int kdim : kdims) {
+      final float[][] kernel = HybridTesting.createSeparableKernel(kdim, kdim + 2);
+      for (ConvolutionStrategy strategy : strategies) {
+        for (ForkJoinPool p : new ForkJoinPool[] {null, pool}) {
+          final MyConvolution conv = new MyConvolution(kernel, strategy);
+          final IncrementalConvolution incremental = new IncrementalConvolution(conv, p);
+          final FImage edited = image.clone();
+          final FImage output = new FImage(image.width, image.height);
+          incremental.convolve(edited, output);
+          edit(edited, dirty, random);
+          final List<Rectangle> regions = incremental.update(edited, output, dirty);
+          final FImage expected = edited.process(conv);
+          if (!Arrays.deepEquals(expected.pixels, output.pixels)) {
+            System.err.println(String.format("Kernel %d, %s, %s: output differs", kdim, strategy,
+                (p == null) ? "no pool" : "pool"));
+            failed = true;
+          }
+          failed |= regions.size() != 4;
+        }
+      }
+    }
+    if (failed) {
+      throw new AssertionError("Incremental convolution differs from full reconvolution");
+    }
+    System.out.println("Incremental convolution matches full reconvolution");
+
+    // Small brush strokes with a large kernel
+    final float[][] kernel = HybridTesting.createRandomKernel(31, 31, random);
+    final MyConvolution conv = new MyConvolution(kernel, true, false, pool);
+    final IncrementalConvolution incremental = new IncrementalConvolution(conv);
+    final FImage output = new FImage(image.width, image.height);
+    final FImage edited = image.clone();
+    incremental.convolve(edited, output);
+    for (int r = 0; r < 3; r++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < EDITS; i++) {
+        final List<Rectangle> stroke = Arrays.asList(new Rectangle(
+            random.nextInt(image.width), random.nextInt(image.height), 8, 8));
+        edit(edited, stroke, random);
+        incremental.update(edited, output, stroke);
+      }
+      final long incrementalTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int i = 0; i < EDITS; i++) {
+        conv.processImage(edited, output);
+      }
+      final long fullTime = System.nanoTime() - start;
+      System.out.println(String.format("%d edits: incremental=%.1fms, full %s=%.1fms", EDITS,
+          incrementalTime / 1e6, conv.selectStrategy(image.height, image.width).getStrategy(),
+          fullTime / 1e6));
+    }
+    pool.shutdown();
+  }
+
+  private static void edit(FImage image, List<Rectangle> rects, Random random) {
+    for (Rectangle rect : rects) {
+      final int x0 = Math.max(0, (int) Math.floor(rect.x));
+      final int y0 = Math.max(0, (int) Math.floor(rect.y));
+      final int x1 = Math.min(image.width, (int) Math.ceil(rect.x + rect.width));
+      final int y1 = Math.min(image.height, (int) Math.ceil(rect.y + rect.height));
+      for (int y = y0; y < y1; y++) {
+        for (int x = x0; x < x1; x++) {
+          image.pixels[y][x] = random.nextFloat();
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,79 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.openimaj.image.FImage;
+import org.openimaj.image.processing.convolution.Gaussian2D;
+import uk.ac.soton.ecs.dsj.lib.GaussianKernelFactory;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.KernelSpectrumCache;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that the Gaussian kernel factory returns the same kernels as building them directly, that
+ * repeated sigmas hit the cache, that their spectra are shared through the spectrum cache, and that
+ * the byte bound causes eviction. Also times a sigma sweep with and without the factory.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class KernelFactoryTest {
+  private static final float[] SIGMAS = {1, 2, 4, 6, 8};
+  private static final int SWEEPS = 20;
+
+  public static void main(String[] args) {
+    final GaussianKernelFactory factory =
+        new GaussianKernelFactory(GaussianKernelFactory.DEFAULT_MAX_KERNEL_BYTES);
+    final KernelSpectrumCache spectra = new KernelSpectrumCache(8L * 1024 * 1024);
+    boolean failed = false;
+    for (float sigma : SIGMAS) {
+      final float[][] expected =
+          Gaussian2D.createKernelImage(GaussianKernelFactory.getKernelSize(sigma), sigma).pixels;
+      final float[][] kernel = factory.getKernel(sigma).getKernel();
+      failed |= !Arrays.deepEquals(expected, kernel);
+      failed |= factory.getKernel(sigma).getKernel() != kernel;
+      failed |= !Arrays.equals(KernelSpectrumCache.computeRealSpectrum(expected, 256, 256),
+          spectra.getRealSpectrum(kernel, 256, 256));
+      // A kernel rebuilt for the same sigma finds the spectrum of the factory kernel
+      failed |= spectra.getRealSpectrum(expected, 256, 256) != spectra.getRealSpectrum(kernel, 256,
+          256);
+    }
+    failed |= factory.getKernelCache().getMissCount() != SIGMAS.length;
+    failed |= spectra.getMissCount() != SIGMAS.length;
+
+    // Each 1024x1024 complex spectrum is 8 MiB, so only one fits
+    spectra.getComplexSpectrum(factory.getKernel(1).getKernel(), 1024, 1024);
+    spectra.getComplexSpectrum(factory.getKernel(2).getKernel(), 1024, 1024);
+    failed |= spectra.getEvictionCount() == 0;
+    if (failed) {
+      throw new AssertionError("Factory kernels differ or were not cached");
+    }
+    System.out.println("Factory kernels and spectra match: " + factory + "; spectra: " + spectra);
+
+    // Sweep a handful of sigmas over many images
+    final Random random = new Random(0);
+    final FImage image = HybridTesting.createRandomImage(512, 512, random);
+    final FImage output = new FImage(image.width, image.height);
+    for (int r = 0; r < 2; r++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < SWEEPS; i++) {
+        for (float sigma : SIGMAS) {
+          final float[][] kernel = Gaussian2D
+              .createKernelImage(GaussianKernelFactory.getKernelSize(sigma), sigma).pixels;
+          new MyConvolution(kernel).processImage(image, output);
+        }
+      }
+      final long uncached = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int i = 0; i < SWEEPS; i++) {
+        for (float sigma : SIGMAS) {
+          GaussianKernelFactory.getDefault().getLowPass(sigma).processImage(image, output);
+        }
+      }
+      final long cached = System.nanoTime() - start;
+      System.out.println(String.format("Sweep of %d images: rebuilt=%.1fms, factory=%.1fms",
+          SWEEPS * SIGMAS.length, uncached / 1e6, cached / 1e6));
+    }
+    System.out.println(GaussianKernelFactory.getDefault());
+  }
+
+}
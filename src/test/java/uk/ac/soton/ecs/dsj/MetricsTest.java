@@ -0,0 +1,93 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import org.openimaj.image.FImage;
+import org.openimaj.image.MBFImage;
+import org.openimaj.image.colour.ColourSpace;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionMetrics;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionPhase;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStatistics;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MultiBandConvolution;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that every strategy reports its convolutions and phases to an installed listener, that the
+ * statistics can be read over JMX, and compare the time of a run with and without instrumentation.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class MetricsTest {
+  private static final int REPEATS = 20;
+
+  public static void main(String[] args) throws JMException {
+    final Random random = new Random(0);
+    final FImage image = HybridTesting.createRandomImage(300, 200, random);
+    final float[][] kernel = HybridTesting.createSeparableKernel(9, 9);
+
+    final ConvolutionStatistics statistics = new ConvolutionStatistics();
+    statistics.register();
+    ConvolutionMetrics.setListener(statistics);
+    boolean failed = false;
+    try {
+      for (ConvolutionStrategy strategy : ConvolutionStrategy.values()) {
+        if (strategy == ConvolutionStrategy.BOX) {
+          // Kernel values are not all equal
+          continue;
+        }
+        final MyConvolution conv = new MyConvolution(kernel, strategy);
+        for (int r = 0; r < REPEATS; r++) {
+          image.process(conv);
+        }
+        final ConvolutionStatistics.StrategyStatistics stats = statistics.getStatistics(strategy);
+        failed |= stats.getCount() != REPEATS;
+        failed |= stats.getPhase(ConvolutionPhase.BORDER).getCount() != REPEATS;
+        failed |= stats.getPhase(ConvolutionPhase.ASSIGN).getCount() != REPEATS;
+        if (strategy.isFourier() && strategy != ConvolutionStrategy.BLOCK_FOURIER) {
+          failed |= stats.getPhase(ConvolutionPhase.FORWARD).getCount() != REPEATS;
+          failed |= stats.getPhase(ConvolutionPhase.INVERSE).getCount() != REPEATS;
+        }
+      }
+      final MBFImage colour = new MBFImage(300, 200, ColourSpace.RGB);
+      colour.process(new MultiBandConvolution(new MyConvolution(kernel, ConvolutionStrategy.NAIVE)));
+      failed |= statistics.getStatistics(ConvolutionStrategy.NAIVE).getCount() != REPEATS + 1;
+
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final Object count = server.getAttribute(
+          ConvolutionStatistics.getObjectName(ConvolutionStrategy.FOURIER), "Count");
+      failed |= !Long.valueOf(REPEATS).equals(count);
+      System.out.print(statistics);
+    } finally {
+      ConvolutionMetrics.setListener(null);
+      statistics.unregister();
+    }
+    if (failed) {
+      throw new AssertionError("Convolutions were not all reported");
+    }
+
+    // Overhead of instrumentation on a small spatial convolution
+    final MyConvolution conv = new MyConvolution(kernel, ConvolutionStrategy.SEPARABLE);
+    final FImage output = new FImage(image.width, image.height);
+    for (int r = 0; r < 3; r++) {
+      final long disabled = time(conv, image, output);
+      ConvolutionMetrics.setListener(statistics);
+      final long enabled = time(conv, image, output);
+      ConvolutionMetrics.setListener(null);
+      System.out.println(String.format("SEPARABLE x%d: disabled=%.2fms, enabled=%.2fms",
+          100 * REPEATS, disabled / 1e6, enabled / 1e6));
+    }
+  }
+
+  private static long time(MyConvolution conv, FImage image, FImage output) {
+    final long start = System.nanoTime();
+    for (int r = 0; r < 100 * REPEATS; r++) {
+      conv.processImage(image, output);
+    }
+    return System.nanoTime() - start;
+  }
+
+}
@@ -0,0 +1,84 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.openimaj.image.MBFImage;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.GaussianKernelFactory;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MultiBandConvolution;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that convolving all bands of an image together matches convolving each band on its own, for
+ * every strategy, and that bands processed concurrently on a pool match processing them in turn.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class MultiBandTest {
+  private static final float TOLERANCE = 1e-5f;
+  private static final int POOLED_BANDS = 12;
+  private static final int POOLED_REPEATS = 10;
+
+  public static void main(String[] args) {
+    final Random random = new Random(0);
+    final MBFImage image = HybridTesting.fillRandom(new MBFImage(301, 203, 3), random);
+    final float[][] kernel = HybridTesting.createSeparableKernel(9, 7);
+
+    boolean failed = false;
+    for (ConvolutionStrategy strategy : ConvolutionStrategy.values()) {
+      if (strategy == ConvolutionStrategy.BOX) {
+        // Kernel values are not all equal
+        continue;
+      }
+      final MyConvolution conv = new MyConvolution(kernel, strategy);
+      final MBFImage actual = image.process(new MultiBandConvolution(conv));
+      float maxError = 0;
+      for (int b = 0; b < image.numBands(); b++) {
+        maxError = Math.max(maxError,
+            HybridTesting.maxError(image.getBand(b).process(conv), actual.getBand(b)));
+      }
+      System.out.println(String.format("%s: max error %g", strategy, maxError));
+      failed |= maxError > TOLERANCE;
+    }
+    if (failed) {
+      throw new AssertionError("Multi-band convolution differs from single-band");
+    }
+
+    // Many bands on a pool, each band's convolution must not share scratch memory with another's
+    final MBFImage many = HybridTesting.fillRandom(new MBFImage(300, 700, POOLED_BANDS), random);
+    final float[][] gaussian = GaussianKernelFactory.getDefault().getKernel(1).getKernel();
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (ConvolutionStrategy strategy : ConvolutionStrategy.values()) {
+        if (strategy == ConvolutionStrategy.BOX) {
+          continue;
+        }
+        final MBFImage expected = many.process(
+            new MultiBandConvolution(new MyConvolution(gaussian, strategy, null)));
+        final MultiBandConvolution pooled =
+            new MultiBandConvolution(new MyConvolution(gaussian, strategy, pool));
+        int mismatches = 0;
+        for (int r = 0; r < POOLED_REPEATS; r++) {
+          final MBFImage actual = many.process(pooled);
+          for (int b = 0; b < POOLED_BANDS; b++) {
+            if (!Arrays.deepEquals(expected.getBand(b).pixels, actual.getBand(b).pixels)) {
+              mismatches++;
+              break;
+            }
+          }
+        }
+        System.out.println(String.format("%s pooled: %d of %d runs differ", strategy, mismatches,
+            POOLED_REPEATS));
+        failed |= mismatches > 0;
+      }
+    } finally {
+      pool.shutdown();
+    }
+    if (failed) {
+      throw new AssertionError("Pooled multi-band convolution differs from sequential");
+    }
+  }
+
+}
@@ -0,0 +1,72 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import org.openimaj.image.MBFImage;
+import org.openimaj.image.colour.ColourSpace;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MultiBandConvolution;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+import uk.ac.soton.ecs.dsj.lib.OffHeapImage;
+import uk.ac.soton.ecs.dsj.lib.StreamingConvolution;
+
+/**
+ * Check that off-heap images round trip exactly, that a file-backed image written by one handle is
+ * seen by another, that convolving off-heap matches convolving on heap, and that files with invalid
+ * dimensions are rejected.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class OffHeapTest {
+
+  public static void main(String[] args) throws IOException {
+    final Random random = new Random(0);
+    final MBFImage image =
+        HybridTesting.fillRandom(new MBFImage(403, 251, ColourSpace.RGB), random);
+    final float[][] kernel = HybridTesting.createSeparableKernel(7, 7);
+    final MyConvolution conv = new MyConvolution(kernel, ConvolutionStrategy.SEPARABLE);
+    final MBFImage expected = image.process(new MultiBandConvolution(conv));
+
+    final File file = File.createTempFile("offheap", ".hybf");
+    file.deleteOnExit();
+    final OffHeapImage source = OffHeapImage.fromMBFImage(image);
+    boolean failed = !equal(image, source.toMBFImage(ColourSpace.RGB));
+    try (OffHeapImage sink =
+        OffHeapImage.create(file, image.getWidth(), image.getHeight(), image.numBands())) {
+      new StreamingConvolution(conv, 16).convolve(source, sink);
+    }
+    // Reopen as another process would
+    try (OffHeapImage reopened = OffHeapImage.open(file)) {
+      failed |= !equal(expected, reopened.toMBFImage(ColourSpace.RGB));
+    }
+    // Zero width in the header must be rejected before the file is mapped
+    try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+      raw.seek(4);
+      raw.writeInt(0);
+    }
+    try (OffHeapImage invalid = OffHeapImage.open(file)) {
+      System.err.println("Opened an image of width " + invalid.getWidth());
+      failed = true;
+    } catch (IOException e) {
+      // Expected
+    }
+    if (failed) {
+      throw new AssertionError("Off-heap image differs from on-heap image");
+    }
+    System.out.println("Off-heap images match on-heap images");
+  }
+
+  private static boolean equal(MBFImage a, MBFImage b) {
+    for (int i = 0; i < a.numBands(); i++) {
+      if (!Arrays.deepEquals(a.getBand(i).pixels, b.getBand(i).pixels)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
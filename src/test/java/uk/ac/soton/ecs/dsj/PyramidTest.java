@@ -0,0 +1,67 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.util.Iterator;
+import java.util.Random;
+import org.openimaj.image.FImage;
+import org.openimaj.image.processing.resize.ResizeProcessor;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.GaussianKernelFactory;
+import uk.ac.soton.ecs.dsj.lib.GaussianPyramid;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that decimated convolution matches a full separable convolution sampled at even coordinates
+ * away from the edges, and compare building a pyramid to blurring at full size then resizing.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class PyramidTest {
+  private static final float SIGMA = 1.0f;
+
+  public static void main(String[] args) {
+    final Random random = new Random(0);
+    final FImage image = HybridTesting.createRandomImage(1023, 768, random);
+    final float[][] kernel = GaussianKernelFactory.getDefault().getKernel(SIGMA).getKernel();
+    final MyConvolution conv = new MyConvolution(kernel, ConvolutionStrategy.SEPARABLE);
+    final GaussianPyramid pyramid = new GaussianPyramid(SIGMA, GaussianPyramid.DEFAULT_MIN_SIZE);
+
+    final FImage expected = image.process(conv);
+    final FImage level = pyramid.downsample(image);
+    final int border = kernel.length / 2;
+    for (int y = 0; y < level.height; y++) {
+      for (int x = 0; x < level.width; x++) {
+        final boolean inside = 2 * y >= border && 2 * y < image.height - border
+            && 2 * x >= border && 2 * x < image.width - border;
+        if (inside && level.pixels[y][x] != expected.pixels[2 * y][2 * x]) {
+          throw new AssertionError("Decimated convolution differs at " + x + "," + y);
+        }
+      }
+    }
+    System.out.println("Decimated convolution matches separable convolution");
+
+    for (int r = 0; r < 3; r++) {
+      long start = System.nanoTime();
+      int levels = 0;
+      FImage current = image;
+      while (current.width / 2 >= GaussianPyramid.DEFAULT_MIN_SIZE
+          && current.height / 2 >= GaussianPyramid.DEFAULT_MIN_SIZE) {
+        current = ResizeProcessor.halfSize(current.process(new MyConvolution(kernel)));
+        levels++;
+      }
+      final long naive = System.nanoTime() - start;
+      start = System.nanoTime();
+      final Iterator<FImage> it = pyramid.levels(image);
+      int pyramidLevels = -1;
+      while (it.hasNext()) {
+        it.next();
+        pyramidLevels++;
+      }
+      final long decimated = System.nanoTime() - start;
+      System.out.println(String.format(
+          "Pyramid of %dx%d: blur then resize=%.1fms (%d levels), decimated=%.1fms (%d levels)",
+          image.width, image.height, naive / 1e6, levels, decimated / 1e6, pyramidLevels));
+    }
+  }
+
+}
@@ -0,0 +1,125 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.openimaj.image.FImage;
+import org.openimaj.image.processing.convolution.Gaussian2D;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that Gaussian kernels are separated and that the separable path matches naive convolution
+ * with a zeroed border, that kernels which are not rank 1 are rejected by the tolerance check, and
+ * that the separable path is switched off when it is not allowed.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class SeparableTest {
+  private static final float TOLERANCE = 1e-5f;
+  private static final float[] SIGMAS = {1, 2, 4};
+
+  public static void main(String[] args) {
+    final Random random = new Random(0);
+    final FImage image = new FImage(641, 479);
+    for (float[] row : image.pixels) {
+      for (int x = 0; x < row.length; x++) {
+        row[x] = random.nextFloat();
+      }
+    }
+
+    boolean failed = false;
+    for (float sigma : SIGMAS) {
+      // Same kernel as HybridTesting.applyLowPass
+      int size = (int) (8.0f * sigma + 1.0f);
+      if (size % 2 == 0) {
+        size++;
+      }
+      final float[][] kernel = Gaussian2D.createKernelImage(size, sigma).pixels;
+      final float[][] factors =
+          MyConvolution.separateKernel(kernel, MyConvolution.SEPARABLE_TOLERANCE);
+      if (factors == null) {
+        System.err.println(String.format("Gaussian sigma %.0f was not separated", sigma));
+        failed = true;
+        continue;
+      }
+      final FImage expected = MyConvolution.naiveConvolution(image, kernel);
+      final FImage separable = MyConvolution.separableConvolution(image, factors[0], factors[1]);
+      final FImage allowed = image.process(new MyConvolution(kernel, false, true));
+      final FImage disallowed = image.process(new MyConvolution(kernel, false, false));
+
+      // Separable result matches naive within float tolerance, border pixels are exactly zero
+      failed |= !matches(expected, separable, kernel);
+      // Separable kernels take the fast path unless it is switched off
+      failed |= !Arrays.deepEquals(separable.pixels, allowed.pixels);
+      failed |= !Arrays.deepEquals(expected.pixels, disallowed.pixels);
+      failed |= Arrays.deepEquals(separable.pixels, disallowed.pixels);
+      System.out.println(String.format("Gaussian sigma %.0f: %dx%d kernel separated", sigma,
+          size, size));
+    }
+
+    // Sum of two outer products is rank 2, so it must be rejected
+    final int kdim = 7;
+    final float[] a = new float[kdim];
+    final float[] b = new float[kdim];
+    final float[] c = new float[kdim];
+    final float[] d = new float[kdim];
+    for (int i = 0; i < kdim; i++) {
+      a[i] = random.nextFloat();
+      b[i] = random.nextFloat();
+      c[i] = random.nextFloat();
+      d[i] = random.nextFloat();
+    }
+    final float[][] rank1 = new float[kdim][kdim];
+    final float[][] rank2 = new float[kdim][kdim];
+    for (int y = 0; y < kdim; y++) {
+      for (int x = 0; x < kdim; x++) {
+        rank1[y][x] = a[y] * b[x];
+        rank2[y][x] = a[y] * b[x] + c[y] * d[x];
+      }
+    }
+    if (MyConvolution.separateKernel(rank1, MyConvolution.SEPARABLE_TOLERANCE) == null) {
+      System.err.println("Rank 1 kernel was not separated");
+      failed = true;
+    }
+    if (MyConvolution.separateKernel(rank2, MyConvolution.SEPARABLE_TOLERANCE) != null) {
+      System.err.println("Rank 2 kernel was separated");
+      failed = true;
+    }
+    // A perturbation above the tolerance is rejected, one well below it is accepted
+    rank1[kdim / 2][0] += 1e-3f;
+    failed |= MyConvolution.separateKernel(rank1, MyConvolution.SEPARABLE_TOLERANCE) != null;
+    rank1[kdim / 2][0] -= 1e-3f - 1e-7f;
+    failed |= MyConvolution.separateKernel(rank1, MyConvolution.SEPARABLE_TOLERANCE) == null;
+    // A rejected kernel is applied in full even when separable is allowed
+    failed |= !Arrays.deepEquals(MyConvolution.naiveConvolution(image, rank2).pixels,
+        image.process(new MyConvolution(rank2, false, true)).pixels);
+
+    if (failed) {
+      throw new AssertionError("Separable convolution differs from naive");
+    }
+    System.out.println("Separable convolution matches naive");
+  }
+
+  /**
+   * Compare a result against naive convolution, within tolerance inside the region the full kernel
+   * overlays and exactly zero outside it.
+   */
+  private static boolean matches(FImage expected, FImage actual, float[][] kernel) {
+    final int khh = kernel.length / 2;
+    final int khw = kernel[0].length / 2;
+    for (int y = 0; y < expected.height; y++) {
+      for (int x = 0; x < expected.width; x++) {
+        final float e = expected.pixels[y][x];
+        final float a = actual.pixels[y][x];
+        if (y < khh || y >= expected.height - khh || x < khw || x >= expected.width - khw) {
+          if (a != 0) {
+            return false;
+          }
+        } else if (Math.abs(a - e) > TOLERANCE * Math.max(1, Math.abs(e))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+}
@@ -7,16 +7,23 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.openimaj.image.FImage;
 import org.openimaj.image.processor.SinglebandImageProcessor;
+import uk.ac.soton.ecs.dsj.lib.ConvBlockFFT;
 import uk.ac.soton.ecs.dsj.lib.ConvFFT;
 import uk.ac.soton.ecs.dsj.lib.ConvFFTComplex;
 import uk.ac.soton.ecs.dsj.lib.ConvNaive;
+import uk.ac.soton.ecs.dsj.lib.ConvParallel;
+import uk.ac.soton.ecs.dsj.lib.ConvRealFFT;
 
 /**
- * Test main for COMP3204 Coursework 2.
+ * Test main for COMP3204 Coursework 2. Gives a quick wall-clock comparison only, use the JMH suite
+ * (mvn -P benchmark) for measurements to compare between versions.
  *
  * @author David Jones (dsj1n15@ecs.soton.ac.uk)
  */
@@ -25,6 +32,7 @@ public class SpeedTest {
   public static void main(String[] args) {
     kernelSizeTest();
     imageSizeTest();
+    parallelismTest();
   }
 
   /**
@@ -41,7 +49,7 @@ public class SpeedTest {
     CSVPrinter csvPrinter = null;
     try {
       BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
-      csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader("kdim", "naive", "fft", "fftcomplex"));
+      csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader("kdim", "naive", "fft", "fftcomplex", "realfft"));
     } catch (Exception e) {
       e.printStackTrace();
       throw new RuntimeException();
@@ -56,9 +64,10 @@ public class SpeedTest {
       final ConvNaive convNaive = new ConvNaive(kernel);
       final ConvFFTComplex convFFTComplex = new ConvFFTComplex(kernel);
       final ConvFFT convFFT = new ConvFFT(kernel);
+      final ConvRealFFT convRealFFT = new ConvRealFFT(kernel);
       try {
         csvPrinter.printRecord(kdim, timeTest(img, convNaive, repeats), timeTest(img, convFFTComplex, repeats),
-            timeTest(img, convFFT, repeats));
+            timeTest(img, convFFT, repeats), timeTest(img, convRealFFT, repeats));
         csvPrinter.flush();
       } catch (IOException e) {
         System.err.println("Error writing for dimension: " + kdim);
@@ -85,6 +94,8 @@ public class SpeedTest {
     final ConvNaive convNaive = new ConvNaive(kernel);
     final ConvFFTComplex convFFTComplex = new ConvFFTComplex(kernel);
     final ConvFFT convFFT = new ConvFFT(kernel);
+    final ConvBlockFFT convBlockFFT = new ConvBlockFFT(kernel);
+    final ConvRealFFT convRealFFT = new ConvRealFFT(kernel);
     final int repeats = 25;
 
     // Create csv writer for results
@@ -92,7 +103,7 @@ public class SpeedTest {
     CSVPrinter csvPrinter = null;
     try {
       BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
-      csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader("imgdim", "naive", "fft", "fftcomplex"));
+      csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader("imgdim", "naive", "fft", "fftcomplex", "blockfft", "realfft"));
     } catch (Exception e) {
       e.printStackTrace();
       throw new RuntimeException();
@@ -105,7 +116,8 @@ public class SpeedTest {
       FImage img = new FImage(imgdim, imgdim);
       try {
         csvPrinter.printRecord(imgdim, timeTest(img, convNaive, repeats), timeTest(img, convFFTComplex, repeats),
-            timeTest(img, convFFT, repeats));
+            timeTest(img, convFFT, repeats), timeTest(img, convBlockFFT, repeats),
+            timeTest(img, convRealFFT, repeats));
         csvPrinter.flush();
       } catch (IOException e) {
         System.err.println("Error writing for image size: " + imgdim);
@@ -122,6 +134,70 @@ public class SpeedTest {
   }
 
 
+  /**
+   * Test parallel naive convolution across increasing numbers of worker threads with repeats. Output
+   * of every parallel run is checked against the sequential implementation.
+   */
+  private static void parallelismTest() {
+    final int maxThreads = Runtime.getRuntime().availableProcessors();
+    final float[][] kernel = new float[9][9];
+    final FImage img = new FImage(4096, 4096);
+    final int repeats = 5;
+    // Contents of kernel and image does not matter for timing but do for the equality check
+    final Random random = new Random(0);
+    for (float[] row : kernel) {
+      for (int x = 0; x < row.length; x++) {
+        row[x] = random.nextFloat();
+      }
+    }
+    for (float[] row : img.pixels) {
+      for (int x = 0; x < row.length; x++) {
+        row[x] = random.nextFloat();
+      }
+    }
+    final FImage expected = img.process(new ConvNaive(kernel));
+
+    // Create csv writer for results
+    Path path = Paths.get(String.format("speed-test-parallelism-%dx%d.csv", img.getWidth(), img.getHeight()));
+    CSVPrinter csvPrinter = null;
+    try {
+      BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
+      csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader("threads", "naive"));
+    } catch (Exception e) {
+      e.printStackTrace();
+      throw new RuntimeException();
+    }
+
+    System.out.println("Starting...");
+    // Double thread count each step, finishing on all available processors
+    for (int threads = 1;; threads = Math.min(threads * 2, maxThreads)) {
+      System.out.println("Processing for threads: " + threads);
+      final ForkJoinPool pool = new ForkJoinPool(threads);
+      final ConvParallel convParallel = new ConvParallel(kernel, pool);
+      if (!Arrays.deepEquals(expected.pixels, img.process(convParallel).pixels)) {
+        System.err.println("Parallel output differs from sequential for threads: " + threads);
+      }
+      try {
+        csvPrinter.printRecord(threads, timeTest(img, convParallel, repeats));
+        csvPrinter.flush();
+      } catch (IOException e) {
+        System.err.println("Error writing for threads: " + threads);
+      }
+      pool.shutdown();
+      if (threads == maxThreads) {
+        break;
+      }
+    }
+    if (csvPrinter != null) {
+      try {
+        csvPrinter.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+    System.out.println("Finished!");
+  }
+
   /**
    * Time an image processor execution time across a given number of repeats.
    * 
@@ -0,0 +1,98 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.openimaj.image.FImage;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MappedFloatImage;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+import uk.ac.soton.ecs.dsj.lib.StreamingConvolution;
+
+/**
+ * Check that streaming strip convolution through memory-mapped raw float files matches MyConvolution
+ * exactly, for strip heights from a single row up to the whole image, and that uniform kernels are
+ * streamed with a strategy that also matches exactly.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class StreamingTest {
+
+  public static void main(String[] args) throws IOException {
+    final Random random = new Random(0);
+    final FImage image = HybridTesting.createRandomImage(517, 301, random);
+    final File sourceFile = File.createTempFile("streaming-source", ".raw");
+    final File sinkFile = File.createTempFile("streaming-sink", ".raw");
+    sourceFile.deleteOnExit();
+    sinkFile.deleteOnExit();
+    try (MappedFloatImage source =
+        MappedFloatImage.create(sourceFile, image.width, image.height)) {
+      source.write(0, image, 0, image.height);
+    }
+
+    final int[] kdims = {1, 3, 9, 15};
+    final int[] stripHeights = {1, 2, 7, 64, 1000};
+    final ConvolutionStrategy[] strategies = {ConvolutionStrategy.NAIVE,
+        ConvolutionStrategy.VECTOR, ConvolutionStrategy.SEPARABLE};
+    boolean failed = false;
+    for (int kdim : kdims) {
+      final float[][] kernel = HybridTesting.createSeparableKernel(kdim, kdim + 2);
+      for (ConvolutionStrategy strategy : strategies) {
+        final MyConvolution conv = new MyConvolution(kernel, strategy);
+        final FImage expected = image.process(conv);
+        for (int stripHeight : stripHeights) {
+          final FImage actual = new FImage(image.width, image.height);
+          try (MappedFloatImage source =
+              MappedFloatImage.open(sourceFile, image.width, image.height);
+              MappedFloatImage sink =
+                  MappedFloatImage.create(sinkFile, image.width, image.height)) {
+            new StreamingConvolution(conv, stripHeight).convolve(source, sink);
+            sink.read(0, actual);
+          }
+          if (!Arrays.deepEquals(expected.pixels, actual.pixels)) {
+            System.err.println(String.format("Kernel %d, %s, strip height %d: output differs", kdim,
+                strategy, stripHeight));
+            failed = true;
+          }
+        }
+      }
+    }
+
+    // Uniform kernels must not be streamed with BOX, whose running sums depend on where they start
+    final float[][] uniform = new float[9][9];
+    for (float[] row : uniform) {
+      Arrays.fill(row, 1 / 81f);
+    }
+    final MyConvolution conv = new MyConvolution(uniform);
+    final ConvolutionStrategy strategy = new StreamingConvolution(conv).getStrategy();
+    final FImage expected = image.process(new MyConvolution(uniform, strategy));
+    failed |= strategy == ConvolutionStrategy.BOX;
+    for (int stripHeight : stripHeights) {
+      final FImage actual = new FImage(image.width, image.height);
+      try (MappedFloatImage source = MappedFloatImage.open(sourceFile, image.width, image.height);
+          MappedFloatImage sink = MappedFloatImage.create(sinkFile, image.width, image.height)) {
+        new StreamingConvolution(conv, stripHeight).convolve(source, sink);
+        sink.read(0, actual);
+      }
+      if (!Arrays.deepEquals(expected.pixels, actual.pixels)) {
+        System.err.println(String.format("Uniform kernel, %s, strip height %d: output differs",
+            strategy, stripHeight));
+        failed = true;
+      }
+    }
+    try {
+      new StreamingConvolution(new MyConvolution(uniform, ConvolutionStrategy.BOX));
+      System.err.println("Streaming accepted BOX");
+      failed = true;
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    if (failed) {
+      throw new AssertionError("Streaming convolution differs from MyConvolution");
+    }
+    System.out.println("Streaming convolution matches MyConvolution");
+  }
+
+}
@@ -0,0 +1,60 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import org.openimaj.image.FImage;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.FourierSweep;
+import uk.ac.soton.ecs.dsj.lib.GaussianKernelFactory;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that a sigma sweep from one forward transform matches convolving with each sigma separately,
+ * and compare its time to transforming the image for every sigma.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class SweepTest {
+  private static final float[] SIGMAS = {1, 1.5f, 2, 3, 4, 5, 6, 8, 10, 12};
+
+  public static void main(String[] args) {
+    final Random random = new Random(0);
+    final FImage image = HybridTesting.createRandomImage(640, 480, random);
+
+    final Iterator<FImage> sweep = new FourierSweep(image).sweep(SIGMAS);
+    for (float sigma : SIGMAS) {
+      final float[][] kernel = GaussianKernelFactory.getDefault().getKernel(sigma).getKernel();
+      final FImage expected =
+          image.process(new MyConvolution(kernel, ConvolutionStrategy.REAL_FOURIER));
+      if (!Arrays.deepEquals(expected.pixels, sweep.next().pixels)) {
+        throw new AssertionError("Sweep differs from REAL_FOURIER for sigma " + sigma);
+      }
+    }
+    System.out.println("Sweep matches REAL_FOURIER for " + SIGMAS.length + " sigmas");
+
+    for (int r = 0; r < 3; r++) {
+      long start = System.nanoTime();
+      for (float sigma : SIGMAS) {
+        MyConvolution.alternateFourierConvolution(image,
+            GaussianKernelFactory.getDefault().getKernel(sigma).getKernel());
+      }
+      final long alternate = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (float sigma : SIGMAS) {
+        image.process(GaussianKernelFactory.getDefault().getLowPass(sigma));
+      }
+      final long separate = System.nanoTime() - start;
+      start = System.nanoTime();
+      final Iterator<FImage> it = new FourierSweep(image).sweep(SIGMAS);
+      while (it.hasNext()) {
+        it.next();
+      }
+      final long swept = System.nanoTime() - start;
+      System.out.println(String.format("%d sigmas: alternate=%.1fms, separate=%.1fms, sweep=%.1fms",
+          SIGMAS.length, alternate / 1e6, separate / 1e6, swept / 1e6));
+    }
+  }
+
+}
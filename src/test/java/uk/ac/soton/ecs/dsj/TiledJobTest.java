@@ -0,0 +1,164 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.openimaj.image.FImage;
+import uk.ac.soton.ecs.dsj.hadoop.TileGrid;
+import uk.ac.soton.ecs.dsj.hadoop.TilePartitioner;
+import uk.ac.soton.ecs.dsj.hadoop.TiledConvolutionJob;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MappedFloatImage;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+
+/**
+ * Check that convolving haloed tiles reassembles to MyConvolution of the whole image exactly, first
+ * directly from the tile grid and then through the tiled MapReduce job on Hadoop's local job
+ * runner. Also reports job throughput against tile size and mapper count.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class TiledJobTest {
+  private static final int WIDTH = 2053;
+  private static final int HEIGHT = 1549;
+
+  public static void main(String[] args) throws Exception {
+    final Random random = new Random(0);
+    final FImage image = HybridTesting.createRandomImage(WIDTH, HEIGHT, random);
+    final float[][] kernel = HybridTesting.createSeparableKernel(9, 15);
+    final MyConvolution conv = new MyConvolution(kernel, ConvolutionStrategy.SEPARABLE);
+    final FImage expected = image.process(conv);
+
+    // Tiles cover the image once and each tile convolved from its window matches the whole image
+    boolean failed = false;
+    for (int tileSize : new int[] {5, 64, 300, 3000}) {
+      final TileGrid grid = new TileGrid(WIDTH, HEIGHT, tileSize, kernel.length, kernel[0].length);
+      final FImage actual = new FImage(WIDTH, HEIGHT);
+      final int[][] covered = new int[HEIGHT][WIDTH];
+      for (int i = 0; i < grid.getTiles(); i++) {
+        final int[] t = grid.getTile(i);
+        final int[] w = grid.getWindow(i);
+        failed |= w[2] - w[0] < kernel[0].length || w[3] - w[1] < kernel.length;
+        final FImage window = image.extractROI(w[0], w[1], w[2] - w[0], w[3] - w[1]);
+        final FImage processed = window.process(conv);
+        for (int y = t[1]; y < t[3]; y++) {
+          for (int x = t[0]; x < t[2]; x++) {
+            actual.pixels[y][x] = processed.pixels[y - w[1]][x - w[0]];
+            covered[y][x]++;
+          }
+        }
+      }
+      for (int[] row : covered) {
+        for (int count : row) {
+          failed |= count != 1;
+        }
+      }
+      failed |= !Arrays.deepEquals(expected.pixels, actual.pixels);
+    }
+    if (failed) {
+      throw new AssertionError("Tiles differ from convolving the whole image");
+    }
+    System.out.println("Tiles match convolving the whole image");
+
+    final File dir = Files.createTempDirectory("tiled-job").toFile();
+    try {
+      runJobs(dir, image, kernel, conv, expected);
+    } finally {
+      delete(dir);
+    }
+  }
+
+  /**
+   * Run the tiled job on the local job runner, keeping its files in a directory.
+   */
+  private static void runJobs(File dir, FImage image, float[][] kernel, MyConvolution conv,
+      FImage expected) throws Exception {
+    boolean failed = false;
+    final File source = new File(dir, "source.raw");
+    final File sink = new File(dir, "sink.raw");
+    try (MappedFloatImage mapped = MappedFloatImage.create(source, WIDTH, HEIGHT)) {
+      mapped.write(0, image, 0, HEIGHT);
+    }
+    final Configuration conf = new Configuration();
+    conf.set("mapred.job.tracker", "local");
+    conf.set("fs.default.name", "file:///");
+    conf.set("hadoop.tmp.dir", new File(dir, "tmp").getAbsolutePath());
+    // Completion is polled every 5s by default, which would hide the time of the job itself
+    conf.setInt("jobclient.completion.poll.interval", 50);
+
+    // Reducers are given contiguous bands of tile rows in order
+    final TilePartitioner partitioner = new TilePartitioner();
+    final TiledConvolutionJob job =
+        new TiledConvolutionJob(conf, kernel, ConvolutionStrategy.SEPARABLE, 100, 1, 1);
+    partitioner.setConf(job.createJob(new Path(source.getAbsolutePath()), WIDTH, HEIGHT,
+        new Path(dir.getAbsolutePath(), "unused")).getConfiguration());
+    final TileGrid grid = new TileGrid(WIDTH, HEIGHT, 100, kernel.length, kernel[0].length);
+    int last = 0;
+    for (int i = 0; i < grid.getTiles(); i++) {
+      final int partition = partitioner.getPartition(new LongWritable(i), null, 3);
+      failed |= partition < last || partition > 2;
+      failed |= i % grid.getTilesX() != 0 && partition != last;
+      last = partition;
+    }
+    failed |= last != 2;
+    if (failed) {
+      throw new AssertionError("Tile rows are not partitioned into ordered bands");
+    }
+
+    // Bands of wide mosaics that do not fit in one array are rejected before submission
+    try {
+      new TiledConvolutionJob(conf, kernel, null, 8192, 1, 1).createJob(
+          new Path(source.getAbsolutePath()), 100000, 100000, new Path(dir.getAbsolutePath(), "w"));
+      throw new AssertionError("Band too large for one array was accepted");
+    } catch (IllegalArgumentException e) {
+      System.out.println("Rejected: " + e.getMessage());
+    }
+
+    // Local job for each tile size and mapper count, single node convolution for comparison
+    final long start = System.nanoTime();
+    image.process(conv);
+    System.out.println(String.format("MyConvolution: %.1f Mpixel/s",
+        (double) WIDTH * HEIGHT / ((System.nanoTime() - start) / 1e9) / 1e6));
+    int run = 0;
+    for (int tileSize : new int[] {128, 256, 512}) {
+      for (int maps : new int[] {1, 2, 4}) {
+        final double seconds = new TiledConvolutionJob(conf, kernel,
+            ConvolutionStrategy.SEPARABLE, tileSize, maps, 1).convolve(
+                new Path(source.getAbsolutePath()), WIDTH, HEIGHT,
+                new Path(dir.getAbsolutePath(), "work" + run++), new Path(sink.getAbsolutePath()));
+        failed |= !matches(expected, sink);
+        System.out.println(String.format("Tile %d, %d maps: %.2fs, %.1f Mpixel/s", tileSize, maps,
+            seconds, (double) WIDTH * HEIGHT / seconds / 1e6));
+      }
+    }
+    if (failed) {
+      throw new AssertionError("Tiled job output differs from MyConvolution");
+    }
+    System.out.println("Tiled job output matches MyConvolution");
+  }
+
+  private static boolean matches(FImage expected, File sink) throws IOException {
+    final FImage actual = new FImage(WIDTH, HEIGHT);
+    try (MappedFloatImage mapped = MappedFloatImage.open(sink, WIDTH, HEIGHT)) {
+      mapped.read(0, actual);
+    }
+    return Arrays.deepEquals(expected.pixels, actual.pixels);
+  }
+
+  private static void delete(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+}
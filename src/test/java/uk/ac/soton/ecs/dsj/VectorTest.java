@@ -0,0 +1,53 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.util.Random;
+import org.openimaj.image.FImage;
+import uk.ac.soton.ecs.dsj.lib.ConvolutionStrategy;
+import uk.ac.soton.ecs.dsj.lib.HybridTesting;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+import uk.ac.soton.ecs.dsj.lib.VectorConvolution;
+
+/**
+ * Check that the VECTOR strategy matches NAIVE within float tolerance across kernel sizes and image
+ * widths that do and do not fill whole vectors. Run with --add-modules jdk.incubator.vector on a build
+ * made with the vector profile to test the SIMD engine, otherwise the scalar fallback is tested.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class VectorTest {
+  private static final float TOLERANCE = 1e-5f;
+
+  public static void main(String[] args) {
+    System.out.println("Vector engine available: " + VectorConvolution.isAvailable());
+    final int[] kdims = {1, 3, 5, 7, 9, 11, 13, 15, 21, 25, 31, 39};
+    final int[] widths = {39, 64, 127, 509, 1024};
+    final Random random = new Random(0);
+
+    boolean failed = false;
+    for (int width : widths) {
+      final FImage image = HybridTesting.createRandomImage(width, 97, random);
+      for (int kdim : kdims) {
+        // Non-square random kernel to catch any transposition
+        final float[][] kernel = HybridTesting.createRandomKernel(kdim, Math.max(1, kdim - 2), random);
+        final FImage expected = image.process(new MyConvolution(kernel, ConvolutionStrategy.NAIVE));
+        final FImage actual = image.process(new MyConvolution(kernel, ConvolutionStrategy.VECTOR));
+        float maxError = 0;
+        for (int y = 0; y < image.height; y++) {
+          for (int x = 0; x < width; x++) {
+            final float e = expected.pixels[y][x];
+            maxError = Math.max(maxError, Math.abs(actual.pixels[y][x] - e) / Math.max(1, e));
+          }
+        }
+        if (maxError > TOLERANCE) {
+          System.err.println(String.format("Width %d, kernel %d: error %g", width, kdim, maxError));
+          failed = true;
+        }
+      }
+    }
+    if (failed) {
+      throw new AssertionError("Vector convolution differs from naive");
+    }
+    System.out.println("Vector convolution matches naive");
+  }
+
+}
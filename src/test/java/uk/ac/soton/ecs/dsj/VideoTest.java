@@ -0,0 +1,108 @@
+package uk.ac.soton.ecs.dsj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openimaj.image.MBFImage;
+import org.openimaj.video.VideoWriter;
+import uk.ac.soton.ecs.dsj.lib.GaussianKernelFactory;
+import uk.ac.soton.ecs.dsj.lib.HybridConvolution;
+import uk.ac.soton.ecs.dsj.lib.MultiBandConvolution;
+import uk.ac.soton.ecs.dsj.lib.MyConvolution;
+import uk.ac.soton.ecs.dsj.video.SyntheticVideo;
+import uk.ac.soton.ecs.dsj.video.VideoPipeline;
+
+/**
+ * Check that the video pipeline writes every frame of a synthetic video in order and identical to
+ * filtering each frame on its own, for convolution and hybrid filters with one and several filter
+ * workers, and that frames whose filter throws are skipped. Also reports throughput and latency,
+ * including for a live source paced at its frame rate.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class VideoTest {
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+  private static final int FRAMES = 48;
+
+  public static void main(String[] args) throws InterruptedException {
+    final SyntheticVideo video = new SyntheticVideo(WIDTH, HEIGHT, 30, FRAMES, false);
+    final MyConvolution lowPass = GaussianKernelFactory.getDefault().getLowPass(4);
+    final HybridConvolution hybrid = new HybridConvolution(4, 2);
+    final MBFImage still = video.render(1000);
+
+    boolean failed = false;
+    for (int filters : new int[] {1, 4}) {
+      // Convolution of every frame
+      video.reset();
+      List<MBFImage> written = new ArrayList<MBFImage>();
+      VideoPipeline.Summary summary = new VideoPipeline(VideoPipeline.convolution(lowPass),
+          filters, 4).run(video, collect(written), -1);
+      System.out.println(String.format("Convolution, %d filters: %s", filters, summary));
+      for (int i = 0; i < FRAMES && !failed; i++) {
+        final MBFImage expected = video.render(i).process(new MultiBandConvolution(lowPass));
+        failed |= !matches(expected, written.get(i));
+      }
+      failed |= written.size() != FRAMES;
+
+      // Hybrid of every frame with a still image
+      video.reset();
+      written = new ArrayList<MBFImage>();
+      summary = new VideoPipeline(VideoPipeline.hybridWithHigh(hybrid, still), filters, 4)
+          .run(video, collect(written), -1);
+      System.out.println(String.format("Hybrid, %d filters: %s", filters, summary));
+      for (int i = 0; i < FRAMES && !failed; i++) {
+        failed |= !matches(hybrid.createHybrid(video.render(i), still), written.get(i));
+      }
+      failed |= written.size() != FRAMES;
+    }
+
+    // Errors thrown by the filter fail their frame without stopping the pipeline
+    video.reset();
+    final List<MBFImage> written = new ArrayList<MBFImage>();
+    final VideoPipeline.Summary errors = new VideoPipeline(new VideoPipeline.FrameFilter() {
+      private int count = 0;
+
+      @Override
+      public synchronized MBFImage filter(MBFImage frame) {
+        if (count++ % 4 == 0) {
+          throw new OutOfMemoryError("Simulated");
+        }
+        return frame;
+      }
+    }, 2, 1).run(video, collect(written), -1);
+    failed |= errors.getFailed() != FRAMES / 4 || written.size() != FRAMES - FRAMES / 4;
+    if (failed) {
+      throw new AssertionError("Video pipeline frames differ from filtering each frame");
+    }
+    System.out.println("Video pipeline frames match");
+
+    // Webcam-like source, throughput is capped by the frame rate and latency is per frame
+    final SyntheticVideo live = new SyntheticVideo(WIDTH, HEIGHT, 30, -1, true);
+    final VideoPipeline.Summary summary =
+        new VideoPipeline(VideoPipeline.convolution(lowPass), 2, 4).run(live, null, 60);
+    System.out.println(String.format("Live at 30 fps: %s", summary));
+  }
+
+  private static VideoWriter<MBFImage> collect(final List<MBFImage> frames) {
+    return new VideoWriter<MBFImage>(WIDTH, HEIGHT, 30) {
+      @Override
+      public void addFrame(MBFImage frame) {
+        frames.add(frame);
+      }
+    };
+  }
+
+  private static boolean matches(MBFImage expected, MBFImage actual) {
+    if (expected.numBands() != actual.numBands()) {
+      return false;
+    }
+    for (int b = 0; b < expected.numBands(); b++) {
+      if (!Arrays.deepEquals(expected.getBand(b).pixels, actual.getBand(b).pixels)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,14 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+/**
+ * MyConvolution forced to use block FFT for testing purposes.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class ConvBlockFFT extends MyConvolution {
+
+  public ConvBlockFFT(float[][] kernel) {
+    super(kernel, ConvolutionStrategy.BLOCK_FOURIER);
+  }
+
+}
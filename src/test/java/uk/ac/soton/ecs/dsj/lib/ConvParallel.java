@@ -0,0 +1,16 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * MyConvolution forced to use parallel naive implementation for testing purposes.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class ConvParallel extends MyConvolution {
+
+  public ConvParallel(float[][] kernel, ForkJoinPool pool) {
+    super(kernel, ConvolutionStrategy.NAIVE, pool);
+  }
+
+}
@@ -0,0 +1,14 @@
+package uk.ac.soton.ecs.dsj.lib;
+
+/**
+ * MyConvolution forced to use real-input FFT for testing purposes.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class ConvRealFFT extends MyConvolution {
+
+  public ConvRealFFT(float[][] kernel) {
+    super(kernel, ConvolutionStrategy.REAL_FOURIER);
+  }
+
+}
@@ -6,13 +6,12 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Random;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.openimaj.image.FImage;
 import org.openimaj.image.MBFImage;
 import org.openimaj.image.processing.algorithm.FourierTransform;
-import org.openimaj.image.processing.convolution.Gaussian2D;
-import uk.ac.soton.ecs.dsj.lib.MyConvolution;
 
 /**
  * Hybrid testing functions.
@@ -22,22 +21,108 @@ import uk.ac.soton.ecs.dsj.lib.MyConvolution;
 public class HybridTesting {
 
   /**
-   * Apply a low-pass to the given image with the given sigma.
+   * Apply a low-pass to the given image with the given sigma. Kernels and their spectra are
+   * cached by the default {@link GaussianKernelFactory}.
    * 
    * @param image Image to process
    * @param sigma Gaussian blur sigma
    * @return New image with low-pass applied 
    */
   public static MBFImage applyLowPass(MBFImage image, float sigma) {
-    int size = (int) (8.0f * sigma + 1.0f);
-    if (size % 2 == 0) {
-      size++;
-    }
-    float[][] kernel = Gaussian2D.createKernelImage(size, sigma).pixels;
-    MyConvolution conv = new MyConvolution(kernel);
+    MultiBandConvolution conv =
+        new MultiBandConvolution(GaussianKernelFactory.getDefault().getLowPass(sigma));
     return image.process(conv);
   }
 
+  /**
+   * Create an image of uniformly distributed random values in [0, 1).
+   *
+   * @param width Width of image
+   * @param height Height of image
+   * @param random Source of values
+   * @return New image
+   */
+  public static FImage createRandomImage(int width, int height, Random random) {
+    final FImage image = new FImage(width, height);
+    for (float[] row : image.pixels) {
+      for (int x = 0; x < row.length; x++) {
+        row[x] = random.nextFloat();
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Fill every band of an image with uniformly distributed random values in [0, 1).
+   *
+   * @param image Image to fill
+   * @param random Source of values
+   * @return The filled image
+   */
+  public static MBFImage fillRandom(MBFImage image, Random random) {
+    for (FImage band : image.bands) {
+      for (float[] row : band.pixels) {
+        for (int x = 0; x < row.length; x++) {
+          row[x] = random.nextFloat();
+        }
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Create a kernel of uniformly distributed random values in [0, 1), which cannot be separated.
+   *
+   * @param height Height of kernel
+   * @param width Width of kernel
+   * @param random Source of values
+   * @return New kernel
+   */
+  public static float[][] createRandomKernel(int height, int width, Random random) {
+    final float[][] kernel = new float[height][width];
+    for (float[] row : kernel) {
+      for (int x = 0; x < row.length; x++) {
+        row[x] = random.nextFloat();
+      }
+    }
+    return kernel;
+  }
+
+  /**
+   * Create a separable kernel, so that every spatial strategy can run with it. Values differ along
+   * both axes, so a transposed or flipped kernel gives a different result.
+   *
+   * @param height Height of kernel
+   * @param width Width of kernel
+   * @return New kernel
+   */
+  public static float[][] createSeparableKernel(int height, int width) {
+    final float[][] kernel = new float[height][width];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        kernel[y][x] = (y + 1) * (x + 2) / 100f;
+      }
+    }
+    return kernel;
+  }
+
+  /**
+   * Get the largest absolute difference between two images of the same size.
+   *
+   * @param expected First image
+   * @param actual Second image
+   * @return Largest difference between pixels
+   */
+  public static float maxError(FImage expected, FImage actual) {
+    float error = 0;
+    for (int y = 0; y < expected.height; y++) {
+      for (int x = 0; x < expected.width; x++) {
+        error = Math.max(error, Math.abs(expected.pixels[y][x] - actual.pixels[y][x]));
+      }
+    }
+    return error;
+  }
+
   /**
    * Throwaway test function.
    */
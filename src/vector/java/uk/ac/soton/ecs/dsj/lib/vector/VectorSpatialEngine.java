@@ -0,0 +1,57 @@
+package uk.ac.soton.ecs.dsj.lib.vector;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+import org.openimaj.image.FImage;
+import uk.ac.soton.ecs.dsj.lib.SpatialEngine;
+
+/**
+ * Spatial engine computing a vector of neighbouring output pixels at a time along each row. The sum
+ * for each vector is kept in a register across the whole kernel and stored once, and any remaining
+ * pixels at the end of a row are computed with scalar code. Products are multiplied then added in the
+ * same order as the scalar engine rather than fused, so output is bit-identical to it.
+ *
+ * @author David Jones (dsj1n15@ecs.soton.ac.uk)
+ */
+public class VectorSpatialEngine implements SpatialEngine {
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+  @Override
+  public void naiveConvolution(float[] image, int width, int stride, float[] kernel, int kh,
+      int kw, FImage processed, int y0, int y1) {
+    final int khh = kh / 2;
+    final int khw = kw / 2;
+    final int x1 = width - khw;
+    final int lanes = SPECIES.length();
+
+    for (int y = y0; y < y1; y++) {
+      final float[] out = processed.pixels[y];
+      // Offset of the image pixel under the first kernel value for output column 0
+      final int base = (y + khh) * stride + khw;
+      int x = khw;
+      for (; x <= x1 - lanes; x += lanes) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        for (int ky = 0; ky < kh; ky++) {
+          final int row = base - ky * stride + x;
+          for (int kx = 0; kx < kw; kx++) {
+            final FloatVector in = FloatVector.fromArray(SPECIES, image, row - kx);
+            sum = sum.add(in.mul(kernel[ky * kw + kx]));
+          }
+        }
+        sum.intoArray(out, x);
+      }
+      // Finish the row one pixel at a time
+      for (; x < x1; x++) {
+        float val = 0;
+        for (int ky = 0; ky < kh; ky++) {
+          final int row = base - ky * stride + x;
+          for (int kx = 0; kx < kw; kx++) {
+            val += image[row - kx] * kernel[ky * kw + kx];
+          }
+        }
+        out[x] = val;
+      }
+    }
+  }
+
+}